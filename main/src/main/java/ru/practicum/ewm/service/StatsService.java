@@ -5,12 +5,15 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import ru.practicum.ewm.EndpointHitDto;
 import ru.practicum.ewm.ViewStatsDto;
+import ru.practicum.ewm.client.HitSender;
 import ru.practicum.ewm.client.StatsClient;
+import ru.practicum.ewm.client.StatsSnapshot;
 
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 import java.util.stream.Collectors;
 
 @Slf4j
@@ -19,6 +22,7 @@ import java.util.stream.Collectors;
 public class StatsService {
 
     private final StatsClient statsClient;
+    private final HitSender hitSender;
     private final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
 
     public Long getViewsForEvent(Long eventId) {
@@ -26,7 +30,7 @@ public class StatsService {
         String end = LocalDateTime.now().plusDays(1).format(formatter);
 
         List<String> uris = List.of("/events/" + eventId);
-        List<ViewStatsDto> stats = statsClient.getStats(start, end, uris.toArray(new String[0]), true);
+        List<ViewStatsDto> stats = views(start, end, uris);
         return stats.isEmpty() ? 0L : stats.getFirst().getHits();
     }
 
@@ -39,7 +43,7 @@ public class StatsService {
         String start = LocalDateTime.now().minusYears(20L).format(formatter);
         String end = LocalDateTime.now().format(formatter);
 
-        List<ViewStatsDto> stats = statsClient.getStats(start, end, uris.toArray(new String[0]), true);
+        List<ViewStatsDto> stats = views(start, end, uris);
 
         return stats.stream()
                 .collect(Collectors.toMap(
@@ -49,19 +53,28 @@ public class StatsService {
                 ));
     }
 
+    // при недоступном сервере статистики - последние известные просмотры, а не ошибка страницы
+    private List<ViewStatsDto> views(String start, String end, List<String> uris) {
+        StatsSnapshot snapshot = statsClient.getStatsOrStale(start, end, uris.toArray(new String[0]), true);
+        if (snapshot.stale()) {
+            log.warn("Сервер статистики недоступен, просмотры для {} uri взяты из кэша", uris.size());
+        }
+        return snapshot.stats();
+    }
+
+    // hit уходит на сервер статистики в фоне пакетами, запрос пользователя его не ждёт
     public void saveHit(String app, String uri, String ip, LocalDateTime timestamp) {
-        try {
-            EndpointHitDto hitDto = EndpointHitDto.builder()
-                    .app(app)
-                    .uri(uri)
-                    .ip(ip)
-                    .timestamp(timestamp)
-                    .build();
+        EndpointHitDto hitDto = EndpointHitDto.builder()
+                .app(app)
+                .uri(uri)
+                .ip(ip)
+                .timestamp(timestamp)
+                // повторная отправка этого hit не будет засчитана сервером статистики дважды
+                .hitId(UUID.randomUUID().toString())
+                .build();
 
-            statsClient.saveHit(hitDto);
-            log.info("Сохранён хит статистики: app={}, uri={}, ip={}", app, uri, ip);
-        } catch (Exception e) {
-            log.error("Не удалось сохранить статистику для uri {}: {}", uri, e.getMessage(), e);
+        if (hitSender.send(hitDto)) {
+            log.debug("Хит статистики поставлен в очередь: app={}, uri={}, ip={}", app, uri, ip);
         }
     }
 }
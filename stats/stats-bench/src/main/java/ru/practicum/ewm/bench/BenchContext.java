@@ -0,0 +1,89 @@
+package ru.practicum.ewm.bench;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.context.TypeExcludeFilter;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.type.classreading.MetadataReader;
+import org.springframework.core.type.classreading.MetadataReaderFactory;
+import ru.practicum.ewm.StatsServiceApp;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+// stats-server без веб-слоя: H2 - файл в target/bench-db, PostgreSQL - отдельная схема на каждый набор данных.
+// Подключение к PostgreSQL задаётся переменными STATS_BENCH_URL, STATS_BENCH_USERNAME, STATS_BENCH_PASSWORD
+final class BenchContext {
+
+    static final String H2 = "h2";
+    static final String POSTGRESQL = "postgresql";
+
+    private static final String DEFAULT_POSTGRES_URL = "jdbc:postgresql://localhost:5433/stats-db?reWriteBatchedInserts=true";
+
+    private BenchContext() {
+    }
+
+    static ConfigurableApplicationContext start(String database, String dataset, String... properties) {
+        List<String> args = new ArrayList<>();
+        args.add("--spring.profiles.active=bench");
+        args.add("--spring.sql.init.platform=" + database);
+        switch (database) {
+            case H2 -> {
+                Path file = Path.of(System.getProperty("stats.bench.dir", "target/bench-db"), dataset).toAbsolutePath();
+                args.add("--spring.datasource.driver-class-name=org.h2.Driver");
+                args.add("--spring.datasource.url=jdbc:h2:file:" + file);
+                args.add("--spring.datasource.username=admin");
+                args.add("--spring.datasource.password=100");
+            }
+            case POSTGRESQL -> {
+                String url = env("STATS_BENCH_URL", DEFAULT_POSTGRES_URL);
+                String username = env("STATS_BENCH_USERNAME", "admin");
+                String password = env("STATS_BENCH_PASSWORD", "100");
+                String schema = "stats_bench_" + dataset;
+                createSchema(url, username, password, schema);
+                args.add("--spring.datasource.driver-class-name=org.postgresql.Driver");
+                args.add("--spring.datasource.url=" + url + (url.contains("?") ? "&" : "?") + "currentSchema=" + schema);
+                args.add("--spring.datasource.username=" + username);
+                args.add("--spring.datasource.password=" + password);
+            }
+            default -> throw new IllegalArgumentException("Неизвестная база для замеров: " + database);
+        }
+        for (String property : properties) {
+            args.add("--" + property);
+        }
+        return new SpringApplicationBuilder(StatsServiceApp.class)
+                .initializers(BenchContext::excludeStatsClient)
+                .run(args.toArray(String[]::new));
+    }
+
+    // stats-client на classpath нужен HttpTransportBenchmark: его бины и StatsClientApp в контекст сервера не попадают
+    private static void excludeStatsClient(ConfigurableApplicationContext context) {
+        context.getBeanFactory().registerSingleton("statsClientExcludeFilter", new TypeExcludeFilter() {
+            @Override
+            public boolean match(MetadataReader metadataReader, MetadataReaderFactory metadataReaderFactory) {
+                String className = metadataReader.getClassMetadata().getClassName();
+                return className.startsWith("ru.practicum.ewm.client.")
+                        || className.startsWith("ru.practicum.ewm.config.")
+                        || className.equals("ru.practicum.ewm.StatsClientApp");
+            }
+        });
+    }
+
+    private static void createSchema(String url, String username, String password, String schema) {
+        try (Connection connection = DriverManager.getConnection(url, username, password);
+             Statement statement = connection.createStatement()) {
+            statement.execute("CREATE SCHEMA IF NOT EXISTS " + schema);
+        } catch (SQLException e) {
+            throw new IllegalStateException("Не удалось создать схему " + schema, e);
+        }
+    }
+
+    private static String env(String name, String defaultValue) {
+        return Objects.requireNonNullElse(System.getenv(name), defaultValue);
+    }
+}
@@ -0,0 +1,196 @@
+package ru.practicum.ewm.bench;
+
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.ewm.EndpointHitDto;
+import ru.practicum.ewm.model.EncodedHit;
+import ru.practicum.ewm.model.IpAddresses;
+import ru.practicum.ewm.repository.DatabasePlatform;
+import ru.practicum.ewm.repository.HitDictionary;
+import ru.practicum.ewm.sketch.HyperLogLog;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+// воспроизводимые hit-ы: 3 сервиса, 10k uri с перекосом популярности (/events/0 - самый частый),
+// 200k ip; время идёт по порядку через DAYS суток от START, как у реального потока
+final class HitDataset {
+
+    static final LocalDateTime START = LocalDateTime.of(2025, 1, 1, 0, 0);
+    static final int DAYS = 90;
+
+    private static final String[] APPS = {"ewm-main-service", "ewm-admin", "ewm-mobile"};
+    private static final int URIS = 10_000;
+    private static final int IPS = 200_000;
+    private static final int CHUNK_SIZE = 50_000;
+    private static final String[] TABLES = {"endpoint_hits", "endpoint_hits_hourly", "endpoint_hits_daily",
+            "stats_uris", "stats_apps"};
+
+    private final SplittableRandom random;
+
+    HitDataset(long seed) {
+        random = new SplittableRandom(seed);
+    }
+
+    EndpointHitDto nextDto(LocalDateTime timestamp) {
+        return EndpointHitDto.builder()
+                .app(APPS[random.nextInt(APPS.length)])
+                .uri(uri())
+                .ip(ip())
+                .timestamp(timestamp)
+                .build();
+    }
+
+    static String uri(int rank) {
+        return "/events/" + rank;
+    }
+
+    // заново генерирует hit-ы, если в базе лежит набор другого размера; иначе переиспользует готовый.
+    // Сырые hit-ы и готовые агрегаты пишутся пакетами напрямую: HitStorage.saveBatch с пересчётом агрегатов
+    // на каждый пакет работает в разы медленнее
+    static void ensure(ConfigurableApplicationContext context, long hits) {
+        JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+        Long existing = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM endpoint_hits", Long.class);
+        if (existing != null && existing == hits) {
+            return;
+        }
+        clear(jdbcTemplate);
+
+        Loader loader = new Loader(jdbcTemplate, context.getBean(TransactionTemplate.class),
+                context.getBean(HitDictionary.class),
+                context.getEnvironment().getProperty("stats.hll.precision", Integer.class, 14));
+        HitDataset dataset = new HitDataset(42);
+        long span = DAYS * 86_400L;
+        long started = System.nanoTime();
+        for (long i = 0; i < hits; i++) {
+            loader.add(dataset.nextDto(START.plusSeconds(i * span / hits)));
+            if ((i + 1) % 1_000_000 == 0) {
+                System.out.printf("# набор данных: записано %d из %d hit-ов%n", i + 1, hits);
+            }
+        }
+        loader.flush();
+        if (context.getBean(DatabasePlatform.class).isPostgres()) {
+            jdbcTemplate.execute("ANALYZE");
+        }
+        System.out.printf("# набор данных: %d hit-ов за %d с%n", hits, (System.nanoTime() - started) / 1_000_000_000L);
+    }
+
+    static void clear(JdbcTemplate jdbcTemplate) {
+        for (String table : TABLES) {
+            jdbcTemplate.execute("TRUNCATE TABLE " + table);
+        }
+    }
+
+    // hit-ы приходят по порядку времени, поэтому в памяти держатся только агрегаты текущего часа и суток
+    private static final class Loader {
+
+        private static final String INSERT_HIT = "INSERT INTO endpoint_hits (app_id, uri_id, ip, created) VALUES (?, ?, ?, ?)";
+        private static final String INSERT_ROLLUP = "INSERT INTO %s (app_id, uri_id, bucket, hits, visitors) "
+                + "VALUES (?, ?, ?, ?, ?)";
+
+        private final JdbcTemplate jdbcTemplate;
+        private final TransactionTemplate transactionTemplate;
+        private final HitDictionary dictionary;
+        private final int precision;
+        private final Map<String, Integer> appIds = new HashMap<>();
+        private final Map<String, Long> uriIds = new HashMap<>();
+        private final List<Object[]> hits = new ArrayList<>(CHUNK_SIZE);
+        private final Map<BucketKey, Bucket> hourly = new HashMap<>();
+        private final Map<BucketKey, Bucket> daily = new HashMap<>();
+        private final List<Object[]> hourlyRows = new ArrayList<>();
+        private final List<Object[]> dailyRows = new ArrayList<>();
+        private LocalDateTime hour;
+        private LocalDateTime day;
+
+        Loader(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate, HitDictionary dictionary,
+               int precision) {
+            this.jdbcTemplate = jdbcTemplate;
+            this.transactionTemplate = transactionTemplate;
+            this.dictionary = dictionary;
+            this.precision = precision;
+        }
+
+        void add(EndpointHitDto dto) {
+            LocalDateTime created = dto.getTimestamp();
+            LocalDateTime hitHour = created.truncatedTo(ChronoUnit.HOURS);
+            if (!hitHour.equals(hour)) {
+                close(hour, hourly, hourlyRows);
+                hour = hitHour;
+            }
+            LocalDateTime hitDay = created.truncatedTo(ChronoUnit.DAYS);
+            if (!hitDay.equals(day)) {
+                close(day, daily, dailyRows);
+                day = hitDay;
+            }
+            EncodedHit hit = new EncodedHit(appIds.computeIfAbsent(dto.getApp(), dictionary::appId),
+                    uriIds.computeIfAbsent(dto.getUri(), dictionary::uriId), IpAddresses.encode(dto.getIp()), created);
+            count(hourly, hit);
+            count(daily, hit);
+            hits.add(new Object[]{hit.appId(), hit.uriId(), hit.ip(), Timestamp.valueOf(created)});
+            if (hits.size() == CHUNK_SIZE) {
+                write();
+            }
+        }
+
+        void flush() {
+            close(hour, hourly, hourlyRows);
+            close(day, daily, dailyRows);
+            write();
+        }
+
+        private void count(Map<BucketKey, Bucket> buckets, EncodedHit hit) {
+            Bucket bucket = buckets.computeIfAbsent(new BucketKey(hit.appId(), hit.uriId()),
+                    key -> new Bucket(new HyperLogLog(precision)));
+            bucket.hits++;
+            bucket.visitors.add(hit.ip());
+        }
+
+        private void close(LocalDateTime bucket, Map<BucketKey, Bucket> buckets, List<Object[]> rows) {
+            buckets.forEach((key, value) -> rows.add(new Object[]{key.appId(), key.uriId(), Timestamp.valueOf(bucket),
+                    value.hits, value.visitors.toBytes()}));
+            buckets.clear();
+        }
+
+        // пакет hit-ов и закрытые к этому моменту агрегаты пишутся одной транзакцией
+        private void write() {
+            transactionTemplate.executeWithoutResult(status -> {
+                jdbcTemplate.batchUpdate(INSERT_HIT, hits);
+                jdbcTemplate.batchUpdate(INSERT_ROLLUP.formatted("endpoint_hits_hourly"), hourlyRows);
+                jdbcTemplate.batchUpdate(INSERT_ROLLUP.formatted("endpoint_hits_daily"), dailyRows);
+            });
+            hits.clear();
+            hourlyRows.clear();
+            dailyRows.clear();
+        }
+    }
+
+    private record BucketKey(int appId, long uriId) {
+    }
+
+    private static final class Bucket {
+
+        private final HyperLogLog visitors;
+        private long hits;
+
+        Bucket(HyperLogLog visitors) {
+            this.visitors = visitors;
+        }
+    }
+
+    private String uri() {
+        double skew = random.nextDouble();
+        return uri((int) (skew * skew * skew * URIS));
+    }
+
+    private String ip() {
+        int address = random.nextInt(IPS);
+        return "10." + (address >>> 16 & 0xff) + "." + (address >>> 8 & 0xff) + "." + (address & 0xff);
+    }
+}
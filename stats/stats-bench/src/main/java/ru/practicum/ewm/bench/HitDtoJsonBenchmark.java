@@ -0,0 +1,82 @@
+package ru.practicum.ewm.bench;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.practicum.ewm.EndpointHitDto;
+import ru.practicum.ewm.StatsCbor;
+import ru.practicum.ewm.core.config.JacksonConfig;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+// (де)сериализация EndpointHitDto теми же ObjectMapper, что у stats-server: JSON из JacksonConfig и CBOR из StatsCbor
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HitDtoJsonBenchmark {
+
+    private static final int BATCH_SIZE = 100;
+    private static final TypeReference<List<EndpointHitDto>> BATCH_TYPE = new TypeReference<>() {
+    };
+
+    @Param({"json", "cbor"})
+    private String format;
+
+    private ObjectMapper mapper;
+    private EndpointHitDto hit;
+    private List<EndpointHitDto> batch;
+    private byte[] hitBytes;
+    private byte[] batchBytes;
+
+    @Setup
+    public void setUp() throws IOException {
+        mapper = "cbor".equals(format) ? StatsCbor.objectMapper() : new JacksonConfig().objectMapper();
+        HitDataset dataset = new HitDataset(42);
+        batch = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            EndpointHitDto dto = dataset.nextDto(HitDataset.START.plusSeconds(i));
+            dto.setHitId(UUID.randomUUID().toString());
+            batch.add(dto);
+        }
+        hit = batch.getFirst();
+        hitBytes = mapper.writeValueAsBytes(hit);
+        batchBytes = mapper.writeValueAsBytes(batch);
+    }
+
+    @Benchmark
+    public byte[] serializeHit() throws IOException {
+        return mapper.writeValueAsBytes(hit);
+    }
+
+    @Benchmark
+    public EndpointHitDto deserializeHit() throws IOException {
+        return mapper.readValue(hitBytes, EndpointHitDto.class);
+    }
+
+    @Benchmark
+    public byte[] serializeBatch() throws IOException {
+        return mapper.writeValueAsBytes(batch);
+    }
+
+    @Benchmark
+    public List<EndpointHitDto> deserializeBatch() throws IOException {
+        return mapper.readValue(batchBytes, BATCH_TYPE);
+    }
+}
@@ -0,0 +1,139 @@
+package ru.practicum.ewm.bench;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.client.RestClientException;
+import ru.practicum.ewm.EndpointHitDto;
+import ru.practicum.ewm.config.HttpTransport;
+import ru.practicum.ewm.config.HttpTransportSettings;
+import ru.practicum.ewm.service.IngestMode;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+// POST /hit по HTTP к запущенному stats-server из CALLERS потоков - как main-service под нагрузкой -
+// с каждым транспортом HttpTransportSettings; результат в hit-ах в секунду.
+// В режиме ASYNC сервер не ждёт записи в базу, и замер упирается в HTTP. Таймауты под нагрузкой не прерывают
+// замер, а считаются отдельно: delivered и failed в результатах - доставленные и неудачные запросы в секунду
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Threads(HttpTransportBenchmark.CALLERS)
+public class HttpTransportBenchmark {
+
+    static final int CALLERS = 500;
+
+    @Param({BenchContext.H2})
+    private String database;
+
+    @Param({"SIMPLE", "JDK", "APACHE"})
+    private HttpTransport transport;
+
+    @Param({"ASYNC"})
+    private IngestMode mode;
+
+    private ConfigurableApplicationContext context;
+    private ClientHttpRequestFactory requestFactory;
+    private RestClient restClient;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Caller {
+
+        public long delivered;
+        public long failed;
+
+        private HitDataset dataset;
+        private LocalDateTime timestamp;
+
+        @Setup(Level.Iteration)
+        public void resetCounters() {
+            delivered = 0;
+            failed = 0;
+        }
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            dataset = new HitDataset(Thread.currentThread().threadId());
+            timestamp = HitDataset.START;
+        }
+
+        EndpointHitDto next() {
+            timestamp = timestamp.plusNanos(10_000_000);
+            EndpointHitDto dto = dataset.nextDto(timestamp);
+            dto.setHitId(UUID.randomUUID().toString());
+            return dto;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = BenchContext.start(database, "http", "spring.main.web-application-type=servlet", "server.port=0",
+                "stats.ingest.mode=" + mode, "stats.ingest.buffer.overflow=BLOCK");
+        HitDataset.clear(context.getBean(JdbcTemplate.class));
+        int port = context.getEnvironment().getRequiredProperty("local.server.port", Integer.class);
+        // значения по умолчанию stats-client, кроме ожидания соединения: CALLERS потоков делят пул из 100
+        requestFactory = HttpTransportSettings.builder()
+                .transport(transport)
+                .connectTimeout(Duration.ofSeconds(1))
+                .readTimeout(Duration.ofSeconds(10))
+                .poolTimeout(Duration.ofSeconds(10))
+                .maxConnections(200)
+                .maxConnectionsPerRoute(100)
+                .idleTimeout(Duration.ofSeconds(30))
+                .keepAlive(Duration.ofSeconds(15))
+                .build()
+                .requestFactory();
+        restClient = RestClient.builder()
+                .baseUrl("http://localhost:" + port)
+                .requestFactory(requestFactory)
+                .build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        if (requestFactory instanceof DisposableBean disposable) {
+            disposable.destroy();
+        }
+        context.close();
+    }
+
+    @Benchmark
+    public void postHit(Caller caller) {
+        try {
+            restClient.post()
+                    .uri("/hit")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .body(caller.next())
+                    .retrieve()
+                    .toBodilessEntity();
+            caller.delivered++;
+        } catch (RestClientException e) {
+            caller.failed++;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package ru.practicum.ewm.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.practicum.ewm.EndpointHitDto;
+import ru.practicum.ewm.core.exception.TooManyRequestsException;
+import ru.practicum.ewm.service.EndpointHitService;
+import ru.practicum.ewm.service.IngestMode;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+// POST /hit и POST /hits без HTTP: результат в hit-ах в секунду для обоих методов.
+// Как main-service, каждый hit несёт hitId и проходит проверку на повтор
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class IngestBenchmark {
+
+    private static final int BATCH_SIZE = 100;
+
+    @Param({BenchContext.H2})
+    private String database;
+
+    // stats.ingest.mode: ASYNC - запись в базу фоновым потоком
+    @Param({"SYNC"})
+    private IngestMode mode;
+
+    private ConfigurableApplicationContext context;
+    private EndpointHitService service;
+    private HitDataset dataset;
+    private LocalDateTime timestamp;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = BenchContext.start(database, "ingest", "stats.ingest.mode=" + mode,
+                "stats.ingest.buffer.overflow=BLOCK");
+        HitDataset.clear(context.getBean(JdbcTemplate.class));
+        service = context.getBean(EndpointHitService.class);
+        dataset = new HitDataset(42);
+        timestamp = HitDataset.START;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public void createHit() throws TooManyRequestsException {
+        service.createHit(nextDto());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void createHits() throws TooManyRequestsException {
+        List<EndpointHitDto> batch = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            batch.add(nextDto());
+        }
+        service.createHits(batch);
+    }
+
+    private EndpointHitDto nextDto() {
+        timestamp = timestamp.plusNanos(10_000_000);
+        EndpointHitDto dto = dataset.nextDto(timestamp);
+        dto.setHitId(UUID.randomUUID().toString());
+        return dto;
+    }
+}
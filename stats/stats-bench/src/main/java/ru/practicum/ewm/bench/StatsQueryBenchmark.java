@@ -0,0 +1,87 @@
+package ru.practicum.ewm.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import ru.practicum.ewm.ViewStatsDto;
+import ru.practicum.ewm.filter.StatsFilter;
+import ru.practicum.ewm.service.EndpointHitService;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+// GET /stats на заранее записанном наборе: первый запуск пишет его долго (10M на H2 - десятки минут),
+// дальше набор переиспользуется.
+// Границы периода не кратны часу: запрос задевает и агрегаты, и сырые hit-ы по краям
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class StatsQueryBenchmark {
+
+    @Param({BenchContext.H2})
+    private String database;
+
+    @Param({"1000000", "10000000"})
+    private long hits;
+
+    @Param({"false", "true"})
+    private boolean unique;
+
+    // кэш агрегатов по закрытым часам; по умолчанию выключен, чтобы мерить сам расчёт
+    @Param({"false"})
+    private boolean cache;
+
+    private ConfigurableApplicationContext context;
+    private EndpointHitService service;
+    private StatsFilter topUris;
+    private StatsFilter allUris;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = BenchContext.start(database, "hits_" + hits, "stats.cache.enabled=" + cache);
+        HitDataset.ensure(context, hits);
+        service = context.getBean(EndpointHitService.class);
+
+        LocalDateTime start = HitDataset.START.plusDays(10).plusHours(7).plusMinutes(13);
+        LocalDateTime end = HitDataset.START.plusDays(40).plusHours(16).plusMinutes(47);
+        allUris = StatsFilter.builder()
+                .start(start)
+                .end(end)
+                .unique(unique)
+                .build();
+        topUris = allUris.toBuilder()
+                .uris(IntStream.range(0, 10).mapToObj(HitDataset::uri).toList())
+                .build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public List<ViewStatsDto> findStatsTopUris() {
+        return service.findStats(topUris);
+    }
+
+    @Benchmark
+    public List<ViewStatsDto> findStatsAllUris() {
+        return service.findStats(allUris);
+    }
+}
@@ -0,0 +1,361 @@
+package ru.practicum.ewm.client;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+import ru.practicum.ewm.EndpointHitDto;
+
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// отправка hit-ов без ожидания stats-server: send() только кладёт hit в ограниченную очередь,
+// фоновый поток собирает из неё пакеты и отправляет их через POST /hits.
+// Пакет, не доставленный из-за недоступности сервера, пишется в HitSpool и досылается тем же потоком
+// не чаще retry-interval после последней ошибки
+@Slf4j
+@Component
+public class HitSender implements SmartLifecycle, MeterBinder {
+
+    public enum OverflowPolicy {
+        // hit отбрасывается сразу: задержка публичного API не зависит от stats-server
+        DROP,
+        // вызывающий поток ждёт места в очереди не дольше offer-timeout, затем hit отбрасывается
+        BLOCK
+    }
+
+    // итог отправки пакета: каждый пакет попадает ровно в один из счётчиков sent, dropped или в журнал
+    private enum Delivery {
+        DELIVERED,
+        // сервер отверг пакет (4xx), повтор вернёт ту же ошибку
+        REJECTED,
+        // сервер недоступен или просит повторить позже (408, 429): пакет нужно повторить
+        FAILED
+    }
+
+    private static final long POLL_TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final StatsClient statsClient;
+    private final HitSpool spool;
+    private final int batchSize;
+    private final Duration lingerInterval;
+    private final OverflowPolicy overflowPolicy;
+    private final Duration offerTimeout;
+    private final long retryIntervalNanos;
+    private final BlockingQueue<EndpointHitDto> queue;
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+
+    private volatile boolean running;
+    private Thread worker;
+    // время последней ошибки доставки; 0 - сервер считается доступным
+    private long lastFailure;
+
+    public HitSender(StatsClient statsClient,
+                     HitSpool spool,
+                     @Value("${stats-server.sender.capacity:10000}") int capacity,
+                     @Value("${stats-server.sender.batch-size:500}") int batchSize,
+                     @Value("${stats-server.sender.linger:200ms}") Duration lingerInterval,
+                     @Value("${stats-server.sender.overflow:DROP}") OverflowPolicy overflowPolicy,
+                     @Value("${stats-server.sender.offer-timeout:5ms}") Duration offerTimeout,
+                     @Value("${stats-server.spool.retry-interval:5s}") Duration retryInterval) {
+        this.statsClient = statsClient;
+        this.spool = spool;
+        this.batchSize = batchSize;
+        this.lingerInterval = lingerInterval;
+        this.overflowPolicy = overflowPolicy;
+        this.offerTimeout = offerTimeout;
+        this.retryIntervalNanos = retryInterval.toNanos();
+        this.queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    // false - hit отброшен: не заполнены app, uri, ip или timestamp, очередь полна или отправка остановлена.
+    // Неполный hit отбрасывается сразу: в пакете сервер отверг бы его вместе с остальными
+    public boolean send(EndpointHitDto hit) {
+        if (!HitSpool.isComplete(hit)) {
+            dropped.incrementAndGet();
+            log.warn("hit без app, uri, ip или timestamp отброшен: {}", hit);
+            return false;
+        }
+        if (running && enqueue(hit)) {
+            return true;
+        }
+        if (dropped.getAndIncrement() % 1000 == 0) {
+            log.warn("Очередь отправки hit переполнена, hit отброшен. Всего отброшено: {}", dropped.get());
+        }
+        return false;
+    }
+
+    private boolean enqueue(EndpointHitDto hit) {
+        if (overflowPolicy == OverflowPolicy.DROP) {
+            return queue.offer(hit);
+        }
+        try {
+            return queue.offer(hit, offerTimeout.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    public int depth() {
+        return queue.size();
+    }
+
+    public long sent() {
+        return sent.get();
+    }
+
+    public long dropped() {
+        return dropped.get();
+    }
+
+    public long failed() {
+        return failed.get();
+    }
+
+    public long errors() {
+        return errors.get();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("stats.client.sender.queue.depth", queue, BlockingQueue::size)
+                .description("Hit-ы в очереди на отправку")
+                .register(registry);
+        FunctionCounter.builder("stats.client.sender.sent", sent, AtomicLong::get)
+                .description("Доставленные hit-ы, включая досланные из журнала")
+                .register(registry);
+        FunctionCounter.builder("stats.client.sender.dropped", dropped, AtomicLong::get)
+                .description("Потерянные hit-ы: очередь или журнал переполнены, сервер отверг пакет")
+                .register(registry);
+        FunctionCounter.builder("stats.client.sender.failed", failed, AtomicLong::get)
+                .description("Hit-ы, не доставленные с первой попытки")
+                .register(registry);
+        FunctionCounter.builder("stats.client.sender.errors", errors, AtomicLong::get)
+                .description("Непредвиденные ошибки в цикле отправки")
+                .register(registry);
+        Gauge.builder("stats.client.spool.depth", spool, HitSpool::records)
+                .description("Hit-ы в журнале недоставленных")
+                .register(registry);
+        Gauge.builder("stats.client.spool.size", spool, HitSpool::bytes)
+                .description("Размер журнала недоставленных")
+                .baseUnit("bytes")
+                .register(registry);
+        FunctionCounter.builder("stats.client.spool.replayed", spool, HitSpool::replayed)
+                .description("Hit-ы, досланные из журнала")
+                .register(registry);
+    }
+
+    @Override
+    public void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        worker = new Thread(this::sendLoop, "stats-hit-sender");
+        worker.setDaemon(true);
+        worker.start();
+        log.info("Отправка hit запущена. capacity: {}, batchSize: {}, linger: {}, overflow: {}",
+                queue.remainingCapacity(), batchSize, lingerInterval, overflowPolicy);
+    }
+
+    @Override
+    public void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        try {
+            worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        spool.close();
+        log.info("Отправка hit остановлена. В журнале недоставленных: {}", spool.records());
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    // останавливаемся после web-сервера, чтобы отправить hit-ы всех обработанных запросов
+    @Override
+    public int getPhase() {
+        return SmartLifecycle.DEFAULT_PHASE - 4096;
+    }
+
+    private void sendLoop() {
+        List<EndpointHitDto> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                collect(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                running = false;
+            }
+            if (running) {
+                try {
+                    flush(batch);
+                    replay();
+                    syncSpool(false);
+                } catch (RuntimeException e) {
+                    unexpected(batch, e);
+                }
+            }
+        }
+        // при остановке неполный пакет дополняется из очереди
+        while (!batch.isEmpty() || !queue.isEmpty()) {
+            queue.drainTo(batch, batchSize - batch.size());
+            try {
+                flush(batch);
+            } catch (RuntimeException e) {
+                unexpected(batch, e);
+            }
+        }
+        syncSpool(true);
+    }
+
+    // ошибка, не предусмотренная deliver() и журналом, не должна останавливать поток отправки: пакет, на котором
+    // она случилась, считается потерянным, иначе он повторял бы ту же ошибку на каждом проходе
+    private void unexpected(List<EndpointHitDto> batch, RuntimeException e) {
+        errors.incrementAndGet();
+        dropped.addAndGet(batch.size());
+        log.error("Ошибка в цикле отправки hit, отброшено hit: {}", batch.size(), e);
+        batch.clear();
+    }
+
+    // пакет до batchSize или до linger с момента первого hit; ждём короткими интервалами, чтобы stop() не ждал
+    // полный linger. Без новых hit-ов возвращаемся через POLL_TICK: между пакетами идут досылка и fsync журнала
+    private void collect(List<EndpointHitDto> batch) throws InterruptedException {
+        long deadline = 0;
+        while (running && batch.size() < batchSize) {
+            queue.drainTo(batch, batchSize - batch.size());
+            long now = System.nanoTime();
+            if (batch.isEmpty()) {
+                EndpointHitDto next = queue.poll(POLL_TICK_NANOS, TimeUnit.NANOSECONDS);
+                if (next == null) {
+                    return;
+                }
+                batch.add(next);
+                continue;
+            }
+            if (deadline == 0) {
+                deadline = now + lingerInterval.toNanos();
+            }
+            if (batch.size() >= batchSize || deadline - now <= 0) {
+                return;
+            }
+            EndpointHitDto next = queue.poll(Math.min(deadline - now, POLL_TICK_NANOS), TimeUnit.NANOSECONDS);
+            if (next != null) {
+                batch.add(next);
+            }
+        }
+    }
+
+    private void flush(List<EndpointHitDto> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        // пока сервер недоступен, пакет сразу уходит в журнал, не дожидаясь таймаута запроса
+        Delivery delivery = serverDown() ? Delivery.FAILED : deliver(batch);
+        switch (delivery) {
+            case DELIVERED -> sent.addAndGet(batch.size());
+            case REJECTED -> dropped.addAndGet(batch.size());
+            case FAILED -> {
+                failed.addAndGet(batch.size());
+                toSpool(batch);
+            }
+        }
+        batch.clear();
+    }
+
+    // по одному пакету из журнала за проход, чтобы досылка не задерживала свежие hit-ы
+    private void replay() {
+        if (spool.isEmpty() || serverDown()) {
+            return;
+        }
+        try {
+            List<EndpointHitDto> batch = spool.peek(batchSize);
+            if (batch.isEmpty()) {
+                return;
+            }
+            Delivery delivery = deliver(batch);
+            if (delivery != Delivery.FAILED) {
+                spool.ack();
+                (delivery == Delivery.DELIVERED ? sent : dropped).addAndGet(batch.size());
+            }
+        } catch (UncheckedIOException e) {
+            log.error("Не удалось прочитать журнал недоставленных hit: {}", e.getMessage());
+            lastFailure = System.nanoTime();
+        }
+    }
+
+    private boolean serverDown() {
+        return lastFailure != 0 && System.nanoTime() - lastFailure < retryIntervalNanos;
+    }
+
+    private void syncSpool(boolean force) {
+        try {
+            spool.sync(force);
+        } catch (UncheckedIOException e) {
+            log.error("Не удалось сбросить на диск журнал недоставленных hit: {}", e.getMessage());
+        }
+    }
+
+    // пакет, отвергнутый сервером (4xx), не повторяется: повтор вернёт ту же ошибку и остановит досылку
+    // остальных. 408 и 429 (буфер приёма сервера переполнен) - временные ошибки, пакет повторяется из журнала
+    private Delivery deliver(List<EndpointHitDto> batch) {
+        try {
+            statsClient.saveHits(batch);
+            lastFailure = 0;
+            return Delivery.DELIVERED;
+        } catch (HttpClientErrorException e) {
+            if (!retriable(e.getStatusCode())) {
+                log.error("stats-server отверг пакет из {} hit: {}", batch.size(), e.getMessage());
+                return Delivery.REJECTED;
+            }
+            lastFailure = System.nanoTime();
+            log.warn("stats-server просит повторить пакет из {} hit позже: {}", batch.size(), e.getMessage());
+            return Delivery.FAILED;
+        } catch (RuntimeException e) {
+            lastFailure = System.nanoTime();
+            log.warn("Не удалось отправить пакет из {} hit: {}", batch.size(), e.getMessage());
+            return Delivery.FAILED;
+        }
+    }
+
+    private static boolean retriable(HttpStatusCode status) {
+        return status.isSameCodeAs(HttpStatus.TOO_MANY_REQUESTS) || status.isSameCodeAs(HttpStatus.REQUEST_TIMEOUT);
+    }
+
+    private void toSpool(List<EndpointHitDto> batch) {
+        int spooled;
+        try {
+            spooled = spool.append(batch);
+        } catch (UncheckedIOException e) {
+            log.error("Не удалось записать {} hit в журнал недоставленных: {}", batch.size(), e.getMessage());
+            spooled = 0;
+        }
+        if (spooled < batch.size()) {
+            dropped.addAndGet(batch.size() - spooled);
+            log.error("Журнал недоставленных переполнен, отброшено hit: {}", batch.size() - spooled);
+        }
+    }
+}
@@ -0,0 +1,402 @@
+package ru.practicum.ewm.client;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import ru.practicum.ewm.EndpointHitDto;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+// hit-ы, которые не удалось доставить на stats-server: журнал из файлов-сегментов, запись только в конец.
+// Запись: длина, CRC32, тело. Хвост с неполной или испорченной записью (сбой посреди записи) отбрасывается.
+// Досылаются только закрытые сегменты, полностью досланный сегмент удаляется. Позиция подтверждённой досылки
+// сохраняется с fsync в файл spool-N.ack рядом с сегментом: после перезапуска досылка продолжается с неё,
+// и повторно может уйти только пакет, доставленный, но не подтверждённый до сбоя.
+// Не потокобезопасен: вызывается только из потока HitSender, кроме счётчиков для метрик
+@Slf4j
+@Component
+public class HitSpool {
+
+    private static final Pattern NAME = Pattern.compile("spool-\\d{20}\\.log");
+    private static final int HEADER_BYTES = 2 * Integer.BYTES;
+    // позиция (long) и её CRC32: испорченный файл означает досылку сегмента с начала
+    private static final int ACK_BYTES = Long.BYTES + Integer.BYTES;
+    private static final int MAX_RECORD_BYTES = 64 * 1024;
+
+    private final Path directory;
+    private final long maxBytes;
+    private final long segmentBytes;
+    private final long fsyncIntervalNanos;
+    private final Deque<Path> segments = new ArrayDeque<>();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong records = new AtomicLong();
+    private final AtomicLong replayed = new AtomicLong();
+    private final AtomicLong overflowed = new AtomicLong();
+
+    private long nextSequence;
+    private FileChannel active;
+    private long lastSync;
+    private boolean dirty;
+
+    // позиция чтения в самом старом сегменте и конец пакета, выданного peek()
+    private FileChannel reader;
+    private FileChannel ackFile;
+    private long readPosition;
+    private long peekedPosition;
+    private int peekedRecords;
+
+    public HitSpool(@Value("${stats-server.spool.directory:data/stats-spool}") Path directory,
+                    @Value("${stats-server.spool.max-bytes:256MB}") DataSize maxBytes,
+                    @Value("${stats-server.spool.segment-bytes:4MB}") DataSize segmentBytes,
+                    @Value("${stats-server.spool.fsync-interval:1s}") Duration fsyncInterval) {
+        this.directory = directory;
+        this.maxBytes = maxBytes.toBytes();
+        this.segmentBytes = segmentBytes.toBytes();
+        this.fsyncIntervalNanos = fsyncInterval.toNanos();
+        load();
+    }
+
+    private void load() {
+        try {
+            Files.createDirectories(directory);
+            try (Stream<Path> files = Files.list(directory)) {
+                files.filter(path -> NAME.matcher(path.getFileName().toString()).matches())
+                        .sorted()
+                        .forEach(segments::add);
+            }
+            for (Path segment : segments) {
+                bytes.addAndGet(Files.size(segment));
+                records.addAndGet(countRecords(segment, acknowledged(segment)));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (!segments.isEmpty()) {
+            nextSequence = sequence(segments.getLast()) + 1;
+            log.info("Журнал недоставленных hit {}: {} записей в {} сегментах", directory, records.get(),
+                    segments.size());
+        }
+    }
+
+    public boolean isEmpty() {
+        return records.get() == 0;
+    }
+
+    public long records() {
+        return records.get();
+    }
+
+    public long bytes() {
+        return bytes.get();
+    }
+
+    public long replayed() {
+        return replayed.get();
+    }
+
+    // hit-ы, не поместившиеся в журнал из-за max-bytes
+    public long overflowed() {
+        return overflowed.get();
+    }
+
+    // возвращает число записанных hit-ов: остальные не поместились в max-bytes и отброшены
+    public int append(List<EndpointHitDto> hits) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        int written = 0;
+        for (EndpointHitDto hit : hits) {
+            byte[] body = encode(hit);
+            if (bytes.get() + buffer.size() + HEADER_BYTES + body.length > maxBytes) {
+                break;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            buffer.writeBytes(ByteBuffer.allocate(HEADER_BYTES).putInt(body.length).putInt((int) crc.getValue())
+                    .array());
+            buffer.writeBytes(body);
+            written++;
+        }
+        if (written < hits.size()) {
+            overflowed.addAndGet(hits.size() - written);
+        }
+        if (written == 0) {
+            return 0;
+        }
+        try {
+            FileChannel channel = activeSegment();
+            ByteBuffer data = ByteBuffer.wrap(buffer.toByteArray());
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+            dirty = true;
+            bytes.addAndGet(buffer.size());
+            records.addAndGet(written);
+            if (channel.size() >= segmentBytes) {
+                roll();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return written;
+    }
+
+    // fsync не чаще fsync-interval: при сбое ОС теряются hit-ы не больше чем за этот интервал
+    public void sync(boolean force) {
+        if (active == null || !dirty || !force && System.nanoTime() - lastSync < fsyncIntervalNanos) {
+            return;
+        }
+        try {
+            active.force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        dirty = false;
+        lastSync = System.nanoTime();
+    }
+
+    // следующий пакет для досылки; позиция чтения сдвигается только после ack()
+    public List<EndpointHitDto> peek(int max) {
+        List<EndpointHitDto> hits = new ArrayList<>(max);
+        try {
+            if (reader == null && !openReader()) {
+                return hits;
+            }
+            long position = readPosition;
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            while (hits.size() < max) {
+                header.clear();
+                if (reader.read(header, position) < HEADER_BYTES) {
+                    break;
+                }
+                int length = header.getInt(0);
+                int checksum = header.getInt(Integer.BYTES);
+                if (length <= 0 || length > MAX_RECORD_BYTES) {
+                    break;
+                }
+                ByteBuffer body = ByteBuffer.allocate(length);
+                if (reader.read(body, position + HEADER_BYTES) < length) {
+                    break;
+                }
+                CRC32 crc = new CRC32();
+                crc.update(body.array());
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                hits.add(decode(body.array()));
+                position += HEADER_BYTES + length;
+            }
+            peekedPosition = position;
+            peekedRecords = hits.size();
+            if (hits.isEmpty()) {
+                // сегмент дочитан: остаток, если есть, - недописанная при сбое запись
+                if (position < reader.size()) {
+                    log.warn("Журнал hit {}: отброшен повреждённый хвост {} байт", segments.getFirst(),
+                            reader.size() - position);
+                }
+                dropSegment();
+                return peek(max);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return hits;
+    }
+
+    // пакет из последнего peek() доставлен; позиция сохраняется до возврата, иначе после сбоя пакет уйдёт снова
+    public void ack() {
+        if (peekedRecords == 0) {
+            return;
+        }
+        try {
+            ByteBuffer ack = ByteBuffer.allocate(ACK_BYTES).putLong(peekedPosition);
+            CRC32 crc = new CRC32();
+            crc.update(ack.array(), 0, Long.BYTES);
+            ack.putInt((int) crc.getValue()).flip();
+            while (ack.hasRemaining()) {
+                ackFile.write(ack, ack.position());
+            }
+            ackFile.force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        readPosition = peekedPosition;
+        records.addAndGet(-peekedRecords);
+        replayed.addAndGet(peekedRecords);
+        peekedRecords = 0;
+    }
+
+    public void close() {
+        try {
+            sync(true);
+            if (active != null) {
+                active.close();
+                active = null;
+            }
+            if (reader != null) {
+                reader.close();
+                ackFile.close();
+                reader = null;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // читаются только закрытые сегменты: если остался один активный, он закрывается и запись идёт в новый
+    private boolean openReader() throws IOException {
+        if (segments.isEmpty()) {
+            return false;
+        }
+        if (active != null && segments.size() == 1) {
+            roll();
+        }
+        Path segment = segments.getFirst();
+        reader = FileChannel.open(segment, StandardOpenOption.READ);
+        readPosition = acknowledged(segment);
+        ackFile = FileChannel.open(ackPath(segment), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        return true;
+    }
+
+    private void dropSegment() throws IOException {
+        Path segment = segments.removeFirst();
+        bytes.addAndGet(-reader.size());
+        reader.close();
+        ackFile.close();
+        reader = null;
+        Files.delete(segment);
+        Files.deleteIfExists(ackPath(segment));
+        if (segments.isEmpty()) {
+            // недосчитанные записи повреждённого хвоста
+            records.set(0);
+            bytes.set(0);
+        }
+    }
+
+    private FileChannel activeSegment() throws IOException {
+        if (active == null) {
+            Path segment = directory.resolve("spool-%020d.log".formatted(nextSequence++));
+            active = FileChannel.open(segment, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            segments.addLast(segment);
+            lastSync = System.nanoTime();
+        }
+        return active;
+    }
+
+    private void roll() throws IOException {
+        sync(true);
+        active.close();
+        active = null;
+    }
+
+    // подтверждённая позиция досылки сегмента; 0 - файла нет или он испорчен
+    private static long acknowledged(Path segment) throws IOException {
+        Path ack = ackPath(segment);
+        if (!Files.exists(ack)) {
+            return 0;
+        }
+        byte[] data = Files.readAllBytes(ack);
+        if (data.length < ACK_BYTES) {
+            return 0;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        long position = buffer.getLong();
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, Long.BYTES);
+        if (buffer.getInt() != (int) crc.getValue() || position < 0 || position > Files.size(segment)) {
+            log.warn("Журнал hit {}: испорчена позиция досылки, сегмент досылается с начала", ack);
+            return 0;
+        }
+        return position;
+    }
+
+    private static Path ackPath(Path segment) {
+        String name = segment.getFileName().toString();
+        return segment.resolveSibling(name.substring(0, name.length() - ".log".length()) + ".ack");
+    }
+
+    private static long countRecords(Path segment, long from) throws IOException {
+        long count = 0;
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            long position = from;
+            while (true) {
+                header.clear();
+                if (channel.read(header, position) < HEADER_BYTES) {
+                    break;
+                }
+                int length = header.getInt(0);
+                if (length <= 0 || length > MAX_RECORD_BYTES || position + HEADER_BYTES + length > channel.size()) {
+                    break;
+                }
+                position += HEADER_BYTES + length;
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static long sequence(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring("spool-".length(), name.length() - ".log".length()));
+    }
+
+    // формат записи не допускает пустых app, uri, ip и timestamp
+    static boolean isComplete(EndpointHitDto hit) {
+        return hit != null && hit.getApp() != null && hit.getUri() != null && hit.getIp() != null
+                && hit.getTimestamp() != null;
+    }
+
+    private static byte[] encode(EndpointHitDto hit) {
+        if (!isComplete(hit)) {
+            throw new IllegalArgumentException("hit без app, uri, ip или timestamp не записывается в журнал: " + hit);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeUTF(hit.getApp());
+            out.writeUTF(hit.getUri());
+            out.writeUTF(hit.getIp());
+            out.writeLong(hit.getTimestamp().toEpochSecond(ZoneOffset.UTC));
+            out.writeInt(hit.getTimestamp().getNano());
+            out.writeBoolean(hit.getHitId() != null);
+            if (hit.getHitId() != null) {
+                out.writeUTF(hit.getHitId());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static EndpointHitDto decode(byte[] body) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+        return EndpointHitDto.builder()
+                .app(in.readUTF())
+                .uri(in.readUTF())
+                .ip(in.readUTF())
+                .timestamp(LocalDateTime.ofEpochSecond(in.readLong(), in.readInt(), ZoneOffset.UTC))
+                .hitId(in.readBoolean() ? in.readUTF() : null)
+                .build();
+    }
+}
@@ -0,0 +1,100 @@
+package ru.practicum.ewm.client;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.practicum.ewm.ViewStatsDto;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+// последние успешные ответы /stats по каждому uri, на случай недоступности stats-server.
+// Границы запросов обычно считаются от текущего времени и не повторяются, поэтому ключ - длина окна,
+// а не сами start и end. Шаблоны с '*' не кэшируются: строку ответа нельзя отнести к одному из них
+@Component
+public class StaleStatsCache implements MeterBinder {
+
+    private static final DateTimeFormatter FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private record Key(String uri, boolean unique, Duration window) {
+    }
+
+    private final Map<Key, List<ViewStatsDto>> entries;
+    private final AtomicLong served = new AtomicLong();
+
+    public StaleStatsCache(@Value("${stats-server.stale.max-entries:10000}") int maxEntries) {
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, List<ViewStatsDto>> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    public void put(String start, String end, String[] uris, boolean unique, List<ViewStatsDto> stats) {
+        Duration window = window(start, end);
+        if (window == null || uris == null) {
+            return;
+        }
+        Map<String, List<ViewStatsDto>> byUri = stats.stream().collect(Collectors.groupingBy(ViewStatsDto::getUri));
+        synchronized (entries) {
+            for (String uri : uris) {
+                if (uri.indexOf('*') < 0) {
+                    // пустой список - известно, что просмотров не было
+                    entries.put(new Key(uri, unique, window), byUri.getOrDefault(uri, List.of()));
+                }
+            }
+        }
+    }
+
+    public List<ViewStatsDto> get(String start, String end, String[] uris, boolean unique) {
+        served.incrementAndGet();
+        Duration window = window(start, end);
+        List<ViewStatsDto> stats = new ArrayList<>();
+        if (window == null || uris == null) {
+            return stats;
+        }
+        synchronized (entries) {
+            for (String uri : uris) {
+                List<ViewStatsDto> cached = entries.get(new Key(uri, unique, window));
+                if (cached != null) {
+                    stats.addAll(cached);
+                }
+            }
+        }
+        return stats;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("stats.client.stale.entries", entries, map -> {
+                    synchronized (map) {
+                        return map.size();
+                    }
+                })
+                .description("Uri с сохранённым последним ответом /stats")
+                .register(registry);
+        FunctionCounter.builder("stats.client.stale.served", served, AtomicLong::get)
+                .description("Ответы /stats из кэша при недоступном stats-server")
+                .register(registry);
+    }
+
+    private static Duration window(String start, String end) {
+        try {
+            return Duration.between(LocalDateTime.parse(start, FORMAT), LocalDateTime.parse(end, FORMAT));
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package ru.practicum.ewm.client;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+// после failure-threshold ошибок подряд запросы к stats-server не отправляются open-duration;
+// затем пропускается один пробный запрос: успех замыкает цепь, ошибка размыкает её снова
+@Slf4j
+@Component
+public class StatsCircuitBreaker implements MeterBinder {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openDurationNanos;
+    private final AtomicLong rejected = new AtomicLong();
+
+    private State state = State.CLOSED;
+    private int failures;
+    private long openedAt;
+
+    public StatsCircuitBreaker(@Value("${stats-server.breaker.failure-threshold:5}") int failureThreshold,
+                               @Value("${stats-server.breaker.open-duration:10s}") Duration openDuration) {
+        this.failureThreshold = failureThreshold;
+        this.openDurationNanos = openDuration.toNanos();
+    }
+
+    // true - запрос можно отправлять; тогда его исход обязательно сообщается через onSuccess или onFailure
+    public synchronized boolean tryAcquire() {
+        if (state == State.CLOSED) {
+            return true;
+        }
+        if (state == State.OPEN && System.nanoTime() - openedAt >= openDurationNanos) {
+            state = State.HALF_OPEN;
+            return true;
+        }
+        rejected.incrementAndGet();
+        return false;
+    }
+
+    public synchronized void onSuccess() {
+        if (state != State.CLOSED) {
+            log.info("stats-server снова отвечает, цепь замкнута");
+        }
+        state = State.CLOSED;
+        failures = 0;
+    }
+
+    public synchronized void onFailure() {
+        failures++;
+        if (state == State.HALF_OPEN || state == State.CLOSED && failures >= failureThreshold) {
+            log.warn("Цепь к stats-server разомкнута на {} мс после {} ошибок подряд",
+                    Duration.ofNanos(openDurationNanos).toMillis(), failures);
+            state = State.OPEN;
+            openedAt = System.nanoTime();
+        }
+    }
+
+    public synchronized State state() {
+        return state;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("stats.client.breaker.open", this, breaker -> breaker.state() == State.CLOSED ? 0 : 1)
+                .description("1 - запросы статистики к stats-server не отправляются")
+                .register(registry);
+        FunctionCounter.builder("stats.client.breaker.rejected", rejected, AtomicLong::get)
+                .description("Запросы, отклонённые разомкнутой цепью")
+                .register(registry);
+    }
+}
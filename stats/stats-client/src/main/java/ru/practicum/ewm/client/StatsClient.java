@@ -3,14 +3,19 @@ package ru.practicum.ewm.client;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestClient;
+import org.springframework.web.client.RestClientException;
 import org.springframework.web.util.UriComponentsBuilder;
 import ru.practicum.ewm.EndpointHitDto;
 import ru.practicum.ewm.ViewStatsDto;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.Optional;
+import java.util.function.Supplier;
 
 @Slf4j
 @Service
@@ -18,16 +23,35 @@ import java.util.List;
 public class StatsClient {
 
     private final RestClient restClient;
+    private final StatsCircuitBreaker circuitBreaker;
+    private final StaleStatsCache staleCache;
+    private final StatsRequestCoalescer coalescer;
+
+    public enum HitFormat {
+        JSON(MediaType.APPLICATION_JSON),
+        // компактный бинарный формат, время передаётся миллисекундами (см. StatsCbor)
+        CBOR(MediaType.APPLICATION_CBOR);
+
+        private final MediaType mediaType;
+
+        HitFormat(MediaType mediaType) {
+            this.mediaType = mediaType;
+        }
+    }
 
     @Value("${stats-server.url}")
     private String statsServerUrl;
 
+    @Value("${stats-server.hit-format:JSON}")
+    private HitFormat hitFormat = HitFormat.JSON;
+
     public void saveHit(EndpointHitDto hitDto) {
         String url = statsServerUrl + "/hit";
         log.info("Отправка запроса saveHit: url={}, body={}", url, hitDto);
 
         restClient.post()
                 .uri("/hit")
+                .contentType(hitFormat.mediaType)
                 .body(hitDto)
                 .retrieve()
                 .toBodilessEntity();
@@ -35,7 +59,61 @@ public class StatsClient {
         log.info("Hit был сохранен");
     }
 
+    public void saveHits(List<EndpointHitDto> hitDtos) {
+        log.info("Отправка запроса saveHits: url={}, размер: {}", statsServerUrl + "/hits", hitDtos.size());
+
+        restClient.post()
+                .uri("/hits")
+                .contentType(hitFormat.mediaType)
+                .body(hitDtos)
+                .retrieve()
+                .toBodilessEntity();
+
+        log.info("Пакет hit был сохранен");
+    }
+
+    // одновременные одинаковые вызовы получают ответ одного запроса к серверу (StatsRequestCoalescer)
     public List<ViewStatsDto> getStats(String start, String end, String[] uris, boolean unique) {
+        return coalescer.execute(StatsRequestCoalescer.key(start, end, uris, unique),
+                () -> fetchStats(start, end, uris, unique));
+    }
+
+    // для страниц main-service: при недоступном stats-server - последние известные числа вместо ошибки
+    public StatsSnapshot getStatsOrStale(String start, String end, String[] uris, boolean unique) {
+        try {
+            return new StatsSnapshot(getStats(start, end, uris, unique), false);
+        } catch (StatsUnavailableException e) {
+            log.warn("getStats: {}, возвращаются сохранённые данные", e.getMessage());
+            return new StatsSnapshot(staleCache.get(start, end, uris, unique), true);
+        }
+    }
+
+    public List<ViewStatsDto> getTopStats(String start, String end, int n, boolean unique, String prefix) {
+        String url = UriComponentsBuilder
+                .fromPath("/stats/top")
+                .queryParam("start", start)
+                .queryParam("end", end)
+                .queryParam("n", n)
+                .queryParam("unique", unique)
+                .queryParamIfPresent("prefix", Optional.ofNullable(prefix))
+                .build(false)
+                .toUriString();
+
+        String logUrl = url.replace(" ", "%20");
+        log.info("Отправка запроса getTopStats: url={}", statsServerUrl + logUrl);
+
+        List<ViewStatsDto> stats = guarded(() -> Arrays.asList(
+                restClient.get()
+                        .uri(url)
+                        .retrieve()
+                        .body(ViewStatsDto[].class)
+        ));
+
+        log.info("getTopStats вернул {} записей", stats.size());
+        return stats;
+    }
+
+    private List<ViewStatsDto> fetchStats(String start, String end, String[] uris, boolean unique) {
         String url = UriComponentsBuilder
                 .fromPath("/stats")
                 .queryParam("start", start)
@@ -48,14 +126,41 @@ public class StatsClient {
         String logUrl = url.replace(" ", "%20");
         log.info("Отправка запроса getStats: url={}", statsServerUrl + logUrl);
 
-        List<ViewStatsDto> stats = Arrays.asList(
+        List<ViewStatsDto> stats = guarded(() -> Arrays.asList(
                 restClient.get()
                         .uri(url)
                         .retrieve()
                         .body(ViewStatsDto[].class)
-        );
+        ));
+        staleCache.put(start, end, uris, unique, stats);
 
         log.info("getStats вернул {} записей", stats.size());
         return stats;
     }
+
+    // ошибка 4xx - ответ от работающего сервера, она не размыкает цепь и пробрасывается как есть. Исход
+    // сообщается в finally: любой другой выход, включая Error, - отказ, иначе пробный запрос в HALF_OPEN
+    // не вернулся бы и цепь осталась бы полуоткрытой навсегда
+    private <T> T guarded(Supplier<T> call) {
+        if (!circuitBreaker.tryAcquire()) {
+            throw new StatsUnavailableException("цепь к stats-server разомкнута");
+        }
+        boolean success = false;
+        try {
+            T result = call.get();
+            success = true;
+            return result;
+        } catch (HttpClientErrorException e) {
+            success = true;
+            throw e;
+        } catch (RestClientException e) {
+            throw new StatsUnavailableException("stats-server недоступен: " + e.getMessage(), e);
+        } finally {
+            if (success) {
+                circuitBreaker.onSuccess();
+            } else {
+                circuitBreaker.onFailure();
+            }
+        }
+    }
 }
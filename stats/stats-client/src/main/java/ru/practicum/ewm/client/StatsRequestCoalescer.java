@@ -0,0 +1,82 @@
+package ru.practicum.ewm.client;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.stereotype.Component;
+import ru.practicum.ewm.ViewStatsDto;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+// одновременные одинаковые запросы /stats (например, сотни просмотров одного события в одну секунду) ждут
+// результата уже отправленного запроса, а не отправляют свой. Ответ общий для всех ожидающих и не изменяемый.
+// Результат не кэшируется: запрос после завершения текущего уходит на сервер заново
+@Component
+public class StatsRequestCoalescer implements MeterBinder {
+
+    // uri без повторов и в одном порядке: порядок в запросе на ответ сервера не влияет
+    public record Key(String start, String end, List<String> uris, boolean unique) {
+    }
+
+    private final ConcurrentMap<Key, CompletableFuture<List<ViewStatsDto>>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    public static Key key(String start, String end, String[] uris, boolean unique) {
+        List<String> normalized = uris == null ? List.of() : Arrays.stream(uris).distinct().sorted().toList();
+        return new Key(start, end, normalized, unique);
+    }
+
+    public List<ViewStatsDto> execute(Key key, Supplier<List<ViewStatsDto>> request) {
+        CompletableFuture<List<ViewStatsDto>> own = new CompletableFuture<>();
+        CompletableFuture<List<ViewStatsDto>> existing = inFlight.putIfAbsent(key, own);
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            return await(existing);
+        }
+        try {
+            List<ViewStatsDto> result = List.copyOf(request.get());
+            own.complete(result);
+            return result;
+        } catch (Throwable e) {
+            // и при Error (например, OutOfMemoryError): иначе ожидающие запросы висели бы бесконечно
+            own.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, own);
+        }
+    }
+
+    // запросы, получившие ответ чужого запроса
+    public long coalesced() {
+        return coalesced.get();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("stats.client.stats.coalesced", coalesced, AtomicLong::get)
+                .description("Запросы /stats, объединённые с уже отправленным одинаковым запросом")
+                .register(registry);
+    }
+
+    // ожидающие получают то же исключение, что и отправивший запрос; срок ожидания ограничен его таймаутом
+    private static List<ViewStatsDto> await(CompletableFuture<List<ViewStatsDto>> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof Error cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package ru.practicum.ewm.client;
+
+import ru.practicum.ewm.ViewStatsDto;
+
+import java.util.List;
+
+// stale - stats-server недоступен и числа взяты из последних успешных ответов; uri, по которым ответов
+// ещё не было, в stats отсутствуют
+public record StatsSnapshot(List<ViewStatsDto> stats, boolean stale) {
+}
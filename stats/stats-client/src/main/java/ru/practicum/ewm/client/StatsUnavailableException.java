@@ -0,0 +1,15 @@
+package ru.practicum.ewm.client;
+
+import org.springframework.web.client.RestClientException;
+
+// stats-server не ответил вовремя, недоступен или цепь разомкнута после серии таких ошибок
+public class StatsUnavailableException extends RestClientException {
+
+    public StatsUnavailableException(String message) {
+        super(message);
+    }
+
+    public StatsUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,11 @@
+package ru.practicum.ewm.config;
+
+// HTTP-клиент для запросов к stats-server
+public enum HttpTransport {
+    // HttpURLConnection: без пула, keep-alive не больше http.maxConnections (5) соединений на хост
+    SIMPLE,
+    // java.net.http.HttpClient: HTTP/2, если сервер его поддерживает; внутренний пул без настроек
+    JDK,
+    // Apache HttpClient 5: пул соединений с ограничением на маршрут, вытеснение простаивающих, gzip
+    APACHE
+}
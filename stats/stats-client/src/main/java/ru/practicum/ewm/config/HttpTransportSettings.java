@@ -0,0 +1,85 @@
+package ru.practicum.ewm.config;
+
+import lombok.Builder;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+
+// настройки соединений с stats-server (stats-server.http.*); пул, keep-alive и gzip действуют только для APACHE
+@Builder(toBuilder = true)
+public record HttpTransportSettings(HttpTransport transport,
+                                    Duration connectTimeout,
+                                    Duration readTimeout,
+                                    // ожидание свободного соединения из пула
+                                    Duration poolTimeout,
+                                    int maxConnections,
+                                    int maxConnectionsPerRoute,
+                                    // простаивающее дольше соединение закрывается фоновым потоком пула
+                                    Duration idleTimeout,
+                                    // срок жизни соединения, если сервер не прислал заголовок Keep-Alive;
+                                    // должен быть меньше keep-alive-timeout сервера
+                                    Duration keepAlive,
+                                    boolean gzip) {
+
+    public ClientHttpRequestFactory requestFactory() {
+        return switch (transport) {
+            case SIMPLE -> simple();
+            case JDK -> jdk();
+            case APACHE -> apache();
+        };
+    }
+
+    private ClientHttpRequestFactory simple() {
+        SimpleClientHttpRequestFactory factory = new SimpleClientHttpRequestFactory();
+        factory.setConnectTimeout(connectTimeout);
+        factory.setReadTimeout(readTimeout);
+        return factory;
+    }
+
+    private ClientHttpRequestFactory jdk() {
+        JdkClientHttpRequestFactory factory = new JdkClientHttpRequestFactory(HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(connectTimeout)
+                .build());
+        factory.setReadTimeout(readTimeout);
+        return factory;
+    }
+
+    private ClientHttpRequestFactory apache() {
+        PoolingHttpClientConnectionManager connectionManager = PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(maxConnections)
+                .setMaxConnPerRoute(maxConnectionsPerRoute)
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(Timeout.of(connectTimeout))
+                        .setSocketTimeout(Timeout.of(readTimeout))
+                        // соединение, простоявшее дольше секунды, проверяется перед повторным использованием
+                        .setValidateAfterInactivity(TimeValue.ofSeconds(1))
+                        .build())
+                .build();
+        HttpClientBuilder client = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectionRequestTimeout(Timeout.of(poolTimeout))
+                        .setResponseTimeout(Timeout.of(readTimeout))
+                        .setConnectionKeepAlive(TimeValue.of(keepAlive))
+                        .build())
+                .evictExpiredConnections()
+                .evictIdleConnections(TimeValue.of(idleTimeout));
+        if (!gzip) {
+            client.disableContentCompression();
+        }
+        return new HttpComponentsClientHttpRequestFactory(client.build());
+    }
+}
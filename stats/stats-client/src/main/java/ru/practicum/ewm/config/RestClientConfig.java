@@ -1,19 +1,64 @@
 package ru.practicum.ewm.config;
 
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.web.client.RestClientBuilderConfigurer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
 import org.springframework.web.client.RestClient;
+import ru.practicum.ewm.StatsCbor;
+
+import java.time.Duration;
 
 @Configuration
 public class RestClientConfig {
     @Value("${stats-server.url}")
     private String baseUrl;
 
+    // фабрика запросов задаётся до RestClientCustomizer-ов приложения: так её может заменить
+    // MockRestServiceServer в тестах, а остальные RestClient.Builder приложения её не получают
     @Bean
-    public RestClient restClient(RestClient.Builder builder) {
-        return builder
+    public RestClient restClient(RestClientBuilderConfigurer configurer,
+                                 ClientHttpRequestFactory statsServerRequestFactory) {
+        return configurer.configure(RestClient.builder().requestFactory(statsServerRequestFactory))
                 .baseUrl(baseUrl)
+                // CBOR-конвертер по умолчанию заменяется на совместимый с сервером (время в миллисекундах)
+                .messageConverters(converters -> converters.replaceAll(converter ->
+                        converter instanceof MappingJackson2CborHttpMessageConverter
+                                ? new MappingJackson2CborHttpMessageConverter(StatsCbor.objectMapper())
+                                : converter))
+                .build();
+    }
+
+    // таймауты на каждый запрос: медленный stats-server не должен задерживать страницы main-service
+    @Bean
+    public HttpTransportSettings statsServerTransportSettings(
+            @Value("${stats-server.http.transport:APACHE}") HttpTransport transport,
+            @Value("${stats-server.connect-timeout:1s}") Duration connectTimeout,
+            @Value("${stats-server.read-timeout:2s}") Duration readTimeout,
+            @Value("${stats-server.http.pool-timeout:1s}") Duration poolTimeout,
+            @Value("${stats-server.http.max-connections:200}") int maxConnections,
+            @Value("${stats-server.http.max-connections-per-route:100}") int maxConnectionsPerRoute,
+            @Value("${stats-server.http.idle-timeout:30s}") Duration idleTimeout,
+            @Value("${stats-server.http.keep-alive:15s}") Duration keepAlive,
+            @Value("${stats-server.http.gzip:false}") boolean gzip) {
+        return HttpTransportSettings.builder()
+                .transport(transport)
+                .connectTimeout(connectTimeout)
+                .readTimeout(readTimeout)
+                .poolTimeout(poolTimeout)
+                .maxConnections(maxConnections)
+                .maxConnectionsPerRoute(maxConnectionsPerRoute)
+                .idleTimeout(idleTimeout)
+                .keepAlive(keepAlive)
+                .gzip(gzip)
                 .build();
     }
+
+    // бин, чтобы пул соединений закрывался вместе с контекстом
+    @Bean
+    public ClientHttpRequestFactory statsServerRequestFactory(HttpTransportSettings statsServerTransportSettings) {
+        return statsServerTransportSettings.requestFactory();
+    }
 }
@@ -0,0 +1,268 @@
+package ru.practicum.ewm;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.practicum.ewm.client.HitSender;
+import ru.practicum.ewm.client.HitSpool;
+import ru.practicum.ewm.client.StatsClient;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+
+class HitSenderTest {
+
+    private final StatsClient statsClient = mock(StatsClient.class);
+    private final List<Integer> batchSizes = new ArrayList<>();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private HitSender sender;
+
+    @TempDir
+    private Path spoolDirectory;
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        sender.stop();
+    }
+
+    @Test
+    void hitsAreSentInBatches() {
+        recordBatches();
+        sender = sender(100, 10, Duration.ofMinutes(1), HitSender.OverflowPolicy.DROP,
+                Duration.ZERO);
+        sender.start();
+
+        for (int i = 0; i < 25; i++) {
+            assertThat(sender.send(hit(i))).isTrue();
+        }
+        sender.stop();
+
+        // два полных пакета, остаток отправлен при остановке, не дожидаясь linger
+        assertThat(sender.sent()).isEqualTo(25);
+        assertThat(batchSizes).containsExactly(10, 10, 5);
+    }
+
+    @Test
+    void partialBatchSentAfterLinger() throws InterruptedException {
+        CountDownLatch sent = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            sent.countDown();
+            return null;
+        }).when(statsClient).saveHits(anyList());
+        sender = sender(100, 10, Duration.ofMillis(20), HitSender.OverflowPolicy.DROP,
+                Duration.ZERO);
+        sender.start();
+
+        sender.send(hit(1));
+
+        assertThat(sent.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    void fullQueueDropsHits() throws InterruptedException {
+        blockFirstBatch();
+        sender = sender(2, 1, Duration.ZERO, HitSender.OverflowPolicy.DROP, Duration.ZERO);
+        sender.start();
+
+        sender.send(hit(0));
+        awaitEmptyQueue();
+        sender.send(hit(1));
+        sender.send(hit(2));
+
+        assertThat(sender.send(hit(3))).isFalse();
+        assertThat(sender.dropped()).isEqualTo(1);
+    }
+
+    @Test
+    void blockPolicyWaitsForFreeSlot() throws InterruptedException {
+        blockFirstBatch();
+        sender = sender(1, 1, Duration.ZERO, HitSender.OverflowPolicy.BLOCK,
+                Duration.ofSeconds(5));
+        sender.start();
+
+        sender.send(hit(0));
+        awaitEmptyQueue();
+        sender.send(hit(1));
+        new Thread(this::sleepAndRelease).start();
+
+        assertThat(sender.send(hit(2))).isTrue();
+        assertThat(sender.dropped()).isZero();
+    }
+
+    @Test
+    void undeliveredBatchSpooledAndReplayedAfterRecovery() throws InterruptedException {
+        CountDownLatch replayed = new CountDownLatch(1);
+        doThrow(new ResourceAccessException("stats-server недоступен"))
+                .doAnswer(invocation -> {
+                    replayed.countDown();
+                    return null;
+                })
+                .when(statsClient).saveHits(anyList());
+        sender = sender(10, 5, Duration.ZERO, HitSender.OverflowPolicy.DROP, Duration.ZERO);
+        sender.start();
+
+        sender.send(hit(0));
+
+        assertThat(replayed.await(5, TimeUnit.SECONDS)).isTrue();
+        sender.stop();
+        assertThat(sender.failed()).isEqualTo(1);
+        assertThat(sender.sent()).isEqualTo(1);
+        assertThat(sender.dropped()).isZero();
+    }
+
+    @Test
+    void tooManyRequestsSpoolsBatch() throws InterruptedException {
+        CountDownLatch replayed = new CountDownLatch(1);
+        doThrow(HttpClientErrorException.create(HttpStatus.TOO_MANY_REQUESTS, "Too Many Requests", null, null,
+                null))
+                .doAnswer(invocation -> {
+                    replayed.countDown();
+                    return null;
+                })
+                .when(statsClient).saveHits(anyList());
+        sender = sender(10, 5, Duration.ZERO, HitSender.OverflowPolicy.DROP, Duration.ZERO);
+        sender.start();
+
+        sender.send(hit(0));
+
+        assertThat(replayed.await(5, TimeUnit.SECONDS)).isTrue();
+        sender.stop();
+        assertThat(sender.failed()).isEqualTo(1);
+        assertThat(sender.sent()).isEqualTo(1);
+        assertThat(sender.dropped()).isZero();
+    }
+
+    @Test
+    void rejectedBatchCountedOnlyAsDropped() {
+        doThrow(HttpClientErrorException.create(HttpStatus.BAD_REQUEST, "Bad Request", null, null, null))
+                .when(statsClient).saveHits(anyList());
+        sender = sender(10, 5, Duration.ZERO, HitSender.OverflowPolicy.DROP, Duration.ZERO);
+        sender.start();
+
+        sender.send(hit(0));
+        sender.send(hit(1));
+        sender.stop();
+
+        assertThat(sender.dropped()).isEqualTo(2);
+        assertThat(sender.sent()).isZero();
+        assertThat(sender.failed()).isZero();
+    }
+
+    @Test
+    void spooledHitsSurviveRestart() {
+        doThrow(new ResourceAccessException("stats-server недоступен")).when(statsClient).saveHits(anyList());
+        sender = sender(10, 5, Duration.ZERO, HitSender.OverflowPolicy.DROP, Duration.ZERO);
+        sender.start();
+        sender.send(hit(0));
+        sender.send(hit(1));
+        sender.stop();
+
+        HitSpool reopened = spool();
+
+        assertThat(reopened.records()).isEqualTo(2);
+        assertThat(reopened.peek(10)).extracting(EndpointHitDto::getUri).containsExactly("/events/0", "/events/1");
+        reopened.close();
+    }
+
+    @Test
+    void unexpectedErrorDoesNotStopWorker() throws InterruptedException {
+        recordBatches();
+        HitSpool spool = spy(spool());
+        doThrow(new IllegalStateException("сбой")).doCallRealMethod().when(spool).sync(false);
+        sender = new HitSender(statsClient, spool, 10, 1, Duration.ZERO, HitSender.OverflowPolicy.DROP,
+                Duration.ZERO, Duration.ofMillis(20));
+        sender.start();
+
+        sender.send(hit(0));
+        while (sender.errors() == 0) {
+            Thread.sleep(5);
+        }
+        sender.send(hit(1));
+        sender.stop();
+
+        assertThat(sender.errors()).isEqualTo(1);
+        assertThat(sender.sent()).isEqualTo(2);
+    }
+
+    @Test
+    void incompleteHitDroppedOnSend() {
+        recordBatches();
+        sender = sender(10, 5, Duration.ZERO, HitSender.OverflowPolicy.DROP, Duration.ZERO);
+        sender.start();
+
+        assertThat(sender.send(hit(0).toBuilder().ip(null).build())).isFalse();
+        sender.send(hit(1));
+        sender.stop();
+
+        assertThat(sender.dropped()).isEqualTo(1);
+        assertThat(sender.sent()).isEqualTo(1);
+    }
+
+    private HitSender sender(int capacity, int batchSize, Duration linger, HitSender.OverflowPolicy overflow,
+                             Duration offerTimeout) {
+        return new HitSender(statsClient, spool(), capacity, batchSize, linger, overflow, offerTimeout,
+                Duration.ofMillis(20));
+    }
+
+    private HitSpool spool() {
+        return new HitSpool(spoolDirectory, DataSize.ofMegabytes(1), DataSize.ofKilobytes(64), Duration.ZERO);
+    }
+
+    private void recordBatches() {
+        doAnswer(invocation -> {
+            List<EndpointHitDto> batch = invocation.getArgument(0);
+            batchSizes.add(batch.size());
+            return null;
+        }).when(statsClient).saveHits(anyList());
+    }
+
+    // первый пакет «зависает» на stats-server, пока тест не отпустит его
+    private void blockFirstBatch() {
+        doAnswer(invocation -> {
+            release.await();
+            return null;
+        }).when(statsClient).saveHits(anyList());
+    }
+
+    private void awaitEmptyQueue() throws InterruptedException {
+        while (sender.depth() > 0) {
+            Thread.sleep(5);
+        }
+    }
+
+    private void sleepAndRelease() {
+        try {
+            Thread.sleep(50);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        release.countDown();
+    }
+
+    private static EndpointHitDto hit(int i) {
+        return EndpointHitDto.builder()
+                .app("main")
+                .uri("/events/" + i)
+                .ip("127.0.0.1")
+                .timestamp(LocalDateTime.of(2025, 1, 1, 12, 0))
+                .build();
+    }
+}
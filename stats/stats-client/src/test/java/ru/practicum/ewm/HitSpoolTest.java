@@ -0,0 +1,144 @@
+package ru.practicum.ewm;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+import ru.practicum.ewm.client.HitSpool;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class HitSpoolTest {
+
+    @TempDir
+    private Path directory;
+
+    @Test
+    void replaysHitsInOrderAcrossSegments() throws IOException {
+        HitSpool spool = spool(DataSize.ofMegabytes(1));
+        // сегмент по 1 КБ: 100 записей займут несколько файлов
+        spool.append(hits(0, 60));
+        spool.append(hits(60, 40));
+
+        List<String> uris = new ArrayList<>();
+        for (List<EndpointHitDto> batch = spool.peek(25); !batch.isEmpty(); batch = spool.peek(25)) {
+            batch.forEach(hit -> uris.add(hit.getUri()));
+            spool.ack();
+        }
+
+        assertThat(uris).containsExactlyElementsOf(hits(0, 100).stream().map(EndpointHitDto::getUri).toList());
+        assertThat(spool.isEmpty()).isTrue();
+        assertThat(spool.replayed()).isEqualTo(100);
+        assertThat(segmentFiles()).isEmpty();
+    }
+
+    @Test
+    void unacknowledgedBatchIsPeekedAgain() {
+        HitSpool spool = spool(DataSize.ofMegabytes(1));
+        spool.append(hits(0, 3));
+
+        List<EndpointHitDto> first = spool.peek(2);
+        List<EndpointHitDto> again = spool.peek(2);
+
+        assertThat(again).isEqualTo(first);
+        assertThat(spool.records()).isEqualTo(3);
+    }
+
+    @Test
+    void reopenedSpoolKeepsUndeliveredHits() {
+        HitSpool spool = spool(DataSize.ofMegabytes(1));
+        spool.append(hits(0, 5));
+        spool.close();
+
+        HitSpool reopened = spool(DataSize.ofMegabytes(1));
+
+        assertThat(reopened.records()).isEqualTo(5);
+        assertThat(reopened.peek(10)).isEqualTo(hits(0, 5));
+    }
+
+    @Test
+    void acknowledgedPositionSurvivesRestart() {
+        HitSpool spool = spool(DataSize.ofMegabytes(1));
+        spool.append(hits(0, 5));
+        assertThat(spool.peek(2)).isEqualTo(hits(0, 2));
+        spool.ack();
+        spool.peek(2);
+        spool.close();
+
+        HitSpool reopened = spool(DataSize.ofMegabytes(1));
+
+        assertThat(reopened.records()).isEqualTo(3);
+        assertThat(reopened.peek(10)).isEqualTo(hits(2, 3));
+    }
+
+    @Test
+    void tornTailIsDiscarded() throws IOException {
+        HitSpool spool = spool(DataSize.ofMegabytes(1));
+        spool.append(hits(0, 2));
+        spool.close();
+        // запись, прерванная сбоем: заголовок без тела
+        Path segment = segmentFiles().getFirst();
+        Files.write(segment, new byte[]{0, 0, 0, 40, 1, 2}, StandardOpenOption.APPEND);
+
+        HitSpool reopened = spool(DataSize.ofMegabytes(1));
+
+        assertThat(reopened.records()).isEqualTo(2);
+        assertThat(reopened.peek(10)).hasSize(2);
+        reopened.ack();
+        assertThat(reopened.peek(10)).isEmpty();
+        assertThat(reopened.bytes()).isZero();
+    }
+
+    @Test
+    void incompleteHitIsRejectedBeforeWrite() {
+        HitSpool spool = spool(DataSize.ofMegabytes(1));
+        EndpointHitDto incomplete = hits(0, 1).getFirst().toBuilder().app(null).build();
+
+        assertThatThrownBy(() -> spool.append(List.of(incomplete))).isInstanceOf(IllegalArgumentException.class);
+        assertThat(spool.records()).isZero();
+    }
+
+    @Test
+    void appendStopsAtMaxBytes() {
+        HitSpool spool = spool(DataSize.ofBytes(500));
+
+        int written = spool.append(hits(0, 100));
+
+        assertThat(written).isBetween(1, 99);
+        assertThat(spool.overflowed()).isEqualTo(100 - written);
+        assertThat(spool.bytes()).isLessThanOrEqualTo(500);
+    }
+
+    private HitSpool spool(DataSize maxBytes) {
+        return new HitSpool(directory, maxBytes, DataSize.ofKilobytes(1), Duration.ZERO);
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.sorted().toList();
+        }
+    }
+
+    private static List<EndpointHitDto> hits(int from, int count) {
+        return IntStream.range(from, from + count)
+                .mapToObj(i -> EndpointHitDto.builder()
+                        .app("main")
+                        .uri("/events/" + i)
+                        .ip("10.0.0." + i % 256)
+                        .timestamp(LocalDateTime.of(2025, 1, 1, 12, 0).plusNanos(i * 1_000_000L))
+                        .hitId(i % 2 == 0 ? "hit-" + i : null)
+                        .build())
+                .toList();
+    }
+}
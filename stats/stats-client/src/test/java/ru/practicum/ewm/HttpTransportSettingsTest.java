@@ -0,0 +1,114 @@
+package ru.practicum.ewm;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.web.client.RestClient;
+import ru.practicum.ewm.config.HttpTransport;
+import ru.practicum.ewm.config.HttpTransportSettings;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HttpTransportSettingsTest {
+
+    private static final String BODY = "[{\"app\":\"main\",\"uri\":\"/events/1\",\"hits\":5}]";
+
+    private static final HttpTransportSettings SETTINGS = HttpTransportSettings.builder()
+            .transport(HttpTransport.APACHE)
+            .connectTimeout(Duration.ofSeconds(1))
+            .readTimeout(Duration.ofSeconds(2))
+            .poolTimeout(Duration.ofSeconds(1))
+            .maxConnections(10)
+            .maxConnectionsPerRoute(10)
+            .idleTimeout(Duration.ofSeconds(30))
+            .keepAlive(Duration.ofSeconds(15))
+            .build();
+
+    // порты клиента: по одному на каждое открытое соединение
+    private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+    private HttpServer server;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/stats", this::respond);
+        server.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    void pooledTransportReusesConnection() throws Exception {
+        ClientHttpRequestFactory factory = SETTINGS.requestFactory();
+        RestClient client = client(factory);
+
+        for (int i = 0; i < 20; i++) {
+            assertThat(client.get().uri("/stats").retrieve().body(String.class)).isEqualTo(BODY);
+        }
+
+        assertThat(clientPorts).hasSize(1);
+        ((DisposableBean) factory).destroy();
+    }
+
+    @Test
+    void gzipResponseIsDecoded() throws Exception {
+        ClientHttpRequestFactory factory = SETTINGS.toBuilder().gzip(true).build().requestFactory();
+
+        String body = client(factory).get().uri("/stats").retrieve().body(String.class);
+
+        assertThat(body).isEqualTo(BODY);
+        ((DisposableBean) factory).destroy();
+    }
+
+    @Test
+    void everyTransportCreatesWorkingFactory() {
+        for (HttpTransport transport : HttpTransport.values()) {
+            ClientHttpRequestFactory factory = SETTINGS.toBuilder().transport(transport).build().requestFactory();
+
+            assertThat(client(factory).get().uri("/stats").retrieve().body(String.class)).isEqualTo(BODY);
+        }
+    }
+
+    private RestClient client(ClientHttpRequestFactory factory) {
+        return RestClient.builder()
+                .baseUrl("http://localhost:" + server.getAddress().getPort())
+                .requestFactory(factory)
+                .build();
+    }
+
+    private void respond(HttpExchange exchange) throws IOException {
+        clientPorts.add(exchange.getRemoteAddress().getPort());
+        byte[] body = BODY.getBytes(StandardCharsets.UTF_8);
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                gzip.write(body);
+            }
+            body = compressed.toByteArray();
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
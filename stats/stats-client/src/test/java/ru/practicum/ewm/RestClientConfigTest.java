@@ -0,0 +1,36 @@
+package ru.practicum.ewm;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.autoconfigure.web.client.RestClientAutoConfiguration;
+import org.springframework.boot.convert.ApplicationConversionService;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.RestClient;
+import ru.practicum.ewm.config.RestClientConfig;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RestClientConfigTest {
+
+    // конвертеры Spring Boot нужны для @Value с Duration ("1s")
+    private final ApplicationContextRunner contextRunner = new ApplicationContextRunner()
+            .withInitializer(context -> context.getBeanFactory()
+                    .setConversionService(ApplicationConversionService.getSharedInstance()))
+            .withConfiguration(AutoConfigurations.of(RestClientAutoConfiguration.class))
+            .withUserConfiguration(RestClientConfig.class)
+            .withPropertyValues("stats-server.url=http://localhost:9090");
+
+    @Test
+    void statsTransportIsNotAppliedToOtherClients() {
+        contextRunner.run(context -> {
+            ClientHttpRequestFactory statsFactory = context.getBean(ClientHttpRequestFactory.class);
+            RestClient statsClient = context.getBean(RestClient.class);
+            RestClient other = context.getBean(RestClient.Builder.class).build();
+
+            assertThat(ReflectionTestUtils.getField(statsClient, "clientRequestFactory")).isSameAs(statsFactory);
+            assertThat(ReflectionTestUtils.getField(other, "clientRequestFactory")).isNotSameAs(statsFactory);
+        });
+    }
+}
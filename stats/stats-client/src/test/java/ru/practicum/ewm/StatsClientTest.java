@@ -7,28 +7,48 @@ import org.springframework.boot.test.autoconfigure.web.client.RestClientTest;
 import org.springframework.context.annotation.Import;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.MediaType;
+import org.springframework.mock.http.client.MockClientHttpRequest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.HttpClientErrorException;
+import ru.practicum.ewm.client.StaleStatsCache;
+import ru.practicum.ewm.client.StatsCircuitBreaker;
 import ru.practicum.ewm.client.StatsClient;
+import ru.practicum.ewm.client.StatsRequestCoalescer;
+import ru.practicum.ewm.client.StatsSnapshot;
+import ru.practicum.ewm.client.StatsUnavailableException;
 import ru.practicum.ewm.config.RestClientConfig;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
 import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.springframework.test.web.client.match.MockRestRequestMatchers.*;
 import static org.springframework.test.web.client.response.MockRestResponseCreators.*;
 
 @RestClientTest(StatsClient.class)
-@Import(RestClientConfig.class)
+@Import({RestClientConfig.class, StatsCircuitBreaker.class, StaleStatsCache.class, StatsRequestCoalescer.class})
+@TestPropertySource(properties = "stats-server.breaker.failure-threshold=2")
 class StatsClientTest {
 
+    private static final String STATS_QUERY = "/stats?start=2025-01-01%2000:00:00&end=2025-01-02%2000:00:00&uris=/test"
+            + "&unique=true";
+
     @Autowired
     MockRestServiceServer mockServer;
 
     @Autowired
     StatsClient client;
 
+    @Autowired
+    StatsCircuitBreaker circuitBreaker;
+
     @Value("${stats-server.url}")
     private String statsServerUrl;
 
@@ -55,6 +75,45 @@ class StatsClientTest {
         mockServer.verify();
     }
 
+    @Test
+    void saveHitsAsCborTest() {
+        EndpointHitDto hit = EndpointHitDto.builder()
+                .app("testApp")
+                .uri("/test")
+                .ip("127.0.0.1")
+                .timestamp(LocalDateTime.of(2025, 1, 1, 12, 30, 15))
+                .build();
+        List<EndpointHitDto> hits = List.of(hit, hit.toBuilder().uri("/other").build());
+
+        mockServer.expect(requestTo(statsServerUrl + "/hits"))
+                .andExpect(method(HttpMethod.POST))
+                .andExpect(content().contentType(MediaType.APPLICATION_CBOR))
+                .andExpect(request -> assertThat(Arrays.asList(StatsCbor.objectMapper().readValue(
+                        ((MockClientHttpRequest) request).getBodyAsBytes(), EndpointHitDto[].class)))
+                        .isEqualTo(hits))
+                .andRespond(withSuccess());
+
+        ReflectionTestUtils.setField(client, "hitFormat", StatsClient.HitFormat.CBOR);
+        try {
+            client.saveHits(hits);
+        } finally {
+            ReflectionTestUtils.setField(client, "hitFormat", StatsClient.HitFormat.JSON);
+        }
+
+        mockServer.verify();
+    }
+
+    @Test
+    void cborSendsTimestampAsEpochMillis() throws Exception {
+        var timestamp = LocalDateTime.of(2025, 1, 1, 0, 0);
+        var hit = EndpointHitDto.builder().app("a").uri("/u").ip("1.1.1.1").timestamp(timestamp).build();
+
+        var tree = StatsCbor.objectMapper().readTree(StatsCbor.objectMapper().writeValueAsBytes(hit));
+
+        assertThat(tree.get("timestamp").isNumber()).isTrue();
+        assertThat(tree.get("timestamp").asLong()).isEqualTo(1735689600000L);
+    }
+
     @Test
     void getStatsTest() {
         String responseJson = "[{\"app\":\"testApp\",\"uri\":\"/test\",\"hits\":5}]";
@@ -76,4 +135,98 @@ class StatsClientTest {
 
         mockServer.verify();
     }
+
+    @Test
+    void getTopStatsTest() {
+        String responseJson = "[{\"app\":\"testApp\",\"uri\":\"/events/1\",\"hits\":7}]";
+
+        mockServer.expect(requestTo(statsServerUrl
+                        + "/stats/top?start=2025-01-01%2000:00:00&end=2025-01-02%2000:00:00&n=10&unique=false"
+                        + "&prefix=/events/"))
+                .andExpect(method(HttpMethod.GET))
+                .andRespond(withSuccess(responseJson, MediaType.APPLICATION_JSON));
+
+        List<ViewStatsDto> stats = client.getTopStats("2025-01-01 00:00:00", "2025-01-02 00:00:00", 10, false, "/events/");
+
+        assertThat(stats).hasSize(1);
+        assertThat(stats.getFirst().getUri()).isEqualTo("/events/1");
+
+        mockServer.verify();
+    }
+
+    @Test
+    @DirtiesContext
+    void getStatsOrStaleServesLastKnownViews() {
+        mockServer.expect(requestTo(statsServerUrl + STATS_QUERY))
+                .andRespond(withSuccess("[{\"app\":\"testApp\",\"uri\":\"/test\",\"hits\":5}]",
+                        MediaType.APPLICATION_JSON));
+        mockServer.expect(requestTo(statsServerUrl + STATS_QUERY))
+                .andRespond(withServiceUnavailable());
+        mockServer.expect(requestTo(statsServerUrl + STATS_QUERY.replace("/test", "/other")))
+                .andRespond(withServiceUnavailable());
+
+        StatsSnapshot fresh = getStatsOrStale("/test");
+        StatsSnapshot stale = getStatsOrStale("/test");
+        StatsSnapshot unknown = getStatsOrStale("/other");
+
+        assertThat(fresh.stale()).isFalse();
+        assertThat(stale.stale()).isTrue();
+        assertThat(stale.stats()).isEqualTo(fresh.stats());
+        assertThat(unknown.stale()).isTrue();
+        assertThat(unknown.stats()).isEmpty();
+        mockServer.verify();
+    }
+
+    @Test
+    @DirtiesContext
+    void breakerOpensAfterConsecutiveFailures() {
+        mockServer.expect(requestTo(statsServerUrl + STATS_QUERY)).andRespond(withServerError());
+        mockServer.expect(requestTo(statsServerUrl + STATS_QUERY)).andRespond(withServerError());
+
+        for (int i = 0; i < 2; i++) {
+            assertThatThrownBy(this::getStats).isInstanceOf(StatsUnavailableException.class);
+        }
+
+        assertThat(circuitBreaker.state()).isEqualTo(StatsCircuitBreaker.State.OPEN);
+        assertThatThrownBy(this::getStats)
+                .isInstanceOf(StatsUnavailableException.class)
+                .hasMessageContaining("разомкнута");
+        mockServer.verify();
+    }
+
+    @Test
+    void clientErrorsDoNotOpenBreaker() {
+        mockServer.expect(requestTo(statsServerUrl + STATS_QUERY)).andRespond(withBadRequest());
+        mockServer.expect(requestTo(statsServerUrl + STATS_QUERY)).andRespond(withBadRequest());
+
+        for (int i = 0; i < 2; i++) {
+            assertThatThrownBy(this::getStats).isInstanceOf(HttpClientErrorException.BadRequest.class);
+        }
+
+        assertThat(circuitBreaker.state()).isEqualTo(StatsCircuitBreaker.State.CLOSED);
+        mockServer.verify();
+    }
+
+    @Test
+    @DirtiesContext
+    void errorInHalfOpenProbeReopensBreaker() {
+        ReflectionTestUtils.setField(circuitBreaker, "state", StatsCircuitBreaker.State.OPEN);
+        ReflectionTestUtils.setField(circuitBreaker, "openedAt", System.nanoTime() - Duration.ofMinutes(1).toNanos());
+        mockServer.expect(requestTo(statsServerUrl + STATS_QUERY)).andRespond(request -> {
+            throw new StackOverflowError();
+        });
+
+        assertThatThrownBy(this::getStats).isInstanceOf(StackOverflowError.class);
+
+        assertThat(circuitBreaker.state()).isEqualTo(StatsCircuitBreaker.State.OPEN);
+        mockServer.verify();
+    }
+
+    private List<ViewStatsDto> getStats() {
+        return client.getStats("2025-01-01 00:00:00", "2025-01-02 00:00:00", new String[]{"/test"}, true);
+    }
+
+    private StatsSnapshot getStatsOrStale(String uri) {
+        return client.getStatsOrStale("2025-01-01 00:00:00", "2025-01-02 00:00:00", new String[]{uri}, true);
+    }
 }
@@ -0,0 +1,124 @@
+package ru.practicum.ewm;
+
+import org.junit.jupiter.api.Test;
+import ru.practicum.ewm.client.StatsRequestCoalescer;
+import ru.practicum.ewm.client.StatsUnavailableException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class StatsRequestCoalescerTest {
+
+    private static final int CALLERS = 20;
+
+    private final StatsRequestCoalescer coalescer = new StatsRequestCoalescer();
+    private final StatsRequestCoalescer.Key key = StatsRequestCoalescer.key("2025-01-01 00:00:00",
+            "2025-01-02 00:00:00", new String[]{"/events/1"}, true);
+    private final AtomicInteger requests = new AtomicInteger();
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @Test
+    void concurrentIdenticalCallsShareOneRequest() throws Exception {
+        List<ViewStatsDto> response = List.of(new ViewStatsDto("main", "/events/1", 5L));
+
+        List<List<ViewStatsDto>> results = callConcurrently(() -> {
+            requests.incrementAndGet();
+            await();
+            return response;
+        });
+
+        assertThat(requests).hasValue(1);
+        assertThat(coalescer.coalesced()).isEqualTo(CALLERS - 1);
+        assertThat(results).hasSize(CALLERS).allSatisfy(result -> assertThat(result).isEqualTo(response));
+    }
+
+    @Test
+    void failureReachesEveryWaiterAndNextCallRetries() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+        List<Future<List<ViewStatsDto>>> futures = submit(executor, () -> {
+            requests.incrementAndGet();
+            await();
+            throw new StatsUnavailableException("stats-server недоступен");
+        });
+        awaitCoalesced();
+        release.countDown();
+
+        for (Future<List<ViewStatsDto>> future : futures) {
+            assertThatThrownBy(future::get).hasCauseInstanceOf(StatsUnavailableException.class);
+        }
+        executor.shutdown();
+
+        assertThat(coalescer.execute(key, List::of)).isEmpty();
+        assertThat(requests).hasValue(1);
+    }
+
+    @Test
+    void errorReachesEveryWaiter() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+        List<Future<List<ViewStatsDto>>> futures = submit(executor, () -> {
+            await();
+            throw new OutOfMemoryError("Java heap space");
+        });
+        awaitCoalesced();
+        release.countDown();
+
+        for (Future<List<ViewStatsDto>> future : futures) {
+            assertThatThrownBy(() -> future.get(5, TimeUnit.SECONDS)).hasCauseInstanceOf(OutOfMemoryError.class);
+        }
+        executor.shutdown();
+    }
+
+    @Test
+    void keyIgnoresUriOrderAndDuplicates() {
+        assertThat(StatsRequestCoalescer.key("s", "e", new String[]{"/b", "/a", "/b"}, false))
+                .isEqualTo(StatsRequestCoalescer.key("s", "e", new String[]{"/a", "/b"}, false))
+                .isNotEqualTo(StatsRequestCoalescer.key("s", "e", new String[]{"/a", "/b"}, true));
+    }
+
+    private List<List<ViewStatsDto>> callConcurrently(Supplier<List<ViewStatsDto>> request) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+        List<Future<List<ViewStatsDto>>> futures = submit(executor, request);
+        awaitCoalesced();
+        release.countDown();
+        List<List<ViewStatsDto>> results = new ArrayList<>();
+        for (Future<List<ViewStatsDto>> future : futures) {
+            results.add(future.get(5, TimeUnit.SECONDS));
+        }
+        executor.shutdown();
+        return results;
+    }
+
+    private List<Future<List<ViewStatsDto>>> submit(ExecutorService executor, Supplier<List<ViewStatsDto>> request) {
+        List<Future<List<ViewStatsDto>>> futures = new ArrayList<>();
+        for (int i = 0; i < CALLERS; i++) {
+            futures.add(executor.submit(() -> coalescer.execute(key, request)));
+        }
+        return futures;
+    }
+
+    // запрос первого вызова держится, пока к нему не присоединятся все остальные
+    private void awaitCoalesced() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (coalescer.coalesced() < CALLERS - 1 && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+
+    private void await() {
+        try {
+            release.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -4,6 +4,7 @@ import com.fasterxml.jackson.annotation.JsonFormat;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
 import jakarta.validation.constraints.Pattern;
+import jakarta.validation.constraints.Size;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -18,13 +19,16 @@ import java.time.LocalDateTime;
 public class EndpointHitDto {
 
     @NotBlank(message = "Идентификатор сервиса не может быть пустым")
+    @Size(max = 512, message = "Идентификатор сервиса не длиннее 512 символов")
     private String app;
 
     @NotBlank(message = "свойство: `URI сервиса` обязательно к заполнению")
+    @Size(max = 512, message = "свойство: `URI сервиса` не длиннее 512 символов")
     private String uri;
 
     @NotBlank(message = "свойство: `IP` обязательно к заполнению")
-    @Pattern(regexp = "^(?:[0-9]{1,3}\\.){3}[0-9]{1,3}$|^([0-9a-fA-F]{1,4}:){7}[0-9a-fA-F]{1,4}$",
+    @Pattern(regexp = "^(?:(?:25[0-5]|2[0-4][0-9]|1?[0-9]?[0-9])\\.){3}(?:25[0-5]|2[0-4][0-9]|1?[0-9]?[0-9])$"
+            + "|^([0-9a-fA-F]{1,4}:){7}[0-9a-fA-F]{1,4}$",
             message = "Некорректный IP адрес")
     private String ip;
 
@@ -33,4 +37,8 @@ public class EndpointHitDto {
             pattern = "yyyy-MM-dd HH:mm:ss",
             timezone = "Europe/Moscow")
     private LocalDateTime timestamp;
+
+    // необязательный ключ идемпотентности: повтор hit с тем же app и hitId сервер не засчитывает
+    @Size(max = 64, message = "свойство: `hitId` не длиннее 64 символов")
+    private String hitId;
 }
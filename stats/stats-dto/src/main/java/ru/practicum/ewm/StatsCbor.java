@@ -0,0 +1,47 @@
+package ru.practicum.ewm;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+// бинарный формат обмена stats-client и stats-server (Content-Type: application/cbor):
+// те же DTO, но время передаётся числом - миллисекундами LocalDateTime без часового пояса, а не строкой
+public final class StatsCbor {
+
+    private StatsCbor() {
+    }
+
+    // модуль регистрируется после JavaTimeModule и перекрывает строковый @JsonFormat полей времени
+    public static ObjectMapper objectMapper() {
+        SimpleModule epochMillis = new SimpleModule("StatsCborEpochMillis")
+                .addSerializer(LocalDateTime.class, new JsonSerializer<>() {
+                    @Override
+                    public void serialize(LocalDateTime value, JsonGenerator generator, SerializerProvider provider)
+                            throws IOException {
+                        generator.writeNumber(value.toInstant(ZoneOffset.UTC).toEpochMilli());
+                    }
+                })
+                .addDeserializer(LocalDateTime.class, new JsonDeserializer<>() {
+                    @Override
+                    public LocalDateTime deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+                        return LocalDateTime.ofInstant(Instant.ofEpochMilli(parser.getLongValue()), ZoneOffset.UTC);
+                    }
+                });
+        return CBORMapper.builder()
+                .addModule(new JavaTimeModule())
+                .addModule(epochMillis)
+                .build();
+    }
+}
@@ -0,0 +1,27 @@
+package ru.practicum.ewm;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+// колоночная форма: общий массив начал бакетов и по массиву счётчиков той же длины на каждую пару app/uri
+@Data
+@Builder(toBuilder = true)
+@AllArgsConstructor
+@NoArgsConstructor
+public class TimeseriesDto {
+
+    private String bucket;
+
+    @JsonFormat(shape = JsonFormat.Shape.STRING,
+            pattern = "yyyy-MM-dd HH:mm:ss",
+            timezone = "Europe/Moscow")
+    private List<LocalDateTime> timestamps;
+
+    private List<TimeseriesSeriesDto> series;
+}
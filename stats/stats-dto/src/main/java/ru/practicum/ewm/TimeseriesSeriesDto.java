@@ -0,0 +1,19 @@
+package ru.practicum.ewm;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder(toBuilder = true)
+@AllArgsConstructor
+@NoArgsConstructor
+public class TimeseriesSeriesDto {
+
+    private String app;
+
+    private String uri;
+
+    private long[] hits;
+}
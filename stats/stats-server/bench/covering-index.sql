@@ -0,0 +1,81 @@
+-- План запроса /stats по сырым hit-ам до и после покрывающих индексов.
+-- Запуск: psql -h localhost -U admin -d stats-db -f covering-index.sql
+-- Данные создаются в отдельной схеме stats_bench и не трогают рабочие таблицы.
+-- По умолчанию 50M строк (~4 ГБ с индексами); для быстрой проверки уменьшите generate_series.
+
+DROP SCHEMA IF EXISTS stats_bench CASCADE;
+CREATE SCHEMA stats_bench;
+
+CREATE TABLE stats_bench.endpoint_hits
+(
+    id      BIGINT GENERATED BY DEFAULT AS IDENTITY NOT NULL,
+    app_id  INTEGER                                 NOT NULL,
+    uri_id  BIGINT                                  NOT NULL,
+    ip      BYTEA                                   NOT NULL,
+    created TIMESTAMP WITHOUT TIME ZONE             NOT NULL,
+    CONSTRAINT pk_bench_endpoint_hits PRIMARY KEY (id)
+);
+
+-- 100k uri с перекосом популярности, год истории, ip из 1M адресов
+INSERT INTO stats_bench.endpoint_hits (app_id, uri_id, ip, created)
+SELECT 1 + (g % 3),
+       1 + floor(power(random(), 3) * 100000)::BIGINT,
+       int4send(floor(random() * 1000000)::INTEGER),
+       TIMESTAMP '2025-01-01' + random() * INTERVAL '365 days'
+FROM generate_series(1, 50000000) g;
+
+-- до: индексы из прежней schema.sql
+CREATE INDEX idx_bench_hits_ip ON stats_bench.endpoint_hits (ip);
+CREATE INDEX idx_bench_hits_created ON stats_bench.endpoint_hits (created);
+VACUUM ANALYZE stats_bench.endpoint_hits;
+
+-- страница событий: 20 uri за 30 дней
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT app_id, uri_id, COUNT(*) AS hits
+FROM stats_bench.endpoint_hits
+WHERE created BETWEEN TIMESTAMP '2025-06-01' AND TIMESTAMP '2025-07-01'
+  AND uri_id IN (1, 2, 3, 5, 8, 13, 21, 34, 55, 89, 144, 233, 377, 610, 987, 1597, 2584, 4181, 6765, 10946)
+GROUP BY app_id, uri_id;
+
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT app_id, uri_id, COUNT(DISTINCT ip) AS hits
+FROM stats_bench.endpoint_hits
+WHERE created BETWEEN TIMESTAMP '2025-06-01' AND TIMESTAMP '2025-07-01'
+  AND uri_id IN (1, 2, 3, 5, 8, 13, 21, 34, 55, 89, 144, 233, 377, 610, 987, 1597, 2584, 4181, 6765, 10946)
+GROUP BY app_id, uri_id;
+
+-- после: индексы из schema-postgresql.sql
+DROP INDEX stats_bench.idx_bench_hits_ip;
+CREATE INDEX idx_bench_hits_uri_created ON stats_bench.endpoint_hits (uri_id, created) INCLUDE (app_id, ip);
+VACUUM ANALYZE stats_bench.endpoint_hits;
+
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT app_id, uri_id, COUNT(*) AS hits
+FROM stats_bench.endpoint_hits
+WHERE created BETWEEN TIMESTAMP '2025-06-01' AND TIMESTAMP '2025-07-01'
+  AND uri_id IN (1, 2, 3, 5, 8, 13, 21, 34, 55, 89, 144, 233, 377, 610, 987, 1597, 2584, 4181, 6765, 10946)
+GROUP BY app_id, uri_id;
+
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT app_id, uri_id, COUNT(DISTINCT ip) AS hits
+FROM stats_bench.endpoint_hits
+WHERE created BETWEEN TIMESTAMP '2025-06-01' AND TIMESTAMP '2025-07-01'
+  AND uri_id IN (1, 2, 3, 5, 8, 13, 21, 34, 55, 89, 144, 233, 377, 610, 987, 1597, 2584, 4181, 6765, 10946)
+GROUP BY app_id, uri_id;
+
+-- крайние неполные часы из EndpointHitRollupRepository: два диапазона через UNION ALL вместо OR,
+-- чтобы каждый читался index only scan, а не BitmapOr с обращением к таблице
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT app_id, uri_id, COUNT(*) AS hits
+FROM (SELECT app_id, uri_id
+      FROM stats_bench.endpoint_hits
+      WHERE created >= TIMESTAMP '2025-06-01 09:20' AND created < TIMESTAMP '2025-06-01 10:00'
+        AND uri_id IN (1, 2, 3, 5, 8, 13, 21, 34, 55, 89)
+      UNION ALL
+      SELECT app_id, uri_id
+      FROM stats_bench.endpoint_hits
+      WHERE created >= TIMESTAMP '2025-07-01 00:00' AND created <= TIMESTAMP '2025-07-01 00:40'
+        AND uri_id IN (1, 2, 3, 5, 8, 13, 21, 34, 55, 89)) e
+GROUP BY app_id, uri_id;
+
+DROP SCHEMA stats_bench CASCADE;
@@ -0,0 +1,31 @@
+package ru.practicum.ewm.controller;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.Profile;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import ru.practicum.ewm.core.exception.ConflictException;
+import ru.practicum.ewm.model.ArchiveReport;
+import ru.practicum.ewm.repository.HitStorage;
+import ru.practicum.ewm.service.EndpointHitCompactionJob;
+
+import java.time.LocalDateTime;
+
+@RestController
+@RequestMapping("/admin/archive")
+@Profile("!" + HitStorage.SEGMENTS_PROFILE)
+@RequiredArgsConstructor
+public class ArchiveAdminController {
+
+    private final EndpointHitCompactionJob compactionJob;
+
+    // выгрузка сырых hit-ов старше before в файлы архива с удалением из endpoint_hits
+    @PostMapping
+    public ArchiveReport archive(@RequestParam @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss") LocalDateTime before)
+            throws ConflictException {
+        return compactionJob.export(before);
+    }
+}
@@ -1,21 +1,38 @@
 package ru.practicum.ewm.controller;
 
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springdoc.core.annotations.ParameterObject;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
-import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
 import ru.practicum.ewm.EndpointHitDto;
+import ru.practicum.ewm.TimeseriesDto;
 import ru.practicum.ewm.ViewStatsDto;
+import ru.practicum.ewm.core.exception.ConditionsException;
+import ru.practicum.ewm.core.exception.TooManyRequestsException;
 import ru.practicum.ewm.filter.StatsFilter;
+import ru.practicum.ewm.filter.TimeseriesFilter;
+import ru.practicum.ewm.filter.TopStatsFilter;
+import ru.practicum.ewm.repository.PartiallySavedException;
 import ru.practicum.ewm.service.EndpointHitService;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.List;
 
 @RestController
@@ -24,17 +41,105 @@ import java.util.List;
 @Slf4j
 public class StatsRestController {
 
+    public static final String COMMITTED_HEADER = "X-Hits-Committed";
+
     private final EndpointHitService statsService;
+    private final ObjectMapper objectMapper;
+
+    @Value("${stats.ingest.batch-size:1000}")
+    private int batchSize;
 
     @PostMapping("/hit")
-    @ResponseStatus(HttpStatus.CREATED)
-    public void createHit(@RequestBody EndpointHitDto dto) {
+    public ResponseEntity<Void> createHit(@RequestBody EndpointHitDto dto) throws TooManyRequestsException {
         statsService.createHit(dto);
+        return ingested();
+    }
+
+    @PostMapping(value = "/hits", consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_CBOR_VALUE})
+    public ResponseEntity<Void> createHits(@RequestBody List<EndpointHitDto> dtos) throws TooManyRequestsException {
+        statsService.createHits(dtos);
+        return ingested();
+    }
+
+    // поток пишется пакетами по stats.ingest.batch-size: пакет записывается целиком или не записывается, но пакеты
+    // до ошибки (разбора, валидации, переполнения буфера) остаются записанными. Сколько записей с начала потока
+    // обработано, сервер сообщает в заголовке X-Hits-Committed и при ошибке: клиент повторяет поток с
+    // записи X-Hits-Committed + 1
+    @PostMapping(value = "/hits", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<Void> createHitsStream(InputStream body, HttpServletResponse response)
+            throws IOException, TooManyRequestsException, ConditionsException {
+        long committed = committed(response, 0);
+        List<EndpointHitDto> chunk = new ArrayList<>(batchSize);
+        try (MappingIterator<EndpointHitDto> iterator = objectMapper.readerFor(EndpointHitDto.class).readValues(body)) {
+            while (iterator.hasNextValue()) {
+                chunk.add(iterator.nextValue());
+                if (chunk.size() == batchSize) {
+                    committed = createChunk(chunk, committed, response);
+                    chunk = new ArrayList<>(batchSize);
+                }
+            }
+        } catch (JsonProcessingException e) {
+            throw new ConditionsException("Запись %d потока hit не разобрана: %s"
+                    .formatted(committed + chunk.size() + 1, e.getOriginalMessage()));
+        }
+        if (!chunk.isEmpty()) {
+            createChunk(chunk, committed, response);
+        }
+        return ingested();
+    }
+
+    private long createChunk(List<EndpointHitDto> chunk, long committed, HttpServletResponse response)
+            throws TooManyRequestsException {
+        try {
+            statsService.createHits(chunk);
+        } catch (PartiallySavedException e) {
+            committed(response, committed + e.getSaved());
+            throw e;
+        }
+        return committed(response, committed + chunk.size());
+    }
+
+    private static long committed(HttpServletResponse response, long committed) {
+        response.setHeader(COMMITTED_HEADER, String.valueOf(committed));
+        return committed;
+    }
+
+    // stats.ingest.mode=ASYNC: hit-ы только поставлены в очередь записи
+    private ResponseEntity<Void> ingested() {
+        return ResponseEntity.status(statsService.isAsync() ? HttpStatus.ACCEPTED : HttpStatus.CREATED).build();
     }
 
     @GetMapping("/stats")
-    public List<ViewStatsDto> findStats(@ParameterObject StatsFilter filter) {
+    public List<ViewStatsDto> findStats(@ParameterObject StatsFilter filter) throws ConditionsException {
         return statsService.findStats(filter);
     }
 
-}
\ No newline at end of file
+    @GetMapping("/stats/top")
+    public List<ViewStatsDto> findTopStats(@ParameterObject TopStatsFilter filter) throws ConditionsException {
+        return statsService.findTopStats(filter);
+    }
+
+    @GetMapping("/stats/timeseries")
+    public TimeseriesDto findTimeseries(@ParameterObject TimeseriesFilter filter) throws ConditionsException {
+        return statsService.findTimeseries(filter);
+    }
+
+    @GetMapping(value = "/stats", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public void streamStats(@ParameterObject StatsFilter filter, HttpServletResponse response)
+            throws IOException, ConditionsException {
+        response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+        // close() дописывает буфер и при ошибке посреди выдачи: клиент получит уже прочитанные строки
+        try (JsonGenerator generator = objectMapper.createGenerator(response.getOutputStream())) {
+            generator.setRootValueSeparator(null);
+            statsService.streamStats(filter, row -> {
+                try {
+                    objectMapper.writeValue(generator, row);
+                    generator.writeRaw('\n');
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+    }
+
+}
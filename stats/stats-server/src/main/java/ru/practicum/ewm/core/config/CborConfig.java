@@ -0,0 +1,21 @@
+package ru.practicum.ewm.core.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import ru.practicum.ewm.StatsCbor;
+
+import java.util.List;
+
+// hit-ы и ответы в application/cbor: время числом, без форматирования и разбора строк.
+// Spring MVC регистрирует свой CBOR-конвертер, если jackson-dataformat-cbor в classpath, - он заменяется
+@Configuration
+public class CborConfig implements WebMvcConfigurer {
+
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        converters.removeIf(MappingJackson2CborHttpMessageConverter.class::isInstance);
+        converters.add(new MappingJackson2CborHttpMessageConverter(StatsCbor.objectMapper()));
+    }
+}
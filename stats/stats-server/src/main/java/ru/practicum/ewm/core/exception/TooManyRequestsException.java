@@ -0,0 +1,7 @@
+package ru.practicum.ewm.core.exception;
+
+public class TooManyRequestsException extends Exception {
+    public TooManyRequestsException(String message) {
+        super(message);
+    }
+}
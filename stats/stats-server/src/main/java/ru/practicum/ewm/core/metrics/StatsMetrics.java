@@ -0,0 +1,92 @@
+package ru.practicum.ewm.core.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+// метрики приёма hit-ов и запросов статистики (в формате Prometheus - /actuator/prometheus).
+// Задержки и размеры публикуются гистограммами, чтобы квантили можно было считать по всем экземплярам
+@Component
+public class StatsMetrics {
+
+    public static final String HIT = "hit";
+    public static final String HITS = "hits";
+
+    public static final String STATS = "stats";
+    public static final String TOP = "top";
+    public static final String STREAM = "stream";
+    public static final String TIMESERIES = "timeseries";
+
+    // откуда прочитаны строки: скетчи агрегатов, сырые hit-ы, записи сегментов, часовые счётчики в памяти
+    // или архивные файлы
+    public static final String ROLLUP = "rollup";
+    public static final String RAW = "raw";
+    public static final String SEGMENT = "segment";
+    public static final String HOUR_INDEX = "hour-index";
+    public static final String ARCHIVE = "archive";
+
+    private final MeterRegistry registry;
+    private final Counter ingestedHits;
+
+    public StatsMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.ingestedHits = Counter.builder("stats.ingest.hits")
+                .description("Принятые hit-ы без отброшенных повторов")
+                .register(registry);
+    }
+
+    public Timer.Sample start() {
+        return Timer.start(registry);
+    }
+
+    public void ingested(Timer.Sample sample, String endpoint, int received, int accepted) {
+        sample.stop(Timer.builder("stats.ingest.latency")
+                .description("Время приёма запроса с hit-ами")
+                .tag("endpoint", endpoint)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofMillis(1))
+                .maximumExpectedValue(Duration.ofSeconds(10))
+                .register(registry));
+        DistributionSummary.builder("stats.ingest.batch.size")
+                .description("Число hit-ов в запросе")
+                .tag("endpoint", endpoint)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(1.0)
+                .maximumExpectedValue(100_000.0)
+                .register(registry)
+                .record(received);
+        ingestedHits.increment(accepted);
+    }
+
+    public void queried(Timer.Sample sample, String query, Boolean unique, int resultSize) {
+        String uniqueTag = String.valueOf(Boolean.TRUE.equals(unique));
+        sample.stop(Timer.builder("stats.query.latency")
+                .description("Время расчёта статистики")
+                .tag("query", query)
+                .tag("unique", uniqueTag)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofMillis(1))
+                .maximumExpectedValue(Duration.ofSeconds(30))
+                .register(registry));
+        DistributionSummary.builder("stats.query.result.size")
+                .description("Строк (рядов для timeseries) в ответе")
+                .tag("query", query)
+                .tag("unique", uniqueTag)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(1.0)
+                .maximumExpectedValue(1_000_000.0)
+                .register(registry)
+                .record(resultSize);
+    }
+
+    // агрегация внутри SQL сюда не попадает: считаются только строки, которые сервер читает и сводит сам
+    public void scanned(String source, long rows) {
+        if (rows > 0) {
+            registry.counter("stats.query.rows.scanned", "source", source).increment(rows);
+        }
+    }
+}
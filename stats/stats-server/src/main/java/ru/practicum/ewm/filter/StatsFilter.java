@@ -1,6 +1,7 @@
 package ru.practicum.ewm.filter;
 
 import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -31,4 +32,14 @@ public class StatsFilter implements DateRangeAware {
     private List<String> uris;
 
     private Boolean unique = false;
+
+    // точный COUNT(DISTINCT ip) по сырым hit-ам вместо оценки по скетчам (для сверок); если сырых hit-ов
+    // интервала нет ни в базе, ни в архиве, запрос отклоняется с 400
+    private Boolean exact = false;
+
+    @Positive(message = "фильтр: `limit` должен быть больше 0")
+    private Integer limit;
+
+    // только uri, начинающиеся с этой строки (вместе с uris - пересечение условий)
+    private String prefix;
 }
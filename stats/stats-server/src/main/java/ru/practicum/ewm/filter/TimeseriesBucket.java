@@ -0,0 +1,25 @@
+package ru.practicum.ewm.filter;
+
+import java.time.temporal.ChronoUnit;
+import java.util.Locale;
+
+public enum TimeseriesBucket {
+    MINUTE(ChronoUnit.MINUTES),
+    HOUR(ChronoUnit.HOURS),
+    DAY(ChronoUnit.DAYS);
+
+    private final ChronoUnit unit;
+
+    TimeseriesBucket(ChronoUnit unit) {
+        this.unit = unit;
+    }
+
+    public ChronoUnit getUnit() {
+        return unit;
+    }
+
+    // аргумент DATE_TRUNC
+    public String sqlName() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
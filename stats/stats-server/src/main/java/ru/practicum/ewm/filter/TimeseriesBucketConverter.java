@@ -0,0 +1,16 @@
+package ru.practicum.ewm.filter;
+
+import org.springframework.core.convert.converter.Converter;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+
+// bucket=minute|hour|day в любом регистре
+@Component
+public class TimeseriesBucketConverter implements Converter<String, TimeseriesBucket> {
+
+    @Override
+    public TimeseriesBucket convert(String source) {
+        return TimeseriesBucket.valueOf(source.trim().toUpperCase(Locale.ROOT));
+    }
+}
@@ -0,0 +1,50 @@
+package ru.practicum.ewm.filter;
+
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.format.annotation.DateTimeFormat;
+import ru.practicum.ewm.core.annotation.DateRange;
+import ru.practicum.ewm.core.annotation.DateRangeAware;
+
+import java.time.LocalDateTime;
+
+@Builder(toBuilder = true)
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+
+@DateRange
+public class TopStatsFilter implements DateRangeAware {
+
+    @NotNull(message = "фильтр: `Время запроса начало` обязательно к заполнению")
+    @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+    private LocalDateTime start;
+
+    @NotNull(message = "фильтр: `Время запроса окончание` обязательно к заполнению")
+    @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+    private LocalDateTime end;
+
+    @Positive(message = "фильтр: `n` должен быть больше 0")
+    @Max(value = 1000, message = "фильтр: `n` не может быть больше 1000")
+    private Integer n = 10;
+
+    private Boolean unique = false;
+
+    // например /events/ - только uri, начинающиеся с этой строки
+    private String prefix;
+
+    public StatsFilter toStatsFilter() {
+        return StatsFilter.builder()
+                .start(start)
+                .end(end)
+                .unique(Boolean.TRUE.equals(unique))
+                .limit(n)
+                .prefix(prefix)
+                .build();
+    }
+}
@@ -6,6 +6,8 @@ import ru.practicum.ewm.EndpointHitDto;
 import ru.practicum.ewm.core.config.CommonMapperConfiguration;
 import ru.practicum.ewm.model.EndpointHit;
 
+import java.util.List;
+
 @Mapper(config = CommonMapperConfiguration.class)
 public interface EndpointHitMapper {
 
@@ -13,4 +15,6 @@ public interface EndpointHitMapper {
 
     @Mapping(target = "created", source = "dto.timestamp")
     EndpointHit toEntity(EndpointHitDto dto);
+
+    List<EndpointHit> toEntities(List<EndpointHitDto> dtos);
 }
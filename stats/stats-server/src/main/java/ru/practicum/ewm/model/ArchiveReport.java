@@ -0,0 +1,7 @@
+package ru.practicum.ewm.model;
+
+import java.time.LocalDateTime;
+
+// итог выгрузки: граница запроса, сколько строк ушло из endpoint_hits и докуда теперь доходит архив
+public record ArchiveReport(LocalDateTime before, long hits, LocalDateTime archivedBefore) {
+}
@@ -0,0 +1,7 @@
+package ru.practicum.ewm.model;
+
+import java.time.LocalDateTime;
+
+// hit в форме хранения: app и uri заменены идентификаторами словаря, ip - 4 или 16 байт адреса
+public record EncodedHit(int appId, long uriId, byte[] ip, LocalDateTime created) {
+}
@@ -1,11 +1,5 @@
 package ru.practicum.ewm.model;
 
-import jakarta.persistence.Column;
-import jakarta.persistence.Entity;
-import jakarta.persistence.GeneratedValue;
-import jakarta.persistence.GenerationType;
-import jakarta.persistence.Id;
-import jakarta.persistence.Table;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Getter;
@@ -14,26 +8,18 @@ import lombok.NoArgsConstructor;
 import java.time.LocalDateTime;
 
 
-@Entity
-@Table(name = "endpoint_hits")
 @Getter
 @Builder
 @NoArgsConstructor
 @AllArgsConstructor
 public class EndpointHit {
-    @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
 
-    @Column(name = "app")
     private String app;
 
-    @Column(name = "uri")
     private String uri;
 
-    @Column(name = "ip")
     private String ip;
 
-    @Column(name = "created")
     private LocalDateTime created;
-}
\ No newline at end of file
+}
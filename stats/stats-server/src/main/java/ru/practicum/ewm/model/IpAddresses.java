@@ -0,0 +1,51 @@
+package ru.practicum.ewm.model;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+public final class IpAddresses {
+
+    private IpAddresses() {
+    }
+
+    // принимает только литералы IPv4/IPv6, без обращения к DNS
+    public static byte[] encode(String ip) {
+        if (ip.indexOf(':') < 0) {
+            return encodeV4(ip);
+        }
+        try {
+            return InetAddress.getByName(ip).getAddress();
+        } catch (UnknownHostException e) {
+            throw new IllegalArgumentException("Некорректный IP адрес: " + ip, e);
+        }
+    }
+
+    public static String decode(byte[] address) {
+        try {
+            return InetAddress.getByAddress(address).getHostAddress();
+        } catch (UnknownHostException e) {
+            throw new IllegalArgumentException("Некорректная длина IP адреса: " + address.length, e);
+        }
+    }
+
+    private static byte[] encodeV4(String ip) {
+        String[] parts = ip.split("\\.", -1);
+        if (parts.length != 4) {
+            throw new IllegalArgumentException("Некорректный IP адрес: " + ip);
+        }
+        byte[] address = new byte[4];
+        for (int i = 0; i < 4; i++) {
+            int octet;
+            try {
+                octet = Integer.parseInt(parts[i]);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Некорректный IP адрес: " + ip, e);
+            }
+            if (octet < 0 || octet > 255) {
+                throw new IllegalArgumentException("Некорректный IP адрес: " + ip);
+            }
+            address[i] = (byte) octet;
+        }
+        return address;
+    }
+}
@@ -0,0 +1,6 @@
+package ru.practicum.ewm.model;
+
+import java.time.LocalDateTime;
+
+public record TimeseriesPoint(String app, String uri, LocalDateTime bucket, long hits) {
+}
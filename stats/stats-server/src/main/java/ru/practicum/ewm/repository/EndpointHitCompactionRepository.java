@@ -0,0 +1,97 @@
+package ru.practicum.ewm.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Repository;
+import ru.practicum.ewm.model.EncodedHit;
+import ru.practicum.ewm.repository.archive.HitArchive;
+
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+// сырые hit-ы старше raw-retention-days или выгруженные в архив остаются только в часовых и дневных агрегатах
+@Repository
+@Profile("!" + HitStorage.SEGMENTS_PROFILE)
+@RequiredArgsConstructor
+public class EndpointHitCompactionRepository {
+
+    private static final String MISSING_VISITORS_SQL = "SELECT EXISTS (SELECT 1 FROM %s "
+            + "WHERE visitors IS NULL AND bucket < ?)";
+
+    private static final String ARCHIVE_SQL = "INSERT INTO endpoint_hits_archive (id, app_id, uri_id, ip, created) "
+            + "SELECT id, app_id, uri_id, ip, created FROM endpoint_hits WHERE created >= ? AND created < ?";
+
+    private static final String DELETE_SQL = "DELETE FROM endpoint_hits WHERE created >= ? AND created < ?";
+
+    private static final String EXPORT_SQL = "SELECT app_id, uri_id, ip, created FROM endpoint_hits "
+            + "WHERE created >= ? AND created < ? ORDER BY created";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final HitArchive archive;
+    private final EndpointHitPartitionRepository partitionRepository;
+
+    @Value("${stats.compaction.raw-retention-days:0}")
+    private int rawRetentionDays;
+
+    // граница по суткам: все бакеты до неё закрыты, и запросы на всех экземплярах видят одну и ту же границу,
+    // даже если задание ещё не успело удалить сырые hit-ы. null - сырые hit-ы хранятся всегда
+    public LocalDateTime retentionBoundary() {
+        if (rawRetentionDays <= 0) {
+            return null;
+        }
+        return LocalDate.now().minusDays(rawRetentionDays).atStartOfDay();
+    }
+
+    // раньше этой границы сырых hit-ов в endpoint_hits нет: они свёрнуты по сроку хранения, выгружены в архив
+    // или ушли вместе с отсоединённой секцией (stats.partitions.retention-months)
+    public LocalDateTime rawFrom() {
+        return Stream.of(retentionBoundary(), archive.archivedBefore(), partitionRepository.oldestPartitionStart())
+                .filter(Objects::nonNull)
+                .max(LocalDateTime::compareTo)
+                .orElse(null);
+    }
+
+    public LocalDateTime findOldestHit() {
+        return findNextHit(null);
+    }
+
+    // самый ранний hit не раньше from: сжатие перескакивает часы без hit-ов, а не удаляет их по одному
+    public LocalDateTime findNextHit(LocalDateTime from) {
+        Timestamp next = from == null
+                ? jdbcTemplate.queryForObject("SELECT MIN(created) FROM endpoint_hits", Timestamp.class)
+                : jdbcTemplate.queryForObject("SELECT MIN(created) FROM endpoint_hits WHERE created >= ?",
+                Timestamp.class, Timestamp.valueOf(from));
+        return next == null ? null : next.toLocalDateTime();
+    }
+
+    // без скетча бакет после удаления сырых hit-ов уже не досчитать
+    public boolean hasMissingVisitors(LocalDateTime before) {
+        Timestamp bound = Timestamp.valueOf(before);
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject(
+                MISSING_VISITORS_SQL.formatted("endpoint_hits_hourly"), Boolean.class, bound))
+                || Boolean.TRUE.equals(jdbcTemplate.queryForObject(
+                MISSING_VISITORS_SQL.formatted("endpoint_hits_daily"), Boolean.class, bound));
+    }
+
+    public int archive(LocalDateTime from, LocalDateTime to) {
+        return jdbcTemplate.update(ARCHIVE_SQL, Timestamp.valueOf(from), Timestamp.valueOf(to));
+    }
+
+    public int delete(LocalDateTime from, LocalDateTime to) {
+        return jdbcTemplate.update(DELETE_SQL, Timestamp.valueOf(from), Timestamp.valueOf(to));
+    }
+
+    // строки [from, to) в порядке created
+    public void streamHits(LocalDateTime from, LocalDateTime to, Consumer<EncodedHit> consumer) {
+        jdbcTemplate.query(EXPORT_SQL, (RowCallbackHandler) rs -> consumer.accept(new EncodedHit(rs.getInt("app_id"),
+                        rs.getLong("uri_id"), rs.getBytes("ip"), rs.getTimestamp("created").toLocalDateTime())),
+                Timestamp.valueOf(from), Timestamp.valueOf(to));
+    }
+}
@@ -0,0 +1,117 @@
+package ru.practicum.ewm.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.List;
+import java.util.Objects;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// месячные секции endpoint_hits (только PostgreSQL); имена секций строятся из YearMonth, а не из ввода
+@Repository
+@Profile("!" + HitStorage.SEGMENTS_PROFILE)
+@RequiredArgsConstructor
+public class EndpointHitPartitionRepository {
+
+    private static final Pattern PARTITION_NAME = Pattern.compile("endpoint_hits_p(\\d{4})_(\\d{2})");
+
+    private static final String IS_PARTITIONED_SQL = "SELECT EXISTS (SELECT 1 FROM pg_partitioned_table "
+            + "WHERE partrelid = to_regclass('endpoint_hits'))";
+
+    private static final String PARTITIONS_SQL = "SELECT c.relname FROM pg_inherits i "
+            + "JOIN pg_class c ON c.oid = i.inhrelid "
+            + "WHERE i.inhparent = to_regclass('endpoint_hits')";
+
+    private static final String IS_ATTACHED_SQL = "SELECT EXISTS (SELECT 1 FROM pg_inherits "
+            + "WHERE inhrelid = to_regclass(?) AND inhparent = to_regclass('endpoint_hits'))";
+
+    private static final String TABLE_EXISTS_SQL = "SELECT to_regclass(?) IS NOT NULL";
+
+    private static final String DEFAULT_HAS_ROWS_SQL = "SELECT EXISTS (SELECT 1 FROM endpoint_hits_default "
+            + "WHERE created >= ? AND created < ?)";
+
+    // начало самой старой присоединённой секции читается на каждый запрос /stats (rawFrom), поэтому кэшируется
+    private static final long OLDEST_TTL_NANOS = Duration.ofMinutes(1).toNanos();
+
+    private record OldestPartition(LocalDateTime start, long loadedAt) {
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final DatabasePlatform databasePlatform;
+
+    private volatile OldestPartition oldest;
+
+    public boolean isPartitioned() {
+        return databasePlatform.isPostgres()
+                && Boolean.TRUE.equals(jdbcTemplate.queryForObject(IS_PARTITIONED_SQL, Boolean.class));
+    }
+
+    public List<YearMonth> findMonthPartitions() {
+        return jdbcTemplate.queryForList(PARTITIONS_SQL, String.class).stream()
+                .map(PARTITION_NAME::matcher)
+                .filter(Matcher::matches)
+                .map(m -> YearMonth.of(Integer.parseInt(m.group(1)), Integer.parseInt(m.group(2))))
+                .sorted()
+                .toList();
+    }
+
+    // раньше этой границы сырых hit-ов в секциях может не быть: старые секции отсоединяются по сроку хранения.
+    // null - таблица не секционирована или секций ещё нет
+    public LocalDateTime oldestPartitionStart() {
+        OldestPartition cached = oldest;
+        if (cached == null || System.nanoTime() - cached.loadedAt() > OLDEST_TTL_NANOS) {
+            LocalDateTime start = isPartitioned()
+                    ? findMonthPartitions().stream().findFirst().map(month -> month.atDay(1).atStartOfDay()).orElse(null)
+                    : null;
+            cached = new OldestPartition(start, System.nanoTime());
+            oldest = cached;
+        }
+        return cached.start();
+    }
+
+    // должен выполняться в транзакции: строки месяца, попавшие в секцию по умолчанию, переносятся в новую секцию.
+    // Повторный вызов безопасен: уже присоединённая секция не трогается, оставшаяся от прошлых запусков
+    // отсоединённая таблица присоединяется заново
+    public void createMonthPartition(YearMonth month) {
+        String name = partitionName(month);
+        if (isTrue(IS_ATTACHED_SQL, name)) {
+            return;
+        }
+        String bounds = "FOR VALUES FROM ('%s') TO ('%s')".formatted(month.atDay(1), month.plusMonths(1).atDay(1));
+        Timestamp from = Timestamp.valueOf(month.atDay(1).atStartOfDay());
+        Timestamp to = Timestamp.valueOf(month.plusMonths(1).atDay(1).atStartOfDay());
+
+        if (!isTrue(DEFAULT_HAS_ROWS_SQL, from, to) && !isTrue(TABLE_EXISTS_SQL, name)) {
+            jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS %s PARTITION OF endpoint_hits %s".formatted(name, bounds));
+            return;
+        }
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS %s (LIKE endpoint_hits INCLUDING DEFAULTS)".formatted(name));
+        jdbcTemplate.update(("WITH moved AS (DELETE FROM endpoint_hits_default WHERE created >= ? AND created < ? "
+                + "RETURNING *) INSERT INTO %s SELECT * FROM moved").formatted(name), from, to);
+        jdbcTemplate.execute("ALTER TABLE endpoint_hits ATTACH PARTITION %s %s".formatted(name, bounds));
+    }
+
+    public void detachMonthPartition(YearMonth month) {
+        jdbcTemplate.execute("ALTER TABLE endpoint_hits DETACH PARTITION %s".formatted(partitionName(month)));
+        oldest = null;
+    }
+
+    public void dropTable(YearMonth month) {
+        jdbcTemplate.execute("DROP TABLE IF EXISTS %s".formatted(partitionName(month)));
+    }
+
+    private boolean isTrue(String sql, Object... args) {
+        return Objects.equals(jdbcTemplate.queryForObject(sql, Boolean.class, args), Boolean.TRUE);
+    }
+
+    public static String partitionName(YearMonth month) {
+        return "endpoint_hits_p%04d_%02d".formatted(month.getYear(), month.getMonthValue());
+    }
+}
@@ -1,32 +1,167 @@
 package ru.practicum.ewm.repository;
 
-import org.springframework.data.jpa.repository.JpaRepository;
-import org.springframework.data.jpa.repository.Query;
-import org.springframework.data.repository.query.Param;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Repository;
 import ru.practicum.ewm.ViewStatsDto;
 import ru.practicum.ewm.filter.StatsFilter;
+import ru.practicum.ewm.model.EncodedHit;
 import ru.practicum.ewm.model.EndpointHit;
+import ru.practicum.ewm.model.IpAddresses;
+import ru.practicum.ewm.repository.archive.HitArchive;
 
+import java.nio.ByteBuffer;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 
 @Repository
-public interface EndpointHitRepository extends JpaRepository<EndpointHit, Long> {
-
-    @Query("SELECT new ru.practicum.ewm.ViewStatsDto(eh.app, eh.uri, COUNT(eh.ip)) " +
-            "FROM EndpointHit eh " +
-            "WHERE eh.created BETWEEN :#{#filter.start} AND :#{#filter.end} " +
-            "AND (:#{#filter.uris} IS NULL OR eh.uri IN :#{#filter.uris}) " +
-            "GROUP BY eh.app, eh.uri " +
-            "ORDER BY COUNT(eh.ip) DESC")
-    List<ViewStatsDto> findStatsByNonUnique(@Param("filter") StatsFilter filter);
-
-    @Query("SELECT new ru.practicum.ewm.ViewStatsDto(eh.app, eh.uri, COUNT(DISTINCT eh.ip)) " +
-            "FROM EndpointHit eh " +
-            "WHERE eh.created BETWEEN :#{#filter.start} AND :#{#filter.end} " +
-            "AND (:#{#filter.uris} IS NULL OR eh.uri IN :#{#filter.uris}) " +
-            "GROUP BY eh.app, eh.uri " +
-            "ORDER BY COUNT(DISTINCT eh.ip) DESC")
-    List<ViewStatsDto> findStatsByUnique(@Param("filter") StatsFilter filter);
+@Profile("!" + HitStorage.SEGMENTS_PROFILE)
+@RequiredArgsConstructor
+public class EndpointHitRepository {
+
+    // с reWriteBatchedInserts=true драйвер PostgreSQL склеивает batch в один multi-row INSERT
+    private static final String INSERT_SQL = "INSERT INTO endpoint_hits (app_id, uri_id, ip, created) VALUES (?, ?, ?, ?)";
+
+    private static final String STATS_SQL = "SELECT a.name AS app, u.uri AS uri, r.hits FROM ("
+            + "SELECT app_id, uri_id, %1$s AS hits FROM endpoint_hits "
+            + "WHERE created BETWEEN :start AND :end %2$s "
+            + "GROUP BY app_id, uri_id"
+            + ") r "
+            + "JOIN stats_apps a ON a.id = r.app_id "
+            + "JOIN stats_uris u ON u.id = r.uri_id "
+            + "ORDER BY r.hits DESC %3$s";
+
+    private static final String RAW_IPS_SQL = "SELECT app_id, uri_id, ip FROM endpoint_hits "
+            + "WHERE created BETWEEN :start AND :end %s";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedJdbcTemplate;
+    private final HitDictionary dictionary;
+    private final EndpointHitRollupRepository rollupRepository;
+    private final StatsResultCache resultCache;
+    private final HitArchive archive;
+
+    @Value("${stats.ingest.batch-size:1000}")
+    private int batchSize;
+
+    public void save(EndpointHit hit) {
+        saveBatch(List.of(hit));
+    }
+
+    public void saveBatch(List<EndpointHit> hits) {
+        if (hits.isEmpty()) {
+            return;
+        }
+        List<EncodedHit> encoded = encode(hits);
+        jdbcTemplate.batchUpdate(INSERT_SQL, encoded, batchSize, (ps, hit) -> {
+            ps.setInt(1, hit.appId());
+            ps.setLong(2, hit.uriId());
+            ps.setBytes(3, hit.ip());
+            ps.setTimestamp(4, Timestamp.valueOf(hit.created()));
+        });
+        rollupRepository.increment(encoded);
+        resultCache.invalidateAfterCommit(encoded);
+    }
+
+    public List<ViewStatsDto> findStatsByNonUnique(StatsFilter filter) {
+        return findStats(filter, "COUNT(*)");
+    }
+
+    public List<ViewStatsDto> findStatsByUnique(StatsFilter filter) {
+        return findStats(filter, "COUNT(DISTINCT ip)");
+    }
+
+    public void streamStatsByUnique(StatsFilter filter, Consumer<ViewStatsDto> sink) {
+        streamStats(filter, "COUNT(DISTINCT ip)", sink);
+    }
+
+    // точный подсчёт, когда начало интервала выгружено в архив: ip до rawFrom читаются из файлов HitArchive,
+    // остальные - из endpoint_hits, различные ip считаются в памяти
+    public List<ViewStatsDto> findStatsByUniqueWithArchive(StatsFilter filter, LocalDateTime rawFrom) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("start", rawFrom)
+                .addValue("end", filter.getEnd());
+        String uriCondition = dictionary.uriCondition(filter, params);
+        if (uriCondition == null) {
+            return List.of();
+        }
+        Set<Long> uriIds = dictionary.matchingUriIds(uriCondition, params);
+        Map<AppUri, Set<ByteBuffer>> visitors = new HashMap<>();
+        // end входит в интервал, а архив читается по [from, to) с точностью до микросекунды
+        LocalDateTime archivedTo = filter.getEnd().isBefore(rawFrom) ? filter.getEnd().plusNanos(1_000) : rawFrom;
+        archive.scan(filter.getStart(), archivedTo, hit -> {
+            if (uriIds == null || uriIds.contains(hit.uriId())) {
+                visitors.computeIfAbsent(new AppUri(hit.appId(), hit.uriId()), key -> new HashSet<>())
+                        .add(ByteBuffer.wrap(hit.ip()));
+            }
+        });
+        if (!filter.getEnd().isBefore(rawFrom)) {
+            namedJdbcTemplate.query(RAW_IPS_SQL.formatted(uriCondition), params, (RowCallbackHandler) rs ->
+                    visitors.computeIfAbsent(new AppUri(rs.getInt("app_id"), rs.getLong("uri_id")), key -> new HashSet<>())
+                            .add(ByteBuffer.wrap(rs.getBytes("ip"))));
+        }
+
+        Stream<Map.Entry<AppUri, Set<ByteBuffer>>> top = visitors.entrySet().stream()
+                .sorted(Comparator.comparingInt((Map.Entry<AppUri, Set<ByteBuffer>> e) -> e.getValue().size()).reversed());
+        List<Map.Entry<AppUri, Set<ByteBuffer>>> rows = (filter.getLimit() == null ? top : top.limit(filter.getLimit())).toList();
+        Map<Integer, String> apps = dictionary.appNames(rows.stream().map(e -> e.getKey().appId()).distinct().toList());
+        Map<Long, String> uris = dictionary.uris(rows.stream().map(e -> e.getKey().uriId()).distinct().toList());
+        return rows.stream()
+                .map(e -> new ViewStatsDto(apps.get(e.getKey().appId()), uris.get(e.getKey().uriId()),
+                        (long) e.getValue().size()))
+                .toList();
+    }
+
+    private List<ViewStatsDto> findStats(StatsFilter filter, String hitsExpression) {
+        List<ViewStatsDto> result = new ArrayList<>();
+        streamStats(filter, hitsExpression, result::add);
+        return result;
+    }
+
+    private void streamStats(StatsFilter filter, String hitsExpression, Consumer<ViewStatsDto> sink) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("start", filter.getStart())
+                .addValue("end", filter.getEnd());
+        String uriCondition = dictionary.uriCondition(filter, params);
+        if (uriCondition == null) {
+            return;
+        }
+        String sql = STATS_SQL.formatted(hitsExpression, uriCondition,
+                EndpointHitRollupRepository.limitClause(filter, params));
+        namedJdbcTemplate.query(sql, params, (RowCallbackHandler) rs -> sink.accept(
+                new ViewStatsDto(rs.getString("app"), rs.getString("uri"), rs.getLong("hits"))));
+    }
+
+    private record AppUri(int appId, long uriId) {
+    }
+
+    // каждое имя разрешается в id один раз на пакет
+    private List<EncodedHit> encode(List<EndpointHit> hits) {
+        Map<String, Integer> appIds = new HashMap<>();
+        Map<String, Long> uriIds = new HashMap<>();
+        List<EncodedHit> encoded = new ArrayList<>(hits.size());
+        for (EndpointHit hit : hits) {
+            encoded.add(new EncodedHit(
+                    appIds.computeIfAbsent(hit.getApp(), dictionary::appId),
+                    uriIds.computeIfAbsent(hit.getUri(), dictionary::uriId),
+                    IpAddresses.encode(hit.getIp()),
+                    hit.getCreated()));
+        }
+        return encoded;
+    }
 }
@@ -0,0 +1,505 @@
+package ru.practicum.ewm.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.ewm.ViewStatsDto;
+import ru.practicum.ewm.core.metrics.StatsMetrics;
+import ru.practicum.ewm.filter.StatsFilter;
+import ru.practicum.ewm.filter.TimeseriesBucket;
+import ru.practicum.ewm.model.EncodedHit;
+import ru.practicum.ewm.model.TimeseriesPoint;
+import ru.practicum.ewm.sketch.HyperLogLog;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+@Repository
+@Profile("!" + HitStorage.SEGMENTS_PROFILE)
+@RequiredArgsConstructor
+public class EndpointHitRollupRepository {
+
+    private static final String HOURLY = "endpoint_hits_hourly";
+    private static final String DAILY = "endpoint_hits_daily";
+
+    private static final String UPSERT_POSTGRES = "INSERT INTO %1$s (app_id, uri_id, bucket, hits) VALUES (?, ?, ?, ?) "
+            + "ON CONFLICT (uri_id, bucket, app_id) DO UPDATE SET hits = %1$s.hits + EXCLUDED.hits";
+
+    private static final String UPSERT_MERGE = "MERGE INTO %s t "
+            + "USING (VALUES (?, ?, ?, ?)) AS s(app_id, uri_id, bucket, hits) "
+            + "ON t.uri_id = s.uri_id AND t.bucket = s.bucket AND t.app_id = s.app_id "
+            + "WHEN MATCHED THEN UPDATE SET hits = t.hits + s.hits "
+            + "WHEN NOT MATCHED THEN INSERT (app_id, uri_id, bucket, hits) VALUES (s.app_id, s.uri_id, s.bucket, s.hits)";
+
+    // скетчи всех затронутых пакетом бакетов читаются одним запросом на порцию ключей, а не по запросу на бакет
+    private static final String SELECT_VISITORS = "SELECT app_id, uri_id, bucket, hits, visitors FROM %s "
+            + "WHERE (uri_id, bucket, app_id) IN (:keys)";
+
+    private static final int VISITORS_CHUNK = 1000;
+
+    private static final String UPDATE_VISITORS = "UPDATE %s SET visitors = ? WHERE uri_id = ? AND bucket = ? AND app_id = ?";
+
+    // крайние интервалы сырых hit-ов не пересекаются и читаются двумя диапазонами через UNION вместо OR:
+    // так каждый диапазон идёт index only scan по idx_endpoint_hits_uri_created, а не BitmapOr с чтением таблицы
+    private static final String STATS_SQL = "SELECT a.name AS app, u.uri AS uri, s.hits FROM ("
+            + "SELECT r.app_id, r.uri_id, SUM(r.hits) AS hits FROM ("
+            + "SELECT app_id, uri_id, hits FROM endpoint_hits_daily "
+            + "WHERE bucket >= :dayFrom AND bucket < :dayTo %1$s "
+            + "UNION ALL "
+            + "SELECT app_id, uri_id, hits FROM endpoint_hits_hourly "
+            + "WHERE ((bucket >= :hourFrom AND bucket < :dayFrom) OR (bucket >= :dayTo AND bucket < :hourTo)) %1$s "
+            + "UNION ALL "
+            + "SELECT app_id, uri_id, COUNT(*) AS hits FROM ("
+            + "SELECT app_id, uri_id FROM endpoint_hits WHERE created >= :start AND created < :hourFrom %1$s "
+            + "UNION ALL "
+            + "SELECT app_id, uri_id FROM endpoint_hits WHERE created >= :hourTo AND created <= :end %1$s"
+            + ") e "
+            + "GROUP BY app_id, uri_id"
+            + ") r "
+            + "GROUP BY r.app_id, r.uri_id"
+            + ") s "
+            + "JOIN stats_apps a ON a.id = s.app_id "
+            + "JOIN stats_uris u ON u.id = s.uri_id "
+            + "ORDER BY s.hits DESC %2$s";
+
+    private static final String VISITORS_SQL = "SELECT app_id, uri_id, visitors FROM ("
+            + "SELECT app_id, uri_id, visitors FROM endpoint_hits_daily "
+            + "WHERE bucket >= :dayFrom AND bucket < :dayTo AND visitors IS NOT NULL %1$s "
+            + "UNION ALL "
+            + "SELECT app_id, uri_id, visitors FROM endpoint_hits_hourly "
+            + "WHERE ((bucket >= :hourFrom AND bucket < :dayFrom) OR (bucket >= :dayTo AND bucket < :hourTo)) "
+            + "AND visitors IS NOT NULL %1$s"
+            + ") v";
+
+    // части STATS_SQL для кэшируемых запросов: полные часы [hourFrom, hourTo) и сырые крайние интервалы
+    private static final String CLOSED_HITS_SQL = "SELECT app_id, uri_id, SUM(hits) AS hits FROM ("
+            + "SELECT app_id, uri_id, hits FROM endpoint_hits_daily "
+            + "WHERE bucket >= :dayFrom AND bucket < :dayTo %1$s "
+            + "UNION ALL "
+            + "SELECT app_id, uri_id, hits FROM endpoint_hits_hourly "
+            + "WHERE ((bucket >= :hourFrom AND bucket < :dayFrom) OR (bucket >= :dayTo AND bucket < :hourTo)) %1$s"
+            + ") c "
+            + "GROUP BY app_id, uri_id";
+
+    private static final String EDGE_HITS_SQL = "SELECT app_id, uri_id, COUNT(*) AS hits FROM ("
+            + "SELECT app_id, uri_id FROM endpoint_hits WHERE created >= :start AND created < :hourFrom %1$s "
+            + "UNION ALL "
+            + "SELECT app_id, uri_id FROM endpoint_hits WHERE created >= :hourTo AND created <= :end %1$s"
+            + ") e "
+            + "GROUP BY app_id, uri_id";
+
+    private static final String EDGE_IPS_SQL = "SELECT app_id, uri_id, ip FROM endpoint_hits "
+            + "WHERE created >= :start AND created < :hourFrom %1$s "
+            + "UNION "
+            + "SELECT app_id, uri_id, ip FROM endpoint_hits "
+            + "WHERE created >= :hourTo AND created <= :end %1$s";
+
+    // бакеты запроса собираются из самых крупных подходящих агрегатов и сырых hit-ов, см. RollupRange.of(..., coarsest)
+    private static final String TIMESERIES_SQL = "SELECT a.name AS app, u.uri AS uri, s.ts AS bucket, s.hits FROM ("
+            + "SELECT r.app_id, r.uri_id, DATE_TRUNC('%1$s', r.ts) AS ts, SUM(r.hits) AS hits FROM ("
+            + "SELECT app_id, uri_id, bucket AS ts, hits FROM endpoint_hits_daily "
+            + "WHERE bucket >= :dayFrom AND bucket < :dayTo %2$s "
+            + "UNION ALL "
+            + "SELECT app_id, uri_id, bucket AS ts, hits FROM endpoint_hits_hourly "
+            + "WHERE ((bucket >= :hourFrom AND bucket < :dayFrom) OR (bucket >= :dayTo AND bucket < :hourTo)) %2$s "
+            + "UNION ALL "
+            + "SELECT app_id, uri_id, created AS ts, 1 AS hits FROM endpoint_hits "
+            + "WHERE created >= :start AND created < :hourFrom %2$s "
+            + "UNION ALL "
+            + "SELECT app_id, uri_id, created AS ts, 1 AS hits FROM endpoint_hits "
+            + "WHERE created >= :hourTo AND created <= :end %2$s"
+            + ") r "
+            + "GROUP BY r.app_id, r.uri_id, DATE_TRUNC('%1$s', r.ts)"
+            + ") s "
+            + "JOIN stats_apps a ON a.id = s.app_id "
+            + "JOIN stats_uris u ON u.id = s.uri_id";
+
+    private static final String TIMESERIES_VISITORS_SQL = "SELECT app_id, uri_id, DATE_TRUNC('%1$s', bucket) AS ts, visitors "
+            + "FROM endpoint_hits_daily "
+            + "WHERE bucket >= :dayFrom AND bucket < :dayTo AND visitors IS NOT NULL %2$s "
+            + "UNION ALL "
+            + "SELECT app_id, uri_id, DATE_TRUNC('%1$s', bucket) AS ts, visitors FROM endpoint_hits_hourly "
+            + "WHERE ((bucket >= :hourFrom AND bucket < :dayFrom) OR (bucket >= :dayTo AND bucket < :hourTo)) "
+            + "AND visitors IS NOT NULL %2$s";
+
+    private static final String TIMESERIES_EDGE_IPS_SQL = "SELECT app_id, uri_id, DATE_TRUNC('%1$s', created) AS ts, ip "
+            + "FROM endpoint_hits WHERE created >= :start AND created < :hourFrom %2$s "
+            + "UNION "
+            + "SELECT app_id, uri_id, DATE_TRUNC('%1$s', created) AS ts, ip "
+            + "FROM endpoint_hits WHERE created >= :hourTo AND created <= :end %2$s";
+
+    private static final String MISSING_VISITORS_SQL = "SELECT app_id, uri_id, bucket FROM %s WHERE visitors IS NULL LIMIT ?";
+
+    private static final String BUCKET_IPS_SQL = "SELECT DISTINCT ip FROM endpoint_hits "
+            + "WHERE uri_id = ? AND app_id = ? AND created >= ? AND created < ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedJdbcTemplate;
+    private final DatabasePlatform databasePlatform;
+    private final HitDictionary dictionary;
+    private final StatsResultCache resultCache;
+    private final StatsMetrics metrics;
+    private final EndpointHitCompactionRepository compactionRepository;
+
+    @Value("${stats.hll.precision:14}")
+    private int precision;
+
+    public void increment(List<EncodedHit> hits) {
+        if (hits.isEmpty()) {
+            return;
+        }
+        for (ChronoUnit unit : List.of(ChronoUnit.HOURS, ChronoUnit.DAYS)) {
+            String table = unit == ChronoUnit.HOURS ? HOURLY : DAILY;
+            Map<BucketKey, BucketDelta> deltas = deltasByBucket(hits, unit);
+            upsertHits(table, deltas);
+            mergeVisitors(table, deltas);
+        }
+    }
+
+    public List<ViewStatsDto> findStats(StatsFilter filter) {
+        List<ViewStatsDto> result = new ArrayList<>();
+        streamStats(filter, result::add);
+        return result;
+    }
+
+    // строки отдаются по мере чтения курсора, без сборки всего результата в памяти
+    public void streamStats(StatsFilter filter, Consumer<ViewStatsDto> sink) {
+        RollupRange cached = cacheableRange(filter);
+        if (cached != null) {
+            findCachedStats(filter, cached).forEach(sink);
+            return;
+        }
+        RollupRange range = range(filter.getStart(), filter.getEnd(), ChronoUnit.DAYS);
+        MapSqlParameterSource params = rangeParams(range);
+        String uriCondition = dictionary.uriCondition(filter, params);
+        if (uriCondition == null) {
+            return;
+        }
+        namedJdbcTemplate.query(STATS_SQL.formatted(uriCondition, limitClause(filter, params)), params,
+                (RowCallbackHandler) rs -> sink.accept(
+                        new ViewStatsDto(rs.getString("app"), rs.getString("uri"), rs.getLong("hits"))));
+    }
+
+    // полные бакеты объединяются по скетчам, неполные крайние часы досчитываются по сырым ip.
+    // Скетчи группируются по (app, uri) в памяти, а не сортировкой в SQL: сортировка всех строк
+    // со скетчами по 16 КБ обходится базе дороже, чем один скетч на uri здесь
+    public List<ViewStatsDto> findUniqueStats(StatsFilter filter) {
+        RollupRange cached = cacheableRange(filter);
+        if (cached != null) {
+            return findCachedUniqueStats(filter, cached);
+        }
+        RollupRange range = range(filter.getStart(), filter.getEnd(), ChronoUnit.DAYS);
+        MapSqlParameterSource params = rangeParams(range);
+        String uriCondition = dictionary.uriCondition(filter, params);
+        if (uriCondition == null) {
+            return List.of();
+        }
+        Map<AppUri, HyperLogLog> sketches = edgeVisitors(uriCondition, params);
+        readRows(VISITORS_SQL.formatted(uriCondition), params, StatsMetrics.ROLLUP, rs -> {
+            sketches.merge(appUri(rs), HyperLogLog.fromBytes(rs.getBytes("visitors")), HyperLogLog::merge);
+        });
+
+        TopEstimates top = new TopEstimates(filter.getLimit());
+        sketches.forEach((key, sketch) -> top.offer(key, sketch.estimate()));
+        return named(top.descending());
+    }
+
+    // полные часы старше settle-time уже почти не меняются (опоздавшие hit-ы сбрасывают кэш),
+    // поэтому их агрегаты берутся из StatsResultCache; крайние интервалы и свежие часы читаются всегда.
+    // null - запрос не кэшируется или в нём нет ни одного закрытого часа
+    private RollupRange cacheableRange(StatsFilter filter) {
+        if (!resultCache.accepts(filter)) {
+            return null;
+        }
+        LocalDateTime cacheableBefore = resultCache.cacheableBefore();
+        LocalDateTime closedEnd = filter.getEnd().isBefore(cacheableBefore) ? filter.getEnd() : cacheableBefore;
+        if (!closedEnd.isAfter(filter.getStart())) {
+            return null;
+        }
+        RollupRange closed = range(filter.getStart(), closedEnd, ChronoUnit.DAYS);
+        if (!closed.hourFrom().isBefore(closed.hourTo())) {
+            return null;
+        }
+        return new RollupRange(closed.start(), closed.hourFrom(), closed.dayFrom(), closed.dayTo(),
+                closed.hourTo(), filter.getEnd());
+    }
+
+    private List<ViewStatsDto> findCachedStats(StatsFilter filter, RollupRange range) {
+        MapSqlParameterSource params = rangeParams(range);
+        String uriCondition = dictionary.uriCondition(filter, params);
+        if (uriCondition == null) {
+            return List.of();
+        }
+        Map<AppUri, Long> closed = resultCache.get(resultCache.key(filter, range.hourFrom(), range.hourTo()), () -> {
+            Map<AppUri, Long> hits = new HashMap<>();
+            namedJdbcTemplate.query(CLOSED_HITS_SQL.formatted(uriCondition), params, rs -> {
+                hits.put(appUri(rs), rs.getLong("hits"));
+            });
+            return hits;
+        });
+        Map<AppUri, Long> hits = new HashMap<>(closed);
+        namedJdbcTemplate.query(EDGE_HITS_SQL.formatted(uriCondition), params, rs -> {
+            hits.merge(appUri(rs), rs.getLong("hits"), Long::sum);
+        });
+        TopEstimates top = new TopEstimates(filter.getLimit());
+        hits.forEach(top::offer);
+        return named(top.descending());
+    }
+
+    // скетчи из кэша только читаются: с ними сливаются свежие скетчи крайних интервалов
+    private List<ViewStatsDto> findCachedUniqueStats(StatsFilter filter, RollupRange range) {
+        MapSqlParameterSource params = rangeParams(range);
+        String uriCondition = dictionary.uriCondition(filter, params);
+        if (uriCondition == null) {
+            return List.of();
+        }
+        Map<AppUri, HyperLogLog> closed = resultCache.get(resultCache.key(filter, range.hourFrom(), range.hourTo()), () -> {
+            Map<AppUri, HyperLogLog> sketches = new HashMap<>();
+            readRows(VISITORS_SQL.formatted(uriCondition), params, StatsMetrics.ROLLUP, rs -> {
+                sketches.merge(appUri(rs), HyperLogLog.fromBytes(rs.getBytes("visitors")), HyperLogLog::merge);
+            });
+            return sketches;
+        });
+        Map<AppUri, HyperLogLog> edges = edgeVisitors(uriCondition, params);
+        TopEstimates top = new TopEstimates(filter.getLimit());
+        closed.forEach((key, sketch) -> {
+            HyperLogLog edge = edges.remove(key);
+            top.offer(key, edge == null ? sketch.estimate() : edge.merge(sketch).estimate());
+        });
+        edges.forEach((key, sketch) -> top.offer(key, sketch.estimate()));
+        return named(top.descending());
+    }
+
+    private Map<AppUri, HyperLogLog> edgeVisitors(String uriCondition, MapSqlParameterSource params) {
+        Map<AppUri, HyperLogLog> edges = new HashMap<>();
+        readRows(EDGE_IPS_SQL.formatted(uriCondition), params, StatsMetrics.RAW, rs -> {
+            edges.computeIfAbsent(appUri(rs), key -> new HyperLogLog(precision)).add(rs.getBytes("ip"));
+        });
+        return edges;
+    }
+
+    // строки, которые сводятся здесь, а не в SQL, учитываются в stats.query.rows.scanned
+    private void readRows(String sql, MapSqlParameterSource params, String source, RowCallbackHandler handler) {
+        long[] rows = {0};
+        namedJdbcTemplate.query(sql, params, (RowCallbackHandler) rs -> {
+            rows[0]++;
+            handler.processRow(rs);
+        });
+        metrics.scanned(source, rows[0]);
+    }
+
+    private List<ViewStatsDto> named(List<Estimate> estimates) {
+        Map<Integer, String> apps = dictionary.appNames(estimates.stream().map(e -> e.key().appId()).distinct().toList());
+        Map<Long, String> uris = dictionary.uris(estimates.stream().map(e -> e.key().uriId()).distinct().toList());
+        return estimates.stream()
+                .map(e -> new ViewStatsDto(apps.get(e.key().appId()), uris.get(e.key().uriId()), e.hits()))
+                .toList();
+    }
+
+    public List<TimeseriesPoint> findTimeseries(StatsFilter filter, TimeseriesBucket bucket) {
+        RollupRange range = range(filter.getStart(), filter.getEnd(), bucket.getUnit());
+        MapSqlParameterSource params = rangeParams(range);
+        String uriCondition = dictionary.uriCondition(filter, params);
+        if (uriCondition == null) {
+            return List.of();
+        }
+        if (!filter.getUnique()) {
+            return namedJdbcTemplate.query(TIMESERIES_SQL.formatted(bucket.sqlName(), uriCondition), params,
+                    (rs, rowNum) -> new TimeseriesPoint(rs.getString("app"), rs.getString("uri"),
+                            rs.getTimestamp("bucket").toLocalDateTime(), rs.getLong("hits")));
+        }
+
+        Map<SeriesBucket, HyperLogLog> visitors = new HashMap<>();
+        readRows(TIMESERIES_VISITORS_SQL.formatted(bucket.sqlName(), uriCondition), params, StatsMetrics.ROLLUP, rs -> {
+            visitors.merge(seriesBucket(rs), HyperLogLog.fromBytes(rs.getBytes("visitors")), HyperLogLog::merge);
+        });
+        readRows(TIMESERIES_EDGE_IPS_SQL.formatted(bucket.sqlName(), uriCondition), params, StatsMetrics.RAW, rs -> {
+            visitors.computeIfAbsent(seriesBucket(rs), key -> new HyperLogLog(precision)).add(rs.getBytes("ip"));
+        });
+
+        Map<Integer, String> apps = dictionary.appNames(visitors.keySet().stream().map(k -> k.key().appId()).distinct().toList());
+        Map<Long, String> uris = dictionary.uris(visitors.keySet().stream().map(k -> k.key().uriId()).distinct().toList());
+        return visitors.entrySet().stream()
+                .map(entry -> new TimeseriesPoint(apps.get(entry.getKey().key().appId()),
+                        uris.get(entry.getKey().key().uriId()), entry.getKey().bucket(), entry.getValue().estimate()))
+                .toList();
+    }
+
+    private static SeriesBucket seriesBucket(ResultSet rs) throws SQLException {
+        return new SeriesBucket(appUri(rs), rs.getTimestamp("ts").toLocalDateTime());
+    }
+
+    private static AppUri appUri(ResultSet rs) throws SQLException {
+        return new AppUri(rs.getInt("app_id"), rs.getLong("uri_id"));
+    }
+
+    // досчитывает скетчи для строк агрегатов, созданных без них (первичное заполнение из schema.sql)
+    public int backfillVisitors(int limit) {
+        int updated = 0;
+        for (ChronoUnit unit : List.of(ChronoUnit.HOURS, ChronoUnit.DAYS)) {
+            String table = unit == ChronoUnit.HOURS ? HOURLY : DAILY;
+            List<BucketKey> missing = jdbcTemplate.query(MISSING_VISITORS_SQL.formatted(table), (rs, rowNum) ->
+                    new BucketKey(rs.getInt("app_id"), rs.getLong("uri_id"),
+                            rs.getTimestamp("bucket").toLocalDateTime()), limit);
+            for (BucketKey key : missing) {
+                HyperLogLog sketch = new HyperLogLog(precision);
+                jdbcTemplate.query(BUCKET_IPS_SQL, (RowCallbackHandler) rs -> sketch.add(rs.getBytes("ip")),
+                        key.uriId(), key.appId(), Timestamp.valueOf(key.bucket()),
+                        Timestamp.valueOf(key.bucket().plus(1, unit)));
+                jdbcTemplate.update(UPDATE_VISITORS.formatted(table), sketch.toBytes(),
+                        key.uriId(), Timestamp.valueOf(key.bucket()), key.appId());
+            }
+            updated += missing.size();
+        }
+        return updated;
+    }
+
+    private RollupRange range(LocalDateTime start, LocalDateTime end, ChronoUnit coarsest) {
+        return RollupRange.of(start, end, coarsest, compactionRepository.rawFrom());
+    }
+
+    private static MapSqlParameterSource rangeParams(RollupRange range) {
+        return new MapSqlParameterSource()
+                .addValue("start", range.start())
+                .addValue("hourFrom", range.hourFrom())
+                .addValue("dayFrom", range.dayFrom())
+                .addValue("dayTo", range.dayTo())
+                .addValue("hourTo", range.hourTo())
+                .addValue("end", range.end());
+    }
+
+    static String limitClause(StatsFilter filter, MapSqlParameterSource params) {
+        if (filter.getLimit() == null) {
+            return "";
+        }
+        params.addValue("limit", filter.getLimit());
+        return "LIMIT :limit";
+    }
+
+    // ключи отсортированы, чтобы параллельные пакеты блокировали строки агрегатов в одном порядке
+    private Map<BucketKey, BucketDelta> deltasByBucket(List<EncodedHit> hits, ChronoUnit unit) {
+        Map<BucketKey, BucketDelta> deltas = new TreeMap<>(BucketKey.ORDER);
+        for (EncodedHit hit : hits) {
+            BucketKey key = new BucketKey(hit.appId(), hit.uriId(), hit.created().truncatedTo(unit));
+            BucketDelta delta = deltas.computeIfAbsent(key, k -> new BucketDelta(new HyperLogLog(precision)));
+            delta.hits++;
+            delta.visitors.add(hit.ip());
+        }
+        return deltas;
+    }
+
+    private void upsertHits(String table, Map<BucketKey, BucketDelta> deltas) {
+        String sql = (databasePlatform.isPostgres() ? UPSERT_POSTGRES : UPSERT_MERGE).formatted(table);
+        List<Map.Entry<BucketKey, BucketDelta>> rows = new ArrayList<>(deltas.entrySet());
+        jdbcTemplate.batchUpdate(sql, rows, rows.size(), (ps, row) -> {
+            ps.setInt(1, row.getKey().appId());
+            ps.setLong(2, row.getKey().uriId());
+            ps.setTimestamp(3, Timestamp.valueOf(row.getKey().bucket()));
+            ps.setLong(4, row.getValue().hits);
+        });
+    }
+
+    // строки уже заблокированы upsert-ом выше, поэтому read-merge-write скетча безопасен в этой транзакции.
+    // Скетч, который слияние не изменило (все ip пакета уже учтены), не перезаписывается
+    private void mergeVisitors(String table, Map<BucketKey, BucketDelta> deltas) {
+        List<BucketKey> keys = new ArrayList<>(deltas.keySet());
+        List<Object[]> updates = new ArrayList<>(keys.size());
+        for (int from = 0; from < keys.size(); from += VISITORS_CHUNK) {
+            List<Object[]> chunk = keys.subList(from, Math.min(from + VISITORS_CHUNK, keys.size())).stream()
+                    .map(key -> new Object[]{key.uriId(), Timestamp.valueOf(key.bucket()), key.appId()})
+                    .toList();
+            namedJdbcTemplate.query(SELECT_VISITORS.formatted(table), new MapSqlParameterSource("keys", chunk),
+                    (RowCallbackHandler) rs -> {
+                        BucketKey key = new BucketKey(rs.getInt("app_id"), rs.getLong("uri_id"),
+                                rs.getTimestamp("bucket").toLocalDateTime());
+                        BucketDelta delta = deltas.get(key);
+                        byte[] stored = rs.getBytes("visitors");
+                        byte[] merged;
+                        if (stored != null) {
+                            merged = HyperLogLog.fromBytes(stored).merge(delta.visitors).toBytes();
+                            if (Arrays.equals(stored, merged)) {
+                                return;
+                            }
+                        } else if (rs.getLong("hits") == delta.hits) {
+                            merged = delta.visitors.toBytes();
+                        } else {
+                            // строка без скетча, но со старыми hit-ами ждёт backfillVisitors
+                            return;
+                        }
+                        updates.add(new Object[]{merged, key.uriId(), Timestamp.valueOf(key.bucket()), key.appId()});
+                    });
+        }
+        jdbcTemplate.batchUpdate(UPDATE_VISITORS.formatted(table), updates);
+    }
+
+    private record AppUri(int appId, long uriId) {
+    }
+
+    private record SeriesBucket(AppUri key, LocalDateTime bucket) {
+    }
+
+    private record Estimate(AppUri key, long hits) {
+    }
+
+    private static final class TopEstimates {
+        private final Integer limit;
+        private final PriorityQueue<Estimate> heap = new PriorityQueue<>(Comparator.comparingLong(Estimate::hits));
+        private final List<Estimate> all = new ArrayList<>();
+
+        private TopEstimates(Integer limit) {
+            this.limit = limit;
+        }
+
+        private void offer(AppUri key, long hits) {
+            if (limit == null) {
+                all.add(new Estimate(key, hits));
+                return;
+            }
+            if (heap.size() == limit) {
+                if (heap.peek().hits() >= hits) {
+                    return;
+                }
+                heap.poll();
+            }
+            heap.add(new Estimate(key, hits));
+        }
+
+        private List<Estimate> descending() {
+            List<Estimate> result = new ArrayList<>(limit == null ? all : heap);
+            result.sort(Comparator.comparingLong(Estimate::hits).reversed());
+            return result;
+        }
+    }
+
+    private record BucketKey(int appId, long uriId, LocalDateTime bucket) {
+        private static final Comparator<BucketKey> ORDER = Comparator.comparingLong(BucketKey::uriId)
+                .thenComparing(BucketKey::bucket)
+                .thenComparingInt(BucketKey::appId);
+    }
+
+    private static final class BucketDelta {
+        private final HyperLogLog visitors;
+        private long hits;
+
+        private BucketDelta(HyperLogLog visitors) {
+            this.visitors = visitors;
+        }
+    }
+}
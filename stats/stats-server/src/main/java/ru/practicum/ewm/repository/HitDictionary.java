@@ -0,0 +1,222 @@
+package ru.practicum.ewm.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.practicum.ewm.filter.StatsFilter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// словари app и uri: в endpoint_hits и агрегатах хранятся только их идентификаторы
+@Repository
+@Profile("!" + HitStorage.SEGMENTS_PROFILE)
+@RequiredArgsConstructor
+public class HitDictionary {
+
+    private static final String INSERT_APP_POSTGRES = "INSERT INTO stats_apps (name) VALUES (?) ON CONFLICT (name) DO NOTHING";
+    private static final String INSERT_APP_MERGE = "MERGE INTO stats_apps (name) KEY (name) VALUES (?)";
+    private static final String INSERT_URI_POSTGRES = "INSERT INTO stats_uris (uri) VALUES (?) ON CONFLICT (uri) DO NOTHING";
+    private static final String INSERT_URI_MERGE = "MERGE INTO stats_uris (uri) KEY (uri) VALUES (?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedJdbcTemplate;
+    private final DatabasePlatform databasePlatform;
+
+    private final Map<String, Integer> appIds = new ConcurrentHashMap<>();
+    private final Map<Integer, String> appNames = new ConcurrentHashMap<>();
+    private final Map<String, Long> uriIds = new ConcurrentHashMap<>();
+    private final Map<Long, String> uris = new ConcurrentHashMap<>();
+
+    @Value("${stats.dictionary.cache-size:100000}")
+    private int cacheSize;
+
+    public int appId(String app) {
+        Integer cached = appIds.get(app);
+        if (cached != null) {
+            return cached;
+        }
+        jdbcTemplate.update(databasePlatform.isPostgres() ? INSERT_APP_POSTGRES : INSERT_APP_MERGE, app);
+        Integer id = jdbcTemplate.queryForObject("SELECT id FROM stats_apps WHERE name = ?", Integer.class, app);
+        cacheAfterCommit(() -> putApp(app, id));
+        return id;
+    }
+
+    public long uriId(String uri) {
+        Long cached = uriIds.get(uri);
+        if (cached != null) {
+            return cached;
+        }
+        jdbcTemplate.update(databasePlatform.isPostgres() ? INSERT_URI_POSTGRES : INSERT_URI_MERGE, uri);
+        Long id = jdbcTemplate.queryForObject("SELECT id FROM stats_uris WHERE uri = ?", Long.class, uri);
+        cacheAfterCommit(() -> putUri(uri, id));
+        return id;
+    }
+
+    public Map<Integer, String> appNames(Collection<Integer> ids) {
+        Map<Integer, String> result = new HashMap<>();
+        List<Integer> missing = new ArrayList<>();
+        for (Integer id : ids) {
+            String name = appNames.get(id);
+            if (name != null) {
+                result.put(id, name);
+            } else {
+                missing.add(id);
+            }
+        }
+        if (!missing.isEmpty()) {
+            namedJdbcTemplate.query("SELECT id, name FROM stats_apps WHERE id IN (:ids)", Map.of("ids", missing), rs -> {
+                int id = rs.getInt("id");
+                String name = rs.getString("name");
+                result.put(id, name);
+                cacheAfterCommit(() -> putApp(name, id));
+            });
+        }
+        return result;
+    }
+
+    public Map<Long, String> uris(Collection<Long> ids) {
+        Map<Long, String> result = new HashMap<>();
+        List<Long> missing = new ArrayList<>();
+        for (Long id : ids) {
+            String uri = uris.get(id);
+            if (uri != null) {
+                result.put(id, uri);
+            } else {
+                missing.add(id);
+            }
+        }
+        if (!missing.isEmpty()) {
+            namedJdbcTemplate.query("SELECT id, uri FROM stats_uris WHERE id IN (:ids)", Map.of("ids", missing), rs -> {
+                long id = rs.getLong("id");
+                String uri = rs.getString("uri");
+                result.put(id, uri);
+                cacheAfterCommit(() -> putUri(uri, id));
+            });
+        }
+        return result;
+    }
+
+    // условие на uri_id для фильтра; null - ни один из запрошенных uri ещё не встречался.
+    // Элемент uris со звёздочкой (/events/*) - шаблон, остальные сравниваются точно
+    String uriCondition(StatsFilter filter, MapSqlParameterSource params) {
+        StringBuilder condition = new StringBuilder();
+        if (filter.getUris() != null && !filter.getUris().isEmpty()) {
+            List<String> exact = new ArrayList<>();
+            List<String> patterns = new ArrayList<>();
+            for (String uri : filter.getUris()) {
+                if (uri.indexOf('*') >= 0) {
+                    patterns.add(escapeLike(uri).replace("*", "%"));
+                } else {
+                    exact.add(uri);
+                }
+            }
+            List<String> alternatives = new ArrayList<>();
+            if (!exact.isEmpty()) {
+                List<Long> ids = findUriIds(exact);
+                if (!ids.isEmpty()) {
+                    params.addValue("uriIds", ids);
+                    alternatives.add("uri_id IN (:uriIds)");
+                }
+            }
+            if (!patterns.isEmpty()) {
+                alternatives.add(matchingUris(patterns, "uriPattern", params));
+            }
+            if (alternatives.isEmpty()) {
+                return null;
+            }
+            condition.append("AND (").append(String.join(" OR ", alternatives)).append(")");
+        }
+        if (filter.getPrefix() != null && !filter.getPrefix().isEmpty()) {
+            condition.append(" AND ")
+                    .append(matchingUris(List.of(escapeLike(filter.getPrefix()) + "%"), "uriPrefix", params));
+        }
+        return condition.toString();
+    }
+
+    // id uri, подходящих под условие uriCondition, для фильтрации вне базы; null - условия нет, подходят все
+    Set<Long> matchingUriIds(String uriCondition, MapSqlParameterSource params) {
+        if (uriCondition.isEmpty()) {
+            return null;
+        }
+        return new HashSet<>(namedJdbcTemplate.queryForList(
+                "SELECT uri_id FROM (SELECT id AS uri_id FROM stats_uris) u WHERE TRUE " + uriCondition, params, Long.class));
+    }
+
+    // LIKE с фиксированным началом идёт по idx_stats_uris_uri_pattern (text_pattern_ops) на PostgreSQL
+    private static String matchingUris(List<String> likePatterns, String name, MapSqlParameterSource params) {
+        List<String> likes = new ArrayList<>(likePatterns.size());
+        for (int i = 0; i < likePatterns.size(); i++) {
+            params.addValue(name + i, likePatterns.get(i));
+            likes.add("uri LIKE :" + name + i + " ESCAPE '\\'");
+        }
+        return "uri_id IN (SELECT id FROM stats_uris WHERE " + String.join(" OR ", likes) + ")";
+    }
+
+    private List<Long> findUriIds(List<String> requested) {
+        List<Long> ids = new ArrayList<>();
+        List<String> missing = new ArrayList<>();
+        for (String uri : requested) {
+            Long id = uriIds.get(uri);
+            if (id != null) {
+                ids.add(id);
+            } else {
+                missing.add(uri);
+            }
+        }
+        if (!missing.isEmpty()) {
+            namedJdbcTemplate.query("SELECT id, uri FROM stats_uris WHERE uri IN (:uris)", Map.of("uris", missing), rs -> {
+                long id = rs.getLong("id");
+                String uri = rs.getString("uri");
+                ids.add(id);
+                cacheAfterCommit(() -> putUri(uri, id));
+            });
+        }
+        return ids;
+    }
+
+    private static String escapeLike(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
+    private void putApp(String app, int id) {
+        appIds.put(app, id);
+        appNames.put(id, app);
+    }
+
+    // словарь только растёт, поэтому переполненный кэш просто сбрасывается и прогревается заново
+    private void putUri(String uri, long id) {
+        if (uriIds.size() >= cacheSize) {
+            uriIds.clear();
+            uris.clear();
+        }
+        uriIds.put(uri, id);
+        uris.put(id, uri);
+    }
+
+    // запись, увиденная внутри транзакции, может исчезнуть при её откате, поэтому в кэш она попадает только после коммита
+    private static void cacheAfterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+}
@@ -0,0 +1,26 @@
+package ru.practicum.ewm.repository;
+
+import ru.practicum.ewm.ViewStatsDto;
+import ru.practicum.ewm.core.exception.ConditionsException;
+import ru.practicum.ewm.filter.StatsFilter;
+import ru.practicum.ewm.filter.TimeseriesBucket;
+import ru.practicum.ewm.model.EndpointHit;
+import ru.practicum.ewm.model.TimeseriesPoint;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+// движок хранения hit-ов: по умолчанию PostgreSQL (JdbcHitStorage), с профилем segments - файлы сегментов
+public interface HitStorage {
+
+    String SEGMENTS_PROFILE = "segments";
+
+    void saveBatch(List<EndpointHit> hits);
+
+    // exact=true, который хранилище не может посчитать точно, отклоняется ConditionsException
+    List<ViewStatsDto> findStats(StatsFilter filter) throws ConditionsException;
+
+    void streamStats(StatsFilter filter, Consumer<ViewStatsDto> sink) throws ConditionsException;
+
+    List<TimeseriesPoint> findTimeseries(StatsFilter filter, TimeseriesBucket bucket);
+}
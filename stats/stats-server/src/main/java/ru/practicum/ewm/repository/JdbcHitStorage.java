@@ -0,0 +1,90 @@
+package ru.practicum.ewm.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import ru.practicum.ewm.ViewStatsDto;
+import ru.practicum.ewm.core.exception.ConditionsException;
+import ru.practicum.ewm.filter.StatsFilter;
+import ru.practicum.ewm.filter.TimeseriesBucket;
+import ru.practicum.ewm.model.EndpointHit;
+import ru.practicum.ewm.model.TimeseriesPoint;
+import ru.practicum.ewm.repository.archive.HitArchive;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.function.Consumer;
+
+@Component
+@Profile("!" + HitStorage.SEGMENTS_PROFILE)
+@RequiredArgsConstructor
+public class JdbcHitStorage implements HitStorage {
+
+    private final EndpointHitRepository repository;
+    private final EndpointHitRollupRepository rollupRepository;
+    private final EndpointHitCompactionRepository compactionRepository;
+    private final HitArchive archive;
+
+    // точный подсчёт с архивом держит в памяти все различные ip интервала, поэтому интервал ограничен
+    @Value("${stats.archive.max-exact-range:31d}")
+    private Duration maxExactRange;
+
+    @Override
+    @Transactional
+    public void saveBatch(List<EndpointHit> hits) {
+        repository.saveBatch(hits);
+    }
+
+    @Override
+    public List<ViewStatsDto> findStats(StatsFilter filter) throws ConditionsException {
+        if (!filter.getUnique()) {
+            return rollupRepository.findStats(filter);
+        }
+        if (Boolean.TRUE.equals(filter.getExact())) {
+            LocalDateTime rawFrom = compactionRepository.rawFrom();
+            if (rawFrom == null || !filter.getStart().isBefore(rawFrom)) {
+                return repository.findStatsByUnique(filter);
+            }
+            checkArchiveCovers(filter, rawFrom);
+            return repository.findStatsByUniqueWithArchive(filter, rawFrom);
+        }
+        return rollupRepository.findUniqueStats(filter);
+    }
+
+    // оценка по скетчам и точный подсчёт с архивом считаются в памяти целиком, остальное читается курсором
+    @Override
+    public void streamStats(StatsFilter filter, Consumer<ViewStatsDto> sink) throws ConditionsException {
+        if (!filter.getUnique()) {
+            rollupRepository.streamStats(filter, sink);
+            return;
+        }
+        LocalDateTime rawFrom = compactionRepository.rawFrom();
+        if (Boolean.TRUE.equals(filter.getExact()) && (rawFrom == null || !filter.getStart().isBefore(rawFrom))) {
+            repository.streamStatsByUnique(filter, sink);
+        } else {
+            findStats(filter).forEach(sink);
+        }
+    }
+
+    @Override
+    public List<TimeseriesPoint> findTimeseries(StatsFilter filter, TimeseriesBucket bucket) {
+        return rollupRepository.findTimeseries(filter, bucket);
+    }
+
+    // точный подсчёт до границы сырых hit-ов возможен, только если все они от начала запроса не удалены,
+    // а выгружены в архив. Иначе exact=true отклоняется: оценку по скетчам клиент запрашивает сам, без exact
+    private void checkArchiveCovers(StatsFilter filter, LocalDateTime rawFrom) throws ConditionsException {
+        Duration range = Duration.between(filter.getStart(), filter.getEnd());
+        if (range.compareTo(maxExactRange) > 0) {
+            throw new ConditionsException(("Точный подсчёт уникальных ip по архиву ограничен интервалом %s "
+                    + "(stats.archive.max-exact-range), запрошено %s").formatted(maxExactRange, range));
+        }
+        if (!archive.covers(filter.getStart(), rawFrom)) {
+            throw new ConditionsException(("Точный подсчёт уникальных ip недоступен: hit-ы с %s до %s удалены "
+                    + "из endpoint_hits и не выгружены в архив").formatted(filter.getStart(), rawFrom));
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package ru.practicum.ewm.repository;
+
+// запись пакета прервалась: первые saved hit-ов уже в хранилище, остальные не записаны
+public class PartiallySavedException extends RuntimeException {
+    private final int saved;
+
+    public PartiallySavedException(int saved, Throwable cause) {
+        super("Записано %d hit пакета: %s".formatted(saved, cause.getMessage()), cause);
+        this.saved = saved;
+    }
+
+    public int getSaved() {
+        return saved;
+    }
+}
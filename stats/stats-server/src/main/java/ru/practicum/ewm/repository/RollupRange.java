@@ -0,0 +1,55 @@
+package ru.practicum.ewm.repository;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * Разбиение интервала [start, end] на части для чтения из агрегатов:
+ * сырые hit-ы [start, hourFrom) и [hourTo, end], часовые бакеты [hourFrom, dayFrom) и [dayTo, hourTo),
+ * дневные бакеты [dayFrom, dayTo). Пустые части вырождаются в интервалы нулевой длины.
+ */
+public record RollupRange(LocalDateTime start,
+                          LocalDateTime hourFrom,
+                          LocalDateTime dayFrom,
+                          LocalDateTime dayTo,
+                          LocalDateTime hourTo,
+                          LocalDateTime end) {
+
+    public static RollupRange of(LocalDateTime start, LocalDateTime end) {
+        return of(start, end, ChronoUnit.DAYS);
+    }
+
+    // coarsest - самый крупный агрегат, который можно использовать: DAYS, HOURS или MINUTES (только сырые hit-ы)
+    public static RollupRange of(LocalDateTime start, LocalDateTime end, ChronoUnit coarsest) {
+        if (coarsest.compareTo(ChronoUnit.HOURS) < 0) {
+            return new RollupRange(start, end, end, end, end, end);
+        }
+        LocalDateTime hourFrom = ceil(start, ChronoUnit.HOURS);
+        LocalDateTime hourTo = end.truncatedTo(ChronoUnit.HOURS);
+        if (!hourFrom.isBefore(hourTo)) {
+            return new RollupRange(start, end, end, end, end, end);
+        }
+        LocalDateTime dayFrom = ceil(hourFrom, ChronoUnit.DAYS);
+        LocalDateTime dayTo = hourTo.truncatedTo(ChronoUnit.DAYS);
+        if (coarsest == ChronoUnit.HOURS || !dayFrom.isBefore(dayTo)) {
+            return new RollupRange(start, hourFrom, hourTo, hourTo, hourTo, end);
+        }
+        return new RollupRange(start, hourFrom, dayFrom, dayTo, hourTo, end);
+    }
+
+    // до rawFrom сырые hit-ы свёрнуты в агрегаты (см. EndpointHitCompactionRepository), поэтому неполные
+    // крайние часы из этой части берутся часовыми бакетами целиком. null - сырые hit-ы хранятся всегда
+    public static RollupRange of(LocalDateTime start, LocalDateTime end, ChronoUnit coarsest, LocalDateTime rawFrom) {
+        if (rawFrom == null || coarsest.compareTo(ChronoUnit.HOURS) < 0 || !start.isBefore(rawFrom)) {
+            return of(start, end, coarsest);
+        }
+        LocalDateTime hourEnd = end.isBefore(rawFrom) ? ceil(end, ChronoUnit.HOURS) : end;
+        RollupRange range = of(start.truncatedTo(ChronoUnit.HOURS), hourEnd, coarsest);
+        return new RollupRange(range.start(), range.hourFrom(), range.dayFrom(), range.dayTo(), range.hourTo(), end);
+    }
+
+    private static LocalDateTime ceil(LocalDateTime value, ChronoUnit unit) {
+        LocalDateTime truncated = value.truncatedTo(unit);
+        return truncated.equals(value) ? value : truncated.plus(1, unit);
+    }
+}
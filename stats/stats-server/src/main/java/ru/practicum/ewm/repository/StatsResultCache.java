@@ -0,0 +1,130 @@
+package ru.practicum.ewm.repository;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.practicum.ewm.filter.StatsFilter;
+import ru.practicum.ewm.model.EncodedHit;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+// LRU-кэш частичных агрегатов по полностью закрытым часам запроса; открытый час и неполные края
+// всегда досчитываются заново. Опоздавшие hit-ы сбрасывают записи только на экземпляре, который их записал:
+// часы моложе settle-time не кэшируются, а записи живут не дольше ttl, чем и ограничено расхождение экземпляров
+@Component
+@Profile("!" + HitStorage.SEGMENTS_PROFILE)
+public class StatsResultCache {
+
+    private final boolean enabled;
+    private final int maxUris;
+    private final long ttlNanos;
+    private final Duration settleTime;
+    private final Map<Key, Entry> entries;
+    // меняется при каждой инвалидации: результат, посчитанный до неё, в кэш уже не кладётся
+    private final AtomicLong generation = new AtomicLong();
+
+    public StatsResultCache(@Value("${stats.cache.enabled:true}") boolean enabled,
+                            @Value("${stats.cache.max-entries:10000}") int maxEntries,
+                            @Value("${stats.cache.max-uris:1000}") int maxUris,
+                            @Value("${stats.cache.ttl:10m}") Duration ttl,
+                            @Value("${stats.cache.settle-time:1h}") Duration settleTime) {
+        this.enabled = enabled;
+        this.maxUris = maxUris;
+        this.ttlNanos = ttl.toNanos();
+        this.settleTime = settleTime;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    // кэшируются только запросы страниц со списком конкретных uri: размер записи ограничен их числом
+    public boolean accepts(StatsFilter filter) {
+        return enabled
+                && filter.getUris() != null
+                && !filter.getUris().isEmpty()
+                && filter.getUris().size() <= maxUris
+                && filter.getUris().stream().noneMatch(uri -> uri.indexOf('*') >= 0)
+                && (filter.getPrefix() == null || filter.getPrefix().isEmpty());
+    }
+
+    // часы до этой границы кэшируются: hit-ы в них приходят уже только с опозданием больше settle-time
+    public LocalDateTime cacheableBefore() {
+        return LocalDateTime.now().minus(settleTime).truncatedTo(ChronoUnit.HOURS);
+    }
+
+    public Key key(StatsFilter filter, LocalDateTime hourFrom, LocalDateTime hourTo) {
+        return new Key(filter.getUris().stream().distinct().sorted().toList(),
+                Boolean.TRUE.equals(filter.getUnique()), hourFrom, hourTo);
+    }
+
+    @SuppressWarnings("unchecked")
+    public <V> V get(Key key, Supplier<V> loader) {
+        synchronized (entries) {
+            Entry cached = entries.get(key);
+            if (cached != null && System.nanoTime() - cached.loadedAt() < ttlNanos) {
+                return (V) cached.value();
+            }
+        }
+        long observed = generation.get();
+        V value = loader.get();
+        synchronized (entries) {
+            if (generation.get() == observed) {
+                entries.put(key, new Entry(value, System.nanoTime()));
+            }
+        }
+        return value;
+    }
+
+    // hit-ы после cacheableBefore() не попадают ни в одну запись: hourTo записи не позже этой границы
+    public void invalidateAfterCommit(List<EncodedHit> hits) {
+        if (!enabled || hits.isEmpty()) {
+            return;
+        }
+        LocalDateTime from = hits.getFirst().created();
+        LocalDateTime to = from;
+        for (EncodedHit hit : hits) {
+            from = hit.created().isBefore(from) ? hit.created() : from;
+            to = hit.created().isAfter(to) ? hit.created() : to;
+        }
+        if (!from.isBefore(cacheableBefore())) {
+            return;
+        }
+        LocalDateTime lateFrom = from;
+        LocalDateTime lateTo = to;
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            invalidate(lateFrom, lateTo);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                invalidate(lateFrom, lateTo);
+            }
+        });
+    }
+
+    void invalidate(LocalDateTime from, LocalDateTime to) {
+        generation.incrementAndGet();
+        synchronized (entries) {
+            entries.keySet().removeIf(key -> !key.hourFrom().isAfter(to) && from.isBefore(key.hourTo()));
+        }
+    }
+
+    private record Entry(Object value, long loadedAt) {
+    }
+
+    public record Key(List<String> uris, boolean unique, LocalDateTime hourFrom, LocalDateTime hourTo) {
+    }
+}
@@ -0,0 +1,236 @@
+package ru.practicum.ewm.repository.archive;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+// неизменяемый файл архива: строки, упорядоченные по времени, разбиты на блоки, внутри блока каждая колонка
+// (created, app_id, uri_id, ip) сжата отдельно. В конце файла - индекс блоков с min/max created,
+// по которому блоки вне запрошенного интервала пропускаются без чтения.
+// [блок]* [число блоков int][rows int, min long, max long, offset long, длины 4 колонок int]* [offset индекса long][MAGIC int]
+final class ArchiveSegment {
+
+    static final int MAGIC = 0x48434131;
+    private static final int COLUMNS = 4;
+    private static final int TAIL_SIZE = Long.BYTES + Integer.BYTES;
+
+    @FunctionalInterface
+    interface RecordConsumer {
+        void accept(int appId, long uriId, byte[] ip, long created);
+    }
+
+    private record Block(int rows, long minCreated, long maxCreated, long offset, int[] lengths) {
+    }
+
+    private final Path path;
+    private final List<Block> blocks;
+
+    private ArchiveSegment(Path path, List<Block> blocks) {
+        this.path = path;
+        this.blocks = blocks;
+    }
+
+    static ArchiveSegment open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer tail = read(channel, channel.size() - TAIL_SIZE, TAIL_SIZE);
+            long indexOffset = tail.getLong();
+            if (tail.getInt() != MAGIC) {
+                throw new IOException("Не архивный сегмент: " + path);
+            }
+            ByteBuffer index = read(channel, indexOffset, (int) (channel.size() - TAIL_SIZE - indexOffset));
+            int count = index.getInt();
+            List<Block> blocks = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                int rows = index.getInt();
+                long min = index.getLong();
+                long max = index.getLong();
+                long offset = index.getLong();
+                int[] lengths = new int[COLUMNS];
+                for (int c = 0; c < COLUMNS; c++) {
+                    lengths[c] = index.getInt();
+                }
+                blocks.add(new Block(rows, min, max, offset, lengths));
+            }
+            return new ArchiveSegment(path, blocks);
+        }
+    }
+
+    Path path() {
+        return path;
+    }
+
+    // from/to - микросекунды, [from, to); возвращает число просмотренных записей в прочитанных блоках
+    int scan(long from, long to, RecordConsumer consumer) throws IOException {
+        int visited = 0;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            for (Block block : blocks) {
+                if (block.maxCreated() < from || block.minCreated() >= to) {
+                    continue;
+                }
+                visited += block.rows();
+                ByteBuffer data = read(channel, block.offset(), Arrays.stream(block.lengths()).sum());
+                DataInputStream[] columns = new DataInputStream[COLUMNS];
+                int offset = 0;
+                for (int c = 0; c < COLUMNS; c++) {
+                    columns[c] = new DataInputStream(new InflaterInputStream(
+                            new ByteArrayInputStream(data.array(), offset, block.lengths()[c])));
+                    offset += block.lengths()[c];
+                }
+                long created = 0;
+                for (int i = 0; i < block.rows(); i++) {
+                    created += readVarLong(columns[0]);
+                    int appId = (int) readVarLong(columns[1]);
+                    long uriId = readVarLong(columns[2]);
+                    byte[] ip = new byte[columns[3].readUnsignedByte()];
+                    columns[3].readFully(ip);
+                    if (created >= from && created < to) {
+                        consumer.accept(appId, uriId, ip, created);
+                    }
+                }
+            }
+        }
+        return visited;
+    }
+
+    static long toMicros(LocalDateTime value) {
+        return value.toEpochSecond(ZoneOffset.UTC) * 1_000_000 + value.getNano() / 1_000;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Архивный сегмент обрезан");
+            }
+        }
+        return buffer.flip();
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    // записи должны приходить в порядке created: время в блоке хранится разностями с предыдущей записью
+    static final class Writer implements AutoCloseable {
+
+        private final FileChannel channel;
+        private final int blockRows;
+        private final List<Block> blocks = new ArrayList<>();
+        private final ByteArrayOutputStream[] buffers = new ByteArrayOutputStream[COLUMNS];
+        private final DataOutputStream[] columns = new DataOutputStream[COLUMNS];
+        private int rows;
+        private long minCreated;
+        private long previous;
+        private long written;
+
+        Writer(Path path, int blockRows) throws IOException {
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            this.blockRows = blockRows;
+            for (int c = 0; c < COLUMNS; c++) {
+                buffers[c] = new ByteArrayOutputStream();
+                columns[c] = new DataOutputStream(buffers[c]);
+            }
+        }
+
+        long written() {
+            return written;
+        }
+
+        void append(int appId, long uriId, byte[] ip, long created) throws IOException {
+            if (rows == 0) {
+                minCreated = created;
+                previous = 0;
+            }
+            writeVarLong(columns[0], created - previous);
+            writeVarLong(columns[1], appId);
+            writeVarLong(columns[2], uriId);
+            columns[3].writeByte(ip.length);
+            columns[3].write(ip);
+            previous = created;
+            rows++;
+            written++;
+            if (rows == blockRows) {
+                flushBlock();
+            }
+        }
+
+        // дописывает индекс и сбрасывает файл на диск
+        void finish() throws IOException {
+            if (rows > 0) {
+                flushBlock();
+            }
+            long indexOffset = channel.position();
+            ByteBuffer index = ByteBuffer.allocate(Integer.BYTES
+                    + blocks.size() * (Integer.BYTES + 3 * Long.BYTES + COLUMNS * Integer.BYTES) + TAIL_SIZE);
+            index.putInt(blocks.size());
+            for (Block block : blocks) {
+                index.putInt(block.rows()).putLong(block.minCreated()).putLong(block.maxCreated()).putLong(block.offset());
+                for (int length : block.lengths()) {
+                    index.putInt(length);
+                }
+            }
+            index.putLong(indexOffset).putInt(MAGIC);
+            write(index.flip());
+            channel.force(true);
+        }
+
+        private void flushBlock() throws IOException {
+            long offset = channel.position();
+            int[] lengths = new int[COLUMNS];
+            for (int c = 0; c < COLUMNS; c++) {
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+                try (DeflaterOutputStream out = new DeflaterOutputStream(compressed, deflater)) {
+                    buffers[c].writeTo(out);
+                } finally {
+                    deflater.end();
+                }
+                lengths[c] = compressed.size();
+                write(ByteBuffer.wrap(compressed.toByteArray()));
+                buffers[c].reset();
+            }
+            blocks.add(new Block(rows, minCreated, previous, offset, lengths));
+            rows = 0;
+        }
+
+        private void write(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
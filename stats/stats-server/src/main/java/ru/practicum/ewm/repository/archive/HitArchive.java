@@ -0,0 +1,186 @@
+package ru.practicum.ewm.repository.archive;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+import ru.practicum.ewm.core.metrics.StatsMetrics;
+import ru.practicum.ewm.model.EncodedHit;
+import ru.practicum.ewm.repository.HitStorage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+// сырые hit-ы, выгруженные из endpoint_hits в сжатые колоночные сегменты на локальном диске.
+// Имя файла несёт интервал [from, to), за который выгружены строки: по нему отбираются файлы для чтения
+// и считается граница архива
+@Slf4j
+@Component
+@Profile("!" + HitStorage.SEGMENTS_PROFILE)
+public class HitArchive {
+
+    private static final DateTimeFormatter NAME_TIME = DateTimeFormatter.ofPattern("yyyyMMddHHmm");
+    private static final Pattern NAME = Pattern.compile("hits-(\\d{12})-(\\d{12})-(\\d+)\\.hca");
+
+    private record Entry(LocalDateTime from, LocalDateTime to, ArchiveSegment segment) {
+    }
+
+    private final StatsMetrics metrics;
+    private final Path directory;
+    private final int blockRows;
+    private final List<Entry> entries = new CopyOnWriteArrayList<>();
+
+    public HitArchive(StatsMetrics metrics,
+                      @Value("${stats.archive.directory:data/archive}") Path directory,
+                      @Value("${stats.archive.block-rows:65536}") int blockRows) {
+        this.metrics = metrics;
+        this.directory = directory;
+        this.blockRows = blockRows;
+        load();
+    }
+
+    // файлы .tmp остаются от выгрузки, прерванной до публикации: их строки ещё лежат в endpoint_hits
+    private void load() {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path path : files.sorted().toList()) {
+                Matcher matcher = NAME.matcher(path.getFileName().toString());
+                if (path.getFileName().toString().endsWith(".tmp")) {
+                    Files.delete(path);
+                } else if (matcher.matches()) {
+                    entries.add(new Entry(LocalDateTime.parse(matcher.group(1), NAME_TIME),
+                            LocalDateTime.parse(matcher.group(2), NAME_TIME), ArchiveSegment.open(path)));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        log.info("Архив hit-ов {}: {} файлов", directory, entries.size());
+    }
+
+    // конец последнего выгруженного интервала: раньше него сырых hit-ов в endpoint_hits нет. null - архив пуст
+    public LocalDateTime archivedBefore() {
+        return entries.stream().map(Entry::to).max(LocalDateTime::compareTo).orElse(null);
+    }
+
+    // выгруженные интервалы без разрывов покрывают [from, to). Разрыв бывает, если строки удалены без выгрузки
+    // (сжатие DELETE, срок хранения секций) или выгрузка прервалась: такие hit-ы в архиве не найти
+    public boolean covers(LocalDateTime from, LocalDateTime to) {
+        LocalDateTime reached = from;
+        for (Entry entry : entries.stream().sorted(Comparator.comparing(Entry::from)).toList()) {
+            if (!reached.isBefore(to) || entry.from().isAfter(reached)) {
+                break;
+            }
+            if (entry.to().isAfter(reached)) {
+                reached = entry.to();
+            }
+        }
+        return !reached.isBefore(to);
+    }
+
+    // выгрузка интервала [from, to): строки пишутся во временный файл и становятся видны только после publish()
+    public Export export(LocalDateTime from, LocalDateTime to) {
+        try {
+            Files.createDirectories(directory);
+            String name = "hits-%s-%s-%d.hca".formatted(from.format(NAME_TIME), to.format(NAME_TIME),
+                    System.currentTimeMillis());
+            return new Export(from, to, directory.resolve(name));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // [from, to); записи сегмента упорядочены по времени, поэтому блоки вне интервала не распаковываются
+    public void scan(LocalDateTime from, LocalDateTime to, Consumer<EncodedHit> consumer) {
+        long fromMicros = ArchiveSegment.toMicros(from);
+        long toMicros = ArchiveSegment.toMicros(to);
+        int visited = 0;
+        for (Entry entry : entries) {
+            if (!entry.from().isBefore(to) || !entry.to().isAfter(from)) {
+                continue;
+            }
+            try {
+                visited += entry.segment().scan(fromMicros, toMicros, (appId, uriId, ip, created) ->
+                        consumer.accept(new EncodedHit(appId, uriId, ip, LocalDateTime.ofEpochSecond(
+                                Math.floorDiv(created, 1_000_000), (int) Math.floorMod(created, 1_000_000) * 1_000,
+                                ZoneOffset.UTC))));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        metrics.scanned(StatsMetrics.ARCHIVE, visited);
+    }
+
+    public final class Export implements AutoCloseable {
+
+        private final LocalDateTime from;
+        private final LocalDateTime to;
+        private final Path path;
+        private final Path temporary;
+        private final ArchiveSegment.Writer writer;
+        private boolean published;
+
+        private Export(LocalDateTime from, LocalDateTime to, Path path) throws IOException {
+            this.from = from;
+            this.to = to;
+            this.path = path;
+            this.temporary = path.resolveSibling(path.getFileName() + ".tmp");
+            this.writer = new ArchiveSegment.Writer(temporary, blockRows);
+        }
+
+        // строки должны приходить в порядке created
+        public void append(EncodedHit hit) {
+            try {
+                writer.append(hit.appId(), hit.uriId(), hit.ip(), ArchiveSegment.toMicros(hit.created()));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        public long written() {
+            return writer.written();
+        }
+
+        // после publish файл переживает сбой: если строки затем не удалились из endpoint_hits, следующая выгрузка
+        // запишет их повторно. Точный подсчёт уникальных посетителей к таким повторам нечувствителен
+        public void publish() {
+            try {
+                writer.finish();
+                writer.close();
+                Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE);
+                entries.add(new Entry(from, to, ArchiveSegment.open(path)));
+                published = true;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void close() {
+            if (published) {
+                return;
+            }
+            try {
+                writer.close();
+                Files.deleteIfExists(temporary);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
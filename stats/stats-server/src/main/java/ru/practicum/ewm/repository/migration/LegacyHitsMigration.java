@@ -0,0 +1,227 @@
+package ru.practicum.ewm.repository.migration;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.ewm.model.IpAddresses;
+import ru.practicum.ewm.repository.HitStorage;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+// перенос endpoint_hits первой версии (app, uri и ip строками) в схему со словарями stats_apps/stats_uris.
+// Prepare до schema*.sql переименовывает старую таблицу в endpoint_hits_v1, чтобы скрипты создали новую;
+// Complete после них переносит строки, строит агрегаты и удаляет endpoint_hits_v1 одной транзакцией.
+// Прерванный перенос повторяется при следующем запуске: endpoint_hits_v1 остаётся до успешного коммита.
+// На PostgreSQL так же переводится в секционированную несекционированная endpoint_hits новой схемы: Prepare
+// переименовывает её в endpoint_hits_unpartitioned, schema-postgresql.sql создаёт секционированную, Complete
+// копирует строки с прежними id (в секцию по умолчанию, месяцы из неё выносит EndpointHitPartitionJob).
+// Порядок относительно скриптов задаёт LegacyHitsMigrationDetector. JdbcTemplate строится здесь же:
+// бин JdbcTemplate сам ждёт инициализации базы
+@Slf4j
+public final class LegacyHitsMigration {
+
+    public static final String LEGACY_TABLE = "endpoint_hits_v1";
+
+    public static final String UNPARTITIONED_TABLE = "endpoint_hits_unpartitioned";
+
+    private static final int CHUNK_SIZE = 1000;
+
+    private static final String INSERT_APPS_SQL = "INSERT INTO stats_apps (name) "
+            + "SELECT DISTINCT app FROM endpoint_hits_v1 h "
+            + "WHERE NOT EXISTS (SELECT 1 FROM stats_apps a WHERE a.name = h.app)";
+
+    private static final String INSERT_URIS_SQL = "INSERT INTO stats_uris (uri) "
+            + "SELECT DISTINCT uri FROM endpoint_hits_v1 h "
+            + "WHERE NOT EXISTS (SELECT 1 FROM stats_uris u WHERE u.uri = h.uri)";
+
+    private static final String LEGACY_HITS_SQL = "SELECT h.id, a.id AS app_id, u.id AS uri_id, h.ip, h.created "
+            + "FROM endpoint_hits_v1 h "
+            + "JOIN stats_apps a ON a.name = h.app "
+            + "JOIN stats_uris u ON u.uri = h.uri "
+            + "WHERE h.id > ? ORDER BY h.id LIMIT " + CHUNK_SIZE;
+
+    private static final String INSERT_HIT_SQL = "INSERT INTO endpoint_hits (app_id, uri_id, ip, created) VALUES (?, ?, ?, ?)";
+
+    // те же запросы, что первичное заполнение в schema.sql, но уже по перенесённым hit-ам;
+    // скетчи visitors досчитывает RollupBackfillRunner
+    private static final String HOURLY_ROLLUP_SQL = "INSERT INTO endpoint_hits_hourly (app_id, uri_id, bucket, hits) "
+            + "SELECT app_id, uri_id, DATE_TRUNC('hour', created), COUNT(*) FROM endpoint_hits "
+            + "WHERE NOT EXISTS (SELECT 1 FROM endpoint_hits_hourly) "
+            + "GROUP BY app_id, uri_id, DATE_TRUNC('hour', created)";
+
+    private static final String DAILY_ROLLUP_SQL = "INSERT INTO endpoint_hits_daily (app_id, uri_id, bucket, hits) "
+            + "SELECT app_id, uri_id, DATE_TRUNC('day', created), COUNT(*) FROM endpoint_hits "
+            + "WHERE NOT EXISTS (SELECT 1 FROM endpoint_hits_daily) "
+            + "GROUP BY app_id, uri_id, DATE_TRUNC('day', created)";
+
+    private static final String IS_UNPARTITIONED_SQL = "SELECT EXISTS (SELECT 1 FROM pg_class "
+            + "WHERE oid = to_regclass('endpoint_hits') AND relkind = 'r')";
+
+    private static final String COPY_UNPARTITIONED_SQL = "INSERT INTO endpoint_hits (id, app_id, uri_id, ip, created) "
+            + "SELECT id, app_id, uri_id, ip, created FROM " + UNPARTITIONED_TABLE;
+
+    private static final String RESET_SEQUENCE_SQL = "SELECT setval('endpoint_hits_id_seq', "
+            + "(SELECT COALESCE(MAX(id), 0) + 1 FROM endpoint_hits), false)";
+
+    private LegacyHitsMigration() {
+    }
+
+    @Component
+    @Profile("!" + HitStorage.SEGMENTS_PROFILE)
+    public static class Prepare implements InitializingBean {
+
+        private final JdbcTemplate jdbcTemplate;
+
+        @Autowired
+        public Prepare(DataSource dataSource) {
+            this(new JdbcTemplate(dataSource));
+        }
+
+        Prepare(JdbcTemplate jdbcTemplate) {
+            this.jdbcTemplate = jdbcTemplate;
+        }
+
+        @Override
+        public void afterPropertiesSet() {
+            Set<String> columns = columns(jdbcTemplate, "endpoint_hits");
+            if (columns.contains("app")) {
+                renameLegacy();
+            } else if (columns.contains("app_id") && isPostgres(jdbcTemplate)
+                    && Boolean.TRUE.equals(jdbcTemplate.queryForObject(IS_UNPARTITIONED_SQL, Boolean.class))) {
+                renameUnpartitioned();
+            }
+        }
+
+        private void renameLegacy() {
+            log.info("endpoint_hits в формате первой версии: переименовывается в {} для переноса", LEGACY_TABLE);
+            // имена индексов, ограничений и последовательностей общие для схемы: освобождаются для новой таблицы
+            jdbcTemplate.execute("ALTER TABLE endpoint_hits RENAME TO " + LEGACY_TABLE);
+            jdbcTemplate.execute("DROP INDEX IF EXISTS idx_endpoint_hits_ip");
+            jdbcTemplate.execute("DROP INDEX IF EXISTS idx_endpoint_hits_timestamp");
+            jdbcTemplate.execute("ALTER TABLE %1$s RENAME CONSTRAINT pk_endpoint_hits TO pk_%1$s".formatted(LEGACY_TABLE));
+            if (isPostgres(jdbcTemplate)) {
+                jdbcTemplate.execute("ALTER SEQUENCE IF EXISTS endpoint_hits_id_seq RENAME TO %s_id_seq"
+                        .formatted(LEGACY_TABLE));
+            }
+        }
+
+        // CREATE ... IF NOT EXISTS в schema*.sql пропустил бы индексы и последовательность с занятыми именами
+        private void renameUnpartitioned() {
+            log.info("endpoint_hits без секций: переименовывается в {} для переноса в секционированную таблицу",
+                    UNPARTITIONED_TABLE);
+            jdbcTemplate.execute("ALTER TABLE endpoint_hits RENAME TO " + UNPARTITIONED_TABLE);
+            jdbcTemplate.execute("DROP INDEX IF EXISTS idx_endpoint_hits_timestamp");
+            jdbcTemplate.execute("DROP INDEX IF EXISTS idx_endpoint_hits_uri_created");
+            jdbcTemplate.execute("ALTER TABLE %1$s RENAME CONSTRAINT pk_endpoint_hits TO pk_%1$s"
+                    .formatted(UNPARTITIONED_TABLE));
+            jdbcTemplate.execute("ALTER SEQUENCE IF EXISTS endpoint_hits_id_seq RENAME TO %s_id_seq"
+                    .formatted(UNPARTITIONED_TABLE));
+        }
+    }
+
+    @Component
+    @Profile("!" + HitStorage.SEGMENTS_PROFILE)
+    public static class Complete implements InitializingBean {
+
+        private final JdbcTemplate jdbcTemplate;
+        private final TransactionTemplate transactionTemplate;
+
+        @Autowired
+        public Complete(DataSource dataSource) {
+            this(new JdbcTemplate(dataSource), new TransactionTemplate(new DataSourceTransactionManager(dataSource)));
+        }
+
+        Complete(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate) {
+            this.jdbcTemplate = jdbcTemplate;
+            this.transactionTemplate = transactionTemplate;
+        }
+
+        @Override
+        public void afterPropertiesSet() {
+            if (!columns(jdbcTemplate, LEGACY_TABLE).isEmpty()) {
+                long[] counts = transactionTemplate.execute(status -> migrate());
+                log.info("Перенесено hit-ов из {}: {}, пропущено с некорректным ip: {}", LEGACY_TABLE, counts[0],
+                        counts[1]);
+            }
+            if (!columns(jdbcTemplate, UNPARTITIONED_TABLE).isEmpty()) {
+                Integer moved = transactionTemplate.execute(status -> partition());
+                log.info("Перенесено hit-ов из {} в секционированную endpoint_hits: {}", UNPARTITIONED_TABLE, moved);
+            }
+        }
+
+        private int partition() {
+            int moved = jdbcTemplate.update(COPY_UNPARTITIONED_SQL);
+            jdbcTemplate.queryForObject(RESET_SEQUENCE_SQL, Long.class);
+            jdbcTemplate.update(HOURLY_ROLLUP_SQL);
+            jdbcTemplate.update(DAILY_ROLLUP_SQL);
+            jdbcTemplate.execute("DROP TABLE " + UNPARTITIONED_TABLE);
+            return moved;
+        }
+
+        private long[] migrate() {
+            jdbcTemplate.update(INSERT_APPS_SQL);
+            jdbcTemplate.update(INSERT_URIS_SQL);
+            long moved = 0;
+            long skipped = 0;
+            long lastId = 0;
+            while (true) {
+                List<Object[]> rows = new ArrayList<>(CHUNK_SIZE);
+                long[] chunkLastId = {lastId};
+                int[] invalid = {0};
+                jdbcTemplate.query(LEGACY_HITS_SQL, rs -> {
+                    chunkLastId[0] = rs.getLong("id");
+                    byte[] ip;
+                    try {
+                        ip = IpAddresses.encode(rs.getString("ip"));
+                    } catch (IllegalArgumentException e) {
+                        invalid[0]++;
+                        return;
+                    }
+                    rows.add(new Object[]{rs.getInt("app_id"), rs.getLong("uri_id"), ip, rs.getTimestamp("created")});
+                }, lastId);
+                if (chunkLastId[0] == lastId) {
+                    break;
+                }
+                lastId = chunkLastId[0];
+                jdbcTemplate.batchUpdate(INSERT_HIT_SQL, rows);
+                moved += rows.size();
+                skipped += invalid[0];
+            }
+            jdbcTemplate.update(HOURLY_ROLLUP_SQL);
+            jdbcTemplate.update(DAILY_ROLLUP_SQL);
+            jdbcTemplate.execute("DROP TABLE " + LEGACY_TABLE);
+            return new long[]{moved, skipped};
+        }
+    }
+
+    // имена столбцов в нижнем регистре; пустое множество - таблицы нет
+    static Set<String> columns(JdbcTemplate jdbcTemplate, String table) {
+        return jdbcTemplate.execute((ConnectionCallback<Set<String>>) connection -> {
+            Set<String> columns = new HashSet<>();
+            for (String name : List.of(table, table.toUpperCase(Locale.ROOT))) {
+                try (var rs = connection.getMetaData().getColumns(null, connection.getSchema(), name, null)) {
+                    while (rs.next()) {
+                        columns.add(rs.getString("COLUMN_NAME").toLowerCase(Locale.ROOT));
+                    }
+                }
+            }
+            return columns;
+        });
+    }
+
+    static boolean isPostgres(JdbcTemplate jdbcTemplate) {
+        return Boolean.TRUE.equals(jdbcTemplate.execute((ConnectionCallback<Boolean>) connection ->
+                "PostgreSQL".equalsIgnoreCase(connection.getMetaData().getDatabaseProductName())));
+    }
+}
@@ -0,0 +1,41 @@
+package ru.practicum.ewm.repository.migration;
+
+import org.springframework.boot.sql.init.dependency.AbstractBeansOfTypeDatabaseInitializerDetector;
+import org.springframework.core.Ordered;
+
+import java.util.Set;
+
+// этапы LegacyHitsMigration - инициализаторы базы: Spring Boot выполняет их пакетами в порядке детекторов,
+// то есть до и после schema*.sql (DataSourceScriptDatabaseInitializerDetector), и до всех бинов,
+// зависящих от инициализации базы
+public final class LegacyHitsMigrationDetector {
+
+    private LegacyHitsMigrationDetector() {
+    }
+
+    public static class Prepare extends AbstractBeansOfTypeDatabaseInitializerDetector {
+
+        @Override
+        protected Set<Class<?>> getDatabaseInitializerBeanTypes() {
+            return Set.of(LegacyHitsMigration.Prepare.class);
+        }
+
+        @Override
+        public int getOrder() {
+            return Ordered.HIGHEST_PRECEDENCE;
+        }
+    }
+
+    public static class Complete extends AbstractBeansOfTypeDatabaseInitializerDetector {
+
+        @Override
+        protected Set<Class<?>> getDatabaseInitializerBeanTypes() {
+            return Set.of(LegacyHitsMigration.Complete.class);
+        }
+
+        @Override
+        public int getOrder() {
+            return Ordered.LOWEST_PRECEDENCE;
+        }
+    }
+}
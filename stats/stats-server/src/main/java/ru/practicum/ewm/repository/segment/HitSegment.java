@@ -0,0 +1,129 @@
+package ru.practicum.ewm.repository.segment;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// файл сегмента фиксированного размера, отображённый в память; записи только дописываются в конец
+final class HitSegment implements AutoCloseable {
+
+    // [uri_id int][ip_id int][created long][app_id int]: app_id пишется последним,
+    // и ненулевой app_id отмечает полностью записанную запись (id в словаре начинаются с 1)
+    static final int RECORD_SIZE = 20;
+
+    @FunctionalInterface
+    interface RecordConsumer {
+        void accept(int appId, int uriId, int ipId, long created);
+    }
+
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+
+    // count публикуется после записи полей: читатель видит только целиком записанные записи
+    private volatile int count;
+    private volatile long minCreated = Long.MAX_VALUE;
+    private volatile long maxCreated = Long.MIN_VALUE;
+
+    private HitSegment(Path path, FileChannel channel, MappedByteBuffer buffer) {
+        this.path = path;
+        this.channel = channel;
+        this.buffer = buffer;
+        this.capacity = buffer.capacity() / RECORD_SIZE;
+    }
+
+    // существующий файл отображается в своём размере, новый создаётся размером size
+    static HitSegment open(Path path, long size) throws IOException {
+        boolean exists = Files.exists(path);
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            long length = exists ? channel.size() : size - size % RECORD_SIZE;
+            HitSegment segment = new HitSegment(path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, length));
+            segment.recover();
+            return segment;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private void recover() {
+        int recovered = 0;
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        while (recovered < capacity && buffer.getInt(recovered * RECORD_SIZE + 16) != 0) {
+            long created = buffer.getLong(recovered * RECORD_SIZE + 8);
+            min = Math.min(min, created);
+            max = Math.max(max, created);
+            recovered++;
+        }
+        minCreated = min;
+        maxCreated = max;
+        count = recovered;
+    }
+
+    Path path() {
+        return path;
+    }
+
+    int count() {
+        return count;
+    }
+
+    boolean isFull() {
+        return count == capacity;
+    }
+
+    // вызывается только одним писателем
+    boolean append(int appId, int uriId, int ipId, long created) {
+        int index = count;
+        if (index == capacity) {
+            return false;
+        }
+        int offset = index * RECORD_SIZE;
+        buffer.putInt(offset, uriId);
+        buffer.putInt(offset + 4, ipId);
+        buffer.putLong(offset + 8, created);
+        buffer.putInt(offset + 16, appId);
+        if (created < minCreated) {
+            minCreated = created;
+        }
+        if (created > maxCreated) {
+            maxCreated = created;
+        }
+        count = index + 1;
+        return true;
+    }
+
+    // записи сегмента не упорядочены по времени (опоздавшие hit-ы), поэтому по диапазону отсекаются только сегменты целиком
+    // возвращает число просмотренных записей: сегмент вне диапазона пропускается целиком
+    int scan(long from, long to, RecordConsumer consumer) {
+        int visible = count;
+        if (visible == 0 || maxCreated < from || minCreated > to) {
+            return 0;
+        }
+        for (int i = 0; i < visible; i++) {
+            int offset = i * RECORD_SIZE;
+            long created = buffer.getLong(offset + 8);
+            if (created >= from && created <= to) {
+                consumer.accept(buffer.getInt(offset + 16), buffer.getInt(offset), buffer.getInt(offset + 4), created);
+            }
+        }
+        return visible;
+    }
+
+    void force() {
+        buffer.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        force();
+        channel.close();
+    }
+}
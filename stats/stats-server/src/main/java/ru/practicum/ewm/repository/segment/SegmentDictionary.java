@@ -0,0 +1,261 @@
+package ru.practicum.ewm.repository.segment;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// словари app, uri и ip для записей сегментов: журнал [kind byte][id int][length int][utf-8],
+// новые записи дописываются в конец до записи hit-ов, которые на них ссылаются.
+// Новый id больше всех id из словаря и из сегментов (reserve): при fsync INTERVAL/NEVER сбой ОС может оставить
+// в сегментах записи, чьи записи словаря не попали на диск, и их id нельзя выдавать новым именам.
+// app и uri держатся в памяти целиком, ip - не больше stats.dictionary.cache-size (кэш очищается целиком,
+// как uri в HitDictionary). Промах по ip ищется в журнале; фильтр по хэшам всех ip журнала фиксированного
+// размера отсекает поиск для ip, которых в журнале точно нет
+@Slf4j
+final class SegmentDictionary implements AutoCloseable {
+
+    enum Kind {
+        APP,
+        URI,
+        IP
+    }
+
+    // 2^23 бит (1 МБ): ложных срабатываний мало, пока различных ip не больше нескольких миллионов
+    private static final int IP_FILTER_BITS = 1 << 23;
+
+    @FunctionalInterface
+    private interface EntryConsumer {
+        void accept(Kind kind, String name, int id);
+    }
+
+    private final Path path;
+    private final FileChannel channel;
+    private final int ipCacheSize;
+    private final long[] ipFilter = new long[IP_FILTER_BITS / Long.SIZE];
+    private final Map<Kind, Map<String, Integer>> ids = new ConcurrentHashMap<>();
+    // по id восстанавливаются только имена app и uri: ip в ответы не попадают
+    private final Map<Kind, Map<Integer, String>> names = new ConcurrentHashMap<>();
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private final DataOutputStream pendingOut = new DataOutputStream(pending);
+    private final int[] lastIds = new int[Kind.values().length];
+
+    private SegmentDictionary(Path path, FileChannel channel, int ipCacheSize) {
+        this.path = path;
+        this.channel = channel;
+        this.ipCacheSize = ipCacheSize;
+        for (Kind kind : Kind.values()) {
+            ids.put(kind, new ConcurrentHashMap<>());
+            names.put(kind, new ConcurrentHashMap<>());
+        }
+    }
+
+    static SegmentDictionary open(Path path, int ipCacheSize) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            SegmentDictionary dictionary = new SegmentDictionary(path, channel, ipCacheSize);
+            long valid = dictionary.load();
+            if (valid < channel.size()) {
+                log.warn("Словарь сегментов {}: отброшена недописанная запись, {} байт", path, channel.size() - valid);
+                channel.truncate(valid);
+            }
+            channel.position(valid);
+            return dictionary;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private long load() throws IOException {
+        return read(Channels.newInputStream(channel.position(0)), this::put);
+    }
+
+    // длина целиком прочитанных записей
+    private static long read(InputStream stream, EntryConsumer consumer) throws IOException {
+        long valid = 0;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+        Kind[] kinds = Kind.values();
+        while (true) {
+            try {
+                int kind = in.readByte();
+                int id = in.readInt();
+                int length = in.readInt();
+                if (kind < 0 || kind >= kinds.length || length < 0) {
+                    return valid;
+                }
+                byte[] value = in.readNBytes(length);
+                if (value.length < length) {
+                    return valid;
+                }
+                consumer.accept(kinds[kind], new String(value, StandardCharsets.UTF_8), id);
+                valid += 9 + length;
+            } catch (EOFException e) {
+                return valid;
+            }
+        }
+    }
+
+    Integer find(Kind kind, String name) {
+        return ids.get(kind).get(name);
+    }
+
+    String name(Kind kind, int id) {
+        return names.get(kind).get(id);
+    }
+
+    Map<Integer, String> names(Kind kind) {
+        return names.get(kind);
+    }
+
+    // только для app и uri: имена ip в памяти не хранятся
+    boolean contains(Kind kind, int id) {
+        return names.get(kind).containsKey(id);
+    }
+
+    // id, уже встречающийся в сегментах, не будет выдан новому имени
+    void reserve(Kind kind, int id) {
+        lastIds[kind.ordinal()] = Math.max(lastIds[kind.ordinal()], id);
+    }
+
+    // ip пакета, которых нет в кэше, ищутся в журнале одним проходом; вызывается только писателем
+    void resolveIps(Collection<String> ips) throws IOException {
+        Map<String, Integer> cache = ids.get(Kind.IP);
+        Set<String> missing = new HashSet<>();
+        for (String ip : ips) {
+            if (!cache.containsKey(ip) && mayContainIp(ip)) {
+                missing.add(ip);
+            }
+        }
+        if (!missing.isEmpty()) {
+            lookupIps(missing).forEach(this::cacheIp);
+        }
+    }
+
+    // вызывается только одним писателем; новая запись попадает в файл при flush()
+    int id(Kind kind, String name) {
+        Integer existing = ids.get(kind).get(name);
+        if (existing == null && kind == Kind.IP && mayContainIp(name)) {
+            try {
+                existing = lookupIps(Set.of(name)).get(name);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (existing != null) {
+                cacheIp(name, existing);
+            }
+        }
+        if (existing != null) {
+            return existing;
+        }
+        int id = lastIds[kind.ordinal()] + 1;
+        byte[] value = name.getBytes(StandardCharsets.UTF_8);
+        try {
+            pendingOut.writeByte(kind.ordinal());
+            pendingOut.writeInt(id);
+            pendingOut.writeInt(value.length);
+            pendingOut.write(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        put(kind, name, id);
+        return id;
+    }
+
+    void flush() throws IOException {
+        if (pending.size() == 0) {
+            return;
+        }
+        ByteBuffer bytes = ByteBuffer.wrap(pending.toByteArray());
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        pending.reset();
+    }
+
+    void force() throws IOException {
+        channel.force(false);
+    }
+
+    private void put(Kind kind, String name, int id) {
+        reserve(kind, id);
+        if (kind == Kind.IP) {
+            cacheIp(name, id);
+            markIp(name);
+            return;
+        }
+        ids.get(kind).put(name, id);
+        names.get(kind).put(id, name);
+    }
+
+    private void cacheIp(String ip, int id) {
+        Map<String, Integer> cache = ids.get(Kind.IP);
+        if (cache.size() >= ipCacheSize) {
+            cache.clear();
+        }
+        cache.put(ip, id);
+    }
+
+    // записанная часть журнала и ещё не сброшенные записи
+    private Map<String, Integer> lookupIps(Set<String> ips) throws IOException {
+        Map<String, Integer> found = new HashMap<>();
+        EntryConsumer consumer = (kind, name, id) -> {
+            if (kind == Kind.IP && ips.contains(name)) {
+                found.put(name, id);
+            }
+        };
+        try (FileChannel reader = FileChannel.open(path, StandardOpenOption.READ)) {
+            read(Channels.newInputStream(reader), consumer);
+        }
+        read(new ByteArrayInputStream(pending.toByteArray()), consumer);
+        return found;
+    }
+
+    private void markIp(String ip) {
+        for (int bit : filterBits(ip)) {
+            ipFilter[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    private boolean mayContainIp(String ip) {
+        for (int bit : filterBits(ip)) {
+            if ((ipFilter[bit >>> 6] & 1L << bit) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // два независимых бита из перемешанного hashCode
+    private static int[] filterBits(String ip) {
+        long hash = ip.hashCode() * 0x9e3779b97f4a7c15L;
+        return new int[]{(int) (hash >>> 41), (int) (hash >>> 9) & (IP_FILTER_BITS - 1)};
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        force();
+        channel.close();
+    }
+}
@@ -0,0 +1,444 @@
+package ru.practicum.ewm.repository.segment;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import ru.practicum.ewm.ViewStatsDto;
+import ru.practicum.ewm.core.metrics.StatsMetrics;
+import ru.practicum.ewm.filter.StatsFilter;
+import ru.practicum.ewm.filter.TimeseriesBucket;
+import ru.practicum.ewm.model.EndpointHit;
+import ru.practicum.ewm.model.IpAddresses;
+import ru.practicum.ewm.model.TimeseriesPoint;
+import ru.practicum.ewm.repository.HitStorage;
+import ru.practicum.ewm.repository.PartiallySavedException;
+import ru.practicum.ewm.repository.RollupRange;
+import ru.practicum.ewm.repository.segment.SegmentDictionary.Kind;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+// хранение hit-ов без базы данных: дописываемые сегменты, отображённые в память, и словарь app/uri/ip.
+// Счётчики по (app, uri) и часам держатся в памяти и пересобираются из сегментов при старте
+@Slf4j
+@Component
+@Profile(HitStorage.SEGMENTS_PROFILE)
+public class SegmentHitStorage implements HitStorage, SmartLifecycle {
+
+    public enum FsyncPolicy {
+        // каждый пакет сбрасывается на диск до ответа клиенту
+        ALWAYS,
+        // сброс по расписанию stats.segments.fsync-interval: при сбое ОС теряется не больше интервала
+        INTERVAL,
+        // только при ротации сегмента и остановке; от падения процесса защищает page cache
+        NEVER
+    }
+
+    private static final String DICTIONARY_FILE = "dictionary.log";
+    private static final String SEGMENT_FORMAT = "hits-%08d.seg";
+    private static final long HOUR_MILLIS = ChronoUnit.HOURS.getDuration().toMillis();
+
+    private final StatsMetrics metrics;
+    private final Path directory;
+    private final long segmentSize;
+    private final FsyncPolicy fsyncPolicy;
+    private final int dictionaryCacheSize;
+
+    private final List<HitSegment> segments = new CopyOnWriteArrayList<>();
+    private final Map<Long, NavigableMap<Long, LongAdder>> hourlyIndex = new ConcurrentHashMap<>();
+    // запись в mmap и force() блокируются на диске: synchronized закрепил бы виртуальный поток за носителем
+    private final ReentrantLock lock = new ReentrantLock();
+    private SegmentDictionary dictionary;
+    private volatile boolean running;
+    private boolean dirty;
+
+    public SegmentHitStorage(StatsMetrics metrics,
+                             @Value("${stats.segments.directory:data/segments}") Path directory,
+                             @Value("${stats.segments.segment-size:64MB}") DataSize segmentSize,
+                             @Value("${stats.segments.fsync:INTERVAL}") FsyncPolicy fsyncPolicy,
+                             @Value("${stats.dictionary.cache-size:100000}") int dictionaryCacheSize) {
+        this.metrics = metrics;
+        this.directory = directory;
+        this.segmentSize = segmentSize.toBytes();
+        this.fsyncPolicy = fsyncPolicy;
+        this.dictionaryCacheSize = dictionaryCacheSize;
+    }
+
+    @Override
+    public void start() {
+        lock.lock();
+        try {
+            open();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void open() {
+        if (running) {
+            return;
+        }
+        try {
+            Files.createDirectories(directory);
+            dictionary = SegmentDictionary.open(directory.resolve(DICTIONARY_FILE), dictionaryCacheSize);
+            List<Path> files;
+            try (Stream<Path> listing = Files.list(directory)) {
+                files = listing.filter(path -> path.getFileName().toString().matches("hits-\\d{8}\\.seg"))
+                        .sorted()
+                        .toList();
+            }
+            long recovered = 0;
+            for (Path file : files) {
+                HitSegment segment = HitSegment.open(file, segmentSize);
+                segments.add(segment);
+                recovered += segment.count();
+                segment.scan(Long.MIN_VALUE, Long.MAX_VALUE, (appId, uriId, ipId, created) -> {
+                    dictionary.reserve(Kind.APP, appId);
+                    dictionary.reserve(Kind.URI, uriId);
+                    dictionary.reserve(Kind.IP, ipId);
+                    index(appId, uriId, ipId, created);
+                });
+            }
+            running = true;
+            log.info("Хранилище сегментов открыто. каталог: {}, сегментов: {}, hit: {}, fsync: {}",
+                    directory, segments.size(), recovered, fsyncPolicy);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось открыть хранилище сегментов " + directory, e);
+        }
+    }
+
+    @Override
+    public void stop() {
+        lock.lock();
+        try {
+            close();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        try {
+            dictionary.close();
+            for (HitSegment segment : segments) {
+                segment.close();
+            }
+        } catch (IOException e) {
+            log.error("Хранилище сегментов: ошибка при закрытии: {}", e.getMessage(), e);
+        }
+        segments.clear();
+        hourlyIndex.clear();
+        log.info("Хранилище сегментов закрыто. каталог: {}", directory);
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    // открывается раньше буфера записи и закрывается после того, как он допишет очередь
+    @Override
+    public int getPhase() {
+        return SmartLifecycle.DEFAULT_PHASE - 8192;
+    }
+
+    @Override
+    public void saveBatch(List<EndpointHit> hits) {
+        lock.lock();
+        try {
+            append(hits);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void append(List<EndpointHit> hits) {
+        if (!running) {
+            throw new IllegalStateException("Хранилище сегментов не открыто");
+        }
+        if (hits.isEmpty()) {
+            return;
+        }
+        int[][] encoded = new int[hits.size()][];
+        try {
+            List<String> ips = hits.stream().map(hit -> IpAddresses.decode(IpAddresses.encode(hit.getIp()))).toList();
+            dictionary.resolveIps(ips);
+            for (int i = 0; i < hits.size(); i++) {
+                EndpointHit hit = hits.get(i);
+                encoded[i] = new int[]{
+                        dictionary.id(Kind.APP, hit.getApp()),
+                        dictionary.id(Kind.URI, hit.getUri()),
+                        dictionary.id(Kind.IP, ips.get(i))};
+            }
+            // записи словаря попадают в файл раньше hit-ов, которые на них ссылаются
+            dictionary.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось записать hit в сегменты", e);
+        }
+        int appended = 0;
+        dirty = true;
+        try {
+            for (; appended < hits.size(); appended++) {
+                long created = toMillis(hits.get(appended).getCreated());
+                HitSegment segment = writableSegment();
+                segment.append(encoded[appended][0], encoded[appended][1], encoded[appended][2], created);
+                index(encoded[appended][0], encoded[appended][1], encoded[appended][2], created);
+            }
+            if (fsyncPolicy == FsyncPolicy.ALWAYS) {
+                force();
+            }
+        } catch (IOException e) {
+            // записанные hit-ы уже видны в запросах: повтор клиента не должен записать их второй раз
+            throw new PartiallySavedException(appended, e);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${stats.segments.fsync-interval:PT1S}")
+    public void forceOnInterval() {
+        if (fsyncPolicy != FsyncPolicy.INTERVAL) {
+            return;
+        }
+        lock.lock();
+        try {
+            if (running) {
+                force();
+            }
+        } catch (IOException e) {
+            log.error("Хранилище сегментов: не удалось сбросить данные на диск: {}", e.getMessage(), e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void force() throws IOException {
+        if (!dirty) {
+            return;
+        }
+        dictionary.force();
+        segments.getLast().force();
+        dirty = false;
+    }
+
+    private HitSegment writableSegment() throws IOException {
+        if (!segments.isEmpty() && !segments.getLast().isFull()) {
+            return segments.getLast();
+        }
+        if (!segments.isEmpty()) {
+            dictionary.force();
+            segments.getLast().force();
+        }
+        HitSegment segment = HitSegment.open(directory.resolve(SEGMENT_FORMAT.formatted(segments.size())), segmentSize);
+        segments.add(segment);
+        log.debug("Хранилище сегментов: создан сегмент {}", segment.path());
+        return segment;
+    }
+
+    // записи с id, которых нет в словаре (словарь не успел попасть на диск до сбоя ОС), пропускаются;
+    // такие id не выдаются повторно (SegmentDictionary.reserve)
+    private void index(int appId, int uriId, int ipId, long created) {
+        if (!dictionary.contains(Kind.APP, appId) || !dictionary.contains(Kind.URI, uriId)) {
+            return;
+        }
+        hourlyIndex.computeIfAbsent(key(appId, uriId), key -> new ConcurrentSkipListMap<>())
+                .computeIfAbsent(Math.floorDiv(created, HOUR_MILLIS) * HOUR_MILLIS, hour -> new LongAdder())
+                .increment();
+    }
+
+    @Override
+    public List<ViewStatsDto> findStats(StatsFilter filter) {
+        Set<Integer> uriIds = matchingUris(filter);
+        if (uriIds != null && uriIds.isEmpty()) {
+            return List.of();
+        }
+        Map<Long, Long> hits = new HashMap<>();
+        if (Boolean.TRUE.equals(filter.getUnique())) {
+            Map<Long, Set<Integer>> visitors = new HashMap<>();
+            scan(toMillis(filter.getStart()), toMillis(filter.getEnd()), uriIds, (appId, uriId, ipId, created) ->
+                    visitors.computeIfAbsent(key(appId, uriId), key -> new HashSet<>()).add(ipId));
+            visitors.forEach((key, ips) -> hits.put(key, (long) ips.size()));
+        } else {
+            RollupRange range = RollupRange.of(filter.getStart(), filter.getEnd(), ChronoUnit.HOURS);
+            countHours(range, uriIds, (key, hour, count) -> hits.merge(key, count, Long::sum));
+            scanEdges(range, uriIds, (appId, uriId, ipId, created) -> hits.merge(key(appId, uriId), 1L, Long::sum));
+        }
+        Stream<Map.Entry<Long, Long>> sorted = hits.entrySet().stream()
+                .sorted(Map.Entry.<Long, Long>comparingByValue().reversed());
+        if (filter.getLimit() != null) {
+            sorted = sorted.limit(filter.getLimit());
+        }
+        return sorted.map(entry -> new ViewStatsDto(appName(entry.getKey()), uriName(entry.getKey()), entry.getValue()))
+                .toList();
+    }
+
+    @Override
+    public void streamStats(StatsFilter filter, Consumer<ViewStatsDto> sink) {
+        findStats(filter).forEach(sink);
+    }
+
+    @Override
+    public List<TimeseriesPoint> findTimeseries(StatsFilter filter, TimeseriesBucket bucket) {
+        Set<Integer> uriIds = matchingUris(filter);
+        if (uriIds != null && uriIds.isEmpty()) {
+            return List.of();
+        }
+        ChronoUnit unit = bucket.getUnit();
+        Map<SeriesKey, Long> points = new HashMap<>();
+        if (Boolean.TRUE.equals(filter.getUnique())) {
+            Map<SeriesKey, Set<Integer>> visitors = new HashMap<>();
+            scan(toMillis(filter.getStart()), toMillis(filter.getEnd()), uriIds, (appId, uriId, ipId, created) ->
+                    visitors.computeIfAbsent(new SeriesKey(key(appId, uriId), truncate(created, unit)),
+                            key -> new HashSet<>()).add(ipId));
+            visitors.forEach((key, ips) -> points.put(key, (long) ips.size()));
+        } else {
+            RollupRange range = RollupRange.of(filter.getStart(), filter.getEnd(),
+                    unit.compareTo(ChronoUnit.HOURS) < 0 ? unit : ChronoUnit.HOURS);
+            countHours(range, uriIds, (key, hour, count) ->
+                    points.merge(new SeriesKey(key, truncate(hour, unit)), count, Long::sum));
+            scanEdges(range, uriIds, (appId, uriId, ipId, created) ->
+                    points.merge(new SeriesKey(key(appId, uriId), truncate(created, unit)), 1L, Long::sum));
+        }
+        return points.entrySet().stream()
+                .map(entry -> new TimeseriesPoint(appName(entry.getKey().key()), uriName(entry.getKey().key()),
+                        entry.getKey().bucket(), entry.getValue()))
+                .toList();
+    }
+
+    // полные часы [hourFrom, hourTo) берутся из счётчиков в памяти
+    private void countHours(RollupRange range, Set<Integer> uriIds, HourConsumer consumer) {
+        long from = toMillis(range.hourFrom());
+        long to = toMillis(range.hourTo());
+        if (from >= to) {
+            return;
+        }
+        long[] rows = {0};
+        hourlyIndex.forEach((key, hours) -> {
+            if (uriIds == null || uriIds.contains((int) key.longValue())) {
+                hours.subMap(from, true, to, false).forEach((hour, count) -> {
+                    rows[0]++;
+                    consumer.accept(key, hour, count.sum());
+                });
+            }
+        });
+        metrics.scanned(StatsMetrics.HOUR_INDEX, rows[0]);
+    }
+
+    // крайние интервалы [start, hourFrom) и [hourTo, end] читаются из сегментов
+    private void scanEdges(RollupRange range, Set<Integer> uriIds, HitSegment.RecordConsumer consumer) {
+        scan(toMillis(range.start()), toMillis(range.hourFrom()) - 1, uriIds, consumer);
+        scan(toMillis(range.hourTo()), toMillis(range.end()), uriIds, consumer);
+    }
+
+    private void scan(long from, long to, Set<Integer> uriIds, HitSegment.RecordConsumer consumer) {
+        if (from > to) {
+            return;
+        }
+        long rows = 0;
+        for (HitSegment segment : segments) {
+            rows += segment.scan(from, to, (appId, uriId, ipId, created) -> {
+                if ((uriIds == null ? dictionary.contains(Kind.URI, uriId) : uriIds.contains(uriId))
+                        && dictionary.contains(Kind.APP, appId)) {
+                    consumer.accept(appId, uriId, ipId, created);
+                }
+            });
+        }
+        metrics.scanned(StatsMetrics.SEGMENT, rows);
+    }
+
+    // null - фильтра по uri нет; uris со звёздочкой и prefix сверяются со всеми uri словаря
+    private Set<Integer> matchingUris(StatsFilter filter) {
+        boolean byUris = filter.getUris() != null && !filter.getUris().isEmpty();
+        boolean byPrefix = filter.getPrefix() != null && !filter.getPrefix().isEmpty();
+        if (!byUris && !byPrefix) {
+            return null;
+        }
+        Set<Integer> result = new HashSet<>();
+        List<Pattern> patterns = new ArrayList<>();
+        if (byUris) {
+            for (String uri : filter.getUris()) {
+                if (uri.indexOf('*') >= 0) {
+                    patterns.add(Pattern.compile(Stream.of(uri.split("\\*", -1))
+                            .map(Pattern::quote)
+                            .reduce((left, right) -> left + ".*" + right)
+                            .orElseThrow()));
+                } else {
+                    Integer id = dictionary.find(Kind.URI, uri);
+                    if (id != null) {
+                        result.add(id);
+                    }
+                }
+            }
+        }
+        if (!patterns.isEmpty() || byPrefix) {
+            dictionary.names(Kind.URI).forEach((id, uri) -> {
+                if (patterns.stream().anyMatch(pattern -> pattern.matcher(uri).matches())) {
+                    result.add(id);
+                }
+            });
+        }
+        if (byPrefix) {
+            if (!byUris) {
+                dictionary.names(Kind.URI).forEach((id, uri) -> result.add(id));
+            }
+            result.removeIf(id -> !dictionary.name(Kind.URI, id).startsWith(filter.getPrefix()));
+        }
+        return result;
+    }
+
+    private String appName(long key) {
+        return dictionary.name(Kind.APP, (int) (key >>> 32));
+    }
+
+    private String uriName(long key) {
+        return dictionary.name(Kind.URI, (int) key);
+    }
+
+    private static long key(int appId, int uriId) {
+        return ((long) appId << 32) | (uriId & 0xFFFFFFFFL);
+    }
+
+    // время hit-а хранится как миллисекунды LocalDateTime без учёта часового пояса
+    private static long toMillis(LocalDateTime value) {
+        return value.toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    private static LocalDateTime truncate(long millis, ChronoUnit unit) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneOffset.UTC).truncatedTo(unit);
+    }
+
+    @FunctionalInterface
+    private interface HourConsumer {
+        void accept(long key, long hour, long count);
+    }
+
+    private record SeriesKey(long key, LocalDateTime bucket) {
+    }
+}
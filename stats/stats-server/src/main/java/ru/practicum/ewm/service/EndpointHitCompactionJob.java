@@ -0,0 +1,133 @@
+package ru.practicum.ewm.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.ewm.core.exception.ConflictException;
+import ru.practicum.ewm.model.ArchiveReport;
+import ru.practicum.ewm.repository.EndpointHitCompactionRepository;
+import ru.practicum.ewm.repository.HitStorage;
+import ru.practicum.ewm.repository.archive.HitArchive;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+
+// агрегаты и скетчи пишутся при приёме hit-ов, поэтому сжатие сводится к удалению сырых hit-ов
+// за закрытые сутки; запросы через границу читают эту часть из агрегатов (RollupRange.of(..., rawFrom))
+@Slf4j
+@Component
+@Profile("!" + HitStorage.SEGMENTS_PROFILE)
+public class EndpointHitCompactionJob {
+
+    public enum CompactionAction {
+        DELETE,
+        // перенос в таблицу endpoint_hits_archive
+        ARCHIVE,
+        // выгрузка в сжатые файлы HitArchive, по файлу на час с hit-ами
+        EXPORT
+    }
+
+    private final EndpointHitCompactionRepository compactionRepository;
+    private final HitArchive archive;
+    private final TransactionTemplate transactionTemplate;
+    // выгрузка и удаление видят один снимок: опоздавший hit, записанный после чтения часа, не удаляется
+    private final TransactionTemplate exportTransaction;
+
+    @Value("${stats.compaction.action:DELETE}")
+    private CompactionAction action;
+
+    public EndpointHitCompactionJob(EndpointHitCompactionRepository compactionRepository, HitArchive archive,
+                                    TransactionTemplate transactionTemplate) {
+        this.compactionRepository = compactionRepository;
+        this.archive = archive;
+        this.transactionTemplate = transactionTemplate;
+        this.exportTransaction = new TransactionTemplate(transactionTemplate.getTransactionManager(),
+                transactionTemplate);
+        this.exportTransaction.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+    }
+
+    @Scheduled(cron = "${stats.compaction.cron:0 45 3 * * *}")
+    public synchronized void compact() {
+        LocalDateTime boundary = compactionRepository.retentionBoundary();
+        if (boundary == null) {
+            return;
+        }
+        if (compactionRepository.hasMissingVisitors(boundary)) {
+            log.warn("Сжатие hit-ов до {} отложено: не все скетчи посетителей досчитаны", boundary);
+            return;
+        }
+        long total = compactBefore(boundary, action);
+        if (total > 0) {
+            log.info("Сырые hit-ы до {} свёрнуты в агрегаты: {} строк, {}", boundary, total, action);
+        }
+    }
+
+    // выгрузка в архив по запросу администратора, независимо от срока хранения; граница округляется до часа
+    public synchronized ArchiveReport export(LocalDateTime before) throws ConflictException {
+        LocalDateTime boundary = before.truncatedTo(ChronoUnit.HOURS);
+        if (boundary.isAfter(LocalDateTime.now().truncatedTo(ChronoUnit.HOURS))) {
+            throw new ConflictException("Нельзя выгрузить в архив незакрытый час: " + before);
+        }
+        if (compactionRepository.hasMissingVisitors(boundary)) {
+            throw new ConflictException("Не все скетчи посетителей до " + boundary + " досчитаны");
+        }
+        long total = compactBefore(boundary, CompactionAction.EXPORT);
+        log.info("Сырые hit-ы до {} выгружены в архив: {} строк", boundary, total);
+        return new ArchiveReport(boundary, total, archive.archivedBefore());
+    }
+
+    // по часу с hit-ами на транзакцию, чтобы не держать долгих блокировок на endpoint_hits. Часы без hit-ов
+    // перескакиваются (один hit с очень старым временем клиента не превращается в тысячи пустых интервалов),
+    // но входят в интервал следующего часа: выгруженные интервалы идут без разрывов до boundary
+    private long compactBefore(LocalDateTime boundary, CompactionAction sliceAction) {
+        LocalDateTime oldest = compactionRepository.findOldestHit();
+        if (oldest == null || !oldest.isBefore(boundary)) {
+            return 0;
+        }
+        long total = 0;
+        LocalDateTime from = oldest.truncatedTo(ChronoUnit.HOURS);
+        LocalDateTime hour = from;
+        while (true) {
+            LocalDateTime to = hour.plusHours(1).isAfter(boundary) ? boundary : hour.plusHours(1);
+            LocalDateTime next = to.isBefore(boundary) ? compactionRepository.findNextHit(to) : null;
+            if (next == null || !next.isBefore(boundary)) {
+                to = boundary;
+            }
+            total += sliceAction == CompactionAction.EXPORT ? export(from, to) : remove(from, to, sliceAction);
+            if (!to.isBefore(boundary)) {
+                return total;
+            }
+            from = to;
+            hour = next.truncatedTo(ChronoUnit.HOURS);
+        }
+    }
+
+    private int remove(LocalDateTime from, LocalDateTime to, CompactionAction sliceAction) {
+        Integer removed = transactionTemplate.execute(status -> {
+            if (sliceAction == CompactionAction.ARCHIVE) {
+                compactionRepository.archive(from, to);
+            }
+            return compactionRepository.delete(from, to);
+        });
+        return removed == null ? 0 : removed;
+    }
+
+    // файл публикуется до удаления строк: при сбое между ними строки выгрузятся повторно, но не потеряются
+    private int export(LocalDateTime from, LocalDateTime to) {
+        try (HitArchive.Export export = archive.export(from, to)) {
+            Integer removed = exportTransaction.execute(status -> {
+                compactionRepository.streamHits(from, to, export::append);
+                if (export.written() == 0) {
+                    return 0;
+                }
+                export.publish();
+                return compactionRepository.delete(from, to);
+            });
+            return removed == null ? 0 : removed;
+        }
+    }
+}
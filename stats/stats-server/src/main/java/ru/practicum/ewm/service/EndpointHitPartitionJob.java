@@ -0,0 +1,88 @@
+package ru.practicum.ewm.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.ewm.repository.EndpointHitPartitionRepository;
+import ru.practicum.ewm.repository.HitStorage;
+
+import java.time.YearMonth;
+import java.util.List;
+
+@Slf4j
+@Component
+@Profile("!" + HitStorage.SEGMENTS_PROFILE)
+@RequiredArgsConstructor
+public class EndpointHitPartitionJob {
+
+    public enum RetentionAction {
+        DETACH,
+        DROP
+    }
+
+    private final EndpointHitPartitionRepository partitionRepository;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${stats.partitions.enabled:true}")
+    private boolean enabled;
+
+    @Value("${stats.partitions.months-ahead:3}")
+    private int monthsAhead;
+
+    @Value("${stats.partitions.retention-months:0}")
+    private int retentionMonths;
+
+    @Value("${stats.partitions.retention-action:DETACH}")
+    private RetentionAction retentionAction;
+
+    // ошибка обслуживания секций не должна останавливать приложение: следующая попытка - по расписанию
+    @EventListener(ApplicationReadyEvent.class)
+    public void onStartup() {
+        try {
+            maintain();
+        } catch (RuntimeException e) {
+            log.error("Не удалось обслужить секции endpoint_hits при запуске", e);
+        }
+    }
+
+    @Scheduled(cron = "${stats.partitions.cron:0 15 3 * * *}")
+    public void maintain() {
+        if (!enabled || !partitionRepository.isPartitioned()) {
+            return;
+        }
+        YearMonth current = YearMonth.now();
+        List<YearMonth> existing = partitionRepository.findMonthPartitions();
+
+        for (int i = 0; i <= monthsAhead; i++) {
+            YearMonth month = current.plusMonths(i);
+            if (!existing.contains(month)) {
+                transactionTemplate.executeWithoutResult(status -> partitionRepository.createMonthPartition(month));
+                log.info("Создана секция {}", EndpointHitPartitionRepository.partitionName(month));
+            }
+        }
+
+        if (retentionMonths <= 0) {
+            return;
+        }
+        YearMonth oldestKept = current.minusMonths(retentionMonths);
+        for (YearMonth month : existing) {
+            if (!month.isBefore(oldestKept)) {
+                continue;
+            }
+            transactionTemplate.executeWithoutResult(status -> {
+                partitionRepository.detachMonthPartition(month);
+                if (retentionAction == RetentionAction.DROP) {
+                    partitionRepository.dropTable(month);
+                }
+            });
+            log.info("Секция {} вышла за срок хранения: {}",
+                    EndpointHitPartitionRepository.partitionName(month), retentionAction);
+        }
+    }
+}
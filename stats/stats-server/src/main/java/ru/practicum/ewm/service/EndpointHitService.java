@@ -1,19 +1,40 @@
 package ru.practicum.ewm.service;
 
+import io.micrometer.core.instrument.Timer;
 import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotEmpty;
 import jakarta.validation.constraints.NotNull;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.validation.annotation.Validated;
 import ru.practicum.ewm.EndpointHitDto;
+import ru.practicum.ewm.TimeseriesDto;
+import ru.practicum.ewm.TimeseriesSeriesDto;
 import ru.practicum.ewm.ViewStatsDto;
+import ru.practicum.ewm.core.exception.ConditionsException;
+import ru.practicum.ewm.core.exception.TooManyRequestsException;
+import ru.practicum.ewm.core.metrics.StatsMetrics;
 import ru.practicum.ewm.filter.StatsFilter;
+import ru.practicum.ewm.filter.TimeseriesFilter;
+import ru.practicum.ewm.filter.TopStatsFilter;
 import ru.practicum.ewm.mapper.EndpointHitMapper;
-import ru.practicum.ewm.repository.EndpointHitRepository;
+import ru.practicum.ewm.model.EndpointHit;
+import ru.practicum.ewm.model.TimeseriesPoint;
+import ru.practicum.ewm.repository.HitStorage;
+import ru.practicum.ewm.repository.PartiallySavedException;
 
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 @Slf4j
 @Service
@@ -21,21 +42,132 @@ import java.util.List;
 @RequiredArgsConstructor
 public class EndpointHitService {
     private final EndpointHitMapper mapper;
-    private final EndpointHitRepository repository;
+    private final HitStorage storage;
+    private final HitIngestBuffer buffer;
+    private final HitDeduplicator deduplicator;
+    private final StatsMetrics metrics;
 
-    @Transactional
-    public void createHit(@NotNull(message = "Данные не получены или пустые") @Valid EndpointHitDto dto) {
+    @Value("${stats.timeseries.max-buckets:10000}")
+    private int maxTimeseriesBuckets;
+
+    // транзакцию открывает только запись в хранилище: в режиме ASYNC запрос не занимает соединение с базой
+    public void createHit(@NotNull(message = "Данные не получены или пустые") @Valid EndpointHitDto dto)
+            throws TooManyRequestsException {
         log.info("Создать запись hit (старт). uri: {}", dto.getUri());
-        var entity = mapper.toEntity(dto);
-        repository.save(entity);
+        Timer.Sample sample = metrics.start();
+        if (deduplicator.accept(List.of(dto)).isEmpty()) {
+            metrics.ingested(sample, StatsMetrics.HIT, 1, 0);
+            log.info("Создать запись hit (стоп). Повтор hitId: {}, пропущен", dto.getHitId());
+            return;
+        }
+        save(List.of(dto), List.of(mapper.toEntity(dto)));
+        metrics.ingested(sample, StatsMetrics.HIT, 1, 1);
         log.info("Создать запись hit (стоп). uri: {}", dto.getUri());
     }
 
+    public void createHits(@NotEmpty(message = "Данные не получены или пустые")
+                           List<@NotNull @Valid EndpointHitDto> dtos) throws TooManyRequestsException {
+        log.info("Создать пакет hit (старт). размер: {}", dtos.size());
+        Timer.Sample sample = metrics.start();
+        var accepted = deduplicator.accept(dtos);
+        if (!accepted.isEmpty()) {
+            save(accepted, mapper.toEntities(accepted));
+        }
+        metrics.ingested(sample, StatsMetrics.HITS, dtos.size(), accepted.size());
+        log.info("Создать пакет hit (стоп). размер: {}, повторов пропущено: {}", dtos.size(), dtos.size() - accepted.size());
+    }
+
+    public boolean isAsync() {
+        return buffer.isEnabled();
+    }
+
+    // записанные hit-ы попадают в окно повторов, незаписанные снимаются с учёта, чтобы клиент мог повторить запрос.
+    // Буфер принимает пакет целиком или не принимает совсем, запись в базу идёт одной транзакцией; частично
+    // записанный пакет (хранилище сегментов) сообщает, сколько hit-ов уже записано
+    private void save(List<EndpointHitDto> dtos, List<EndpointHit> entities) throws TooManyRequestsException {
+        int saved = 0;
+        try {
+            if (buffer.isEnabled()) {
+                buffer.offer(entities);
+            } else {
+                storage.saveBatch(entities);
+            }
+            saved = dtos.size();
+        } catch (PartiallySavedException e) {
+            saved = e.getSaved();
+            throw e;
+        } finally {
+            deduplicator.commit(dtos.subList(0, saved));
+            deduplicator.forget(dtos.subList(saved, dtos.size()));
+        }
+    }
+
     @Transactional(readOnly = true)
-    public List<ViewStatsDto> findStats(@Valid StatsFilter filter) {
+    public List<ViewStatsDto> findStats(@Valid StatsFilter filter) throws ConditionsException {
         log.info("Получить запись статистки (старт). filter: {}", filter);
-        var result = filter.getUnique() ? repository.findStatsByUnique(filter) : repository.findStatsByNonUnique(filter);
+        Timer.Sample sample = metrics.start();
+        List<ViewStatsDto> result = storage.findStats(filter);
+        metrics.queried(sample, StatsMetrics.STATS, filter.getUnique(), result.size());
         log.info("Получить запись статистки (стоп). filter: {}; записей в ответе: {}", filter, result.size());
         return result;
     }
+
+    @Transactional(readOnly = true)
+    public List<ViewStatsDto> findTopStats(@Valid TopStatsFilter filter) throws ConditionsException {
+        log.info("Получить топ статистики (старт). filter: {}", filter);
+        Timer.Sample sample = metrics.start();
+        StatsFilter statsFilter = filter.toStatsFilter();
+        List<ViewStatsDto> result = storage.findStats(statsFilter);
+        metrics.queried(sample, StatsMetrics.TOP, statsFilter.getUnique(), result.size());
+        log.info("Получить топ статистики (стоп). filter: {}; записей в ответе: {}", filter, result.size());
+        return result;
+    }
+
+    @Transactional(readOnly = true)
+    public TimeseriesDto findTimeseries(@Valid TimeseriesFilter filter) throws ConditionsException {
+        log.info("Получить временной ряд (старт). filter: {}", filter);
+        Timer.Sample sample = metrics.start();
+        ChronoUnit unit = filter.getBucket().getUnit();
+        LocalDateTime first = filter.getStart().truncatedTo(unit);
+        long count = unit.between(first, filter.getEnd().truncatedTo(unit)) + 1;
+        if (count > maxTimeseriesBuckets) {
+            throw new ConditionsException("Слишком много бакетов во временном ряду: %d, допустимо не больше %d"
+                    .formatted(count, maxTimeseriesBuckets));
+        }
+        List<LocalDateTime> timestamps = new ArrayList<>((int) count);
+        for (int i = 0; i < count; i++) {
+            timestamps.add(first.plus(i, unit));
+        }
+
+        Map<SeriesKey, long[]> series = new HashMap<>();
+        for (TimeseriesPoint point : storage.findTimeseries(filter.toStatsFilter(), filter.getBucket())) {
+            series.computeIfAbsent(new SeriesKey(point.app(), point.uri()), key -> new long[(int) count])
+                    [(int) unit.between(first, point.bucket())] += point.hits();
+        }
+        List<TimeseriesSeriesDto> result = series.entrySet().stream()
+                .sorted(Comparator.comparingLong((Map.Entry<SeriesKey, long[]> e) -> Arrays.stream(e.getValue()).sum())
+                        .reversed())
+                .map(e -> new TimeseriesSeriesDto(e.getKey().app(), e.getKey().uri(), e.getValue()))
+                .toList();
+        metrics.queried(sample, StatsMetrics.TIMESERIES, filter.getUnique(), result.size());
+        log.info("Получить временной ряд (стоп). filter: {}; рядов в ответе: {}", filter, result.size());
+        return new TimeseriesDto(filter.getBucket().sqlName(), timestamps, result);
+    }
+
+    // транзакция держит курсор открытым, пока строки пишутся в ответ
+    @Transactional(readOnly = true)
+    public void streamStats(@Valid StatsFilter filter, Consumer<ViewStatsDto> sink) throws ConditionsException {
+        log.info("Выгрузить статистику потоком (старт). filter: {}", filter);
+        Timer.Sample sample = metrics.start();
+        int[] rows = {0};
+        storage.streamStats(filter, row -> {
+            rows[0]++;
+            sink.accept(row);
+        });
+        metrics.queried(sample, StatsMetrics.STREAM, filter.getUnique(), rows[0]);
+        log.info("Выгрузить статистику потоком (стоп). filter: {}; записей в ответе: {}", filter, rows[0]);
+    }
+
+    private record SeriesKey(String app, String uri) {
+    }
 }
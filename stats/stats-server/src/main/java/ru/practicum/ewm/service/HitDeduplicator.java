@@ -0,0 +1,270 @@
+package ru.practicum.ewm.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.practicum.ewm.EndpointHitDto;
+import ru.practicum.ewm.core.exception.TooManyRequestsException;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.LongSupplier;
+
+// отбрасывает повторы hit-ов с одинаковым hitId в скользящем окне stats.ingest.dedup.window.
+// Окно разбито на корзины по времени приёма: в каждой - открытая адресация по 64-битным хэшам (app, hitId),
+// устаревшая корзина очищается целиком. Окно своё у каждого экземпляра сервера.
+// Память ограничена stats.ingest.dedup.max-keys: ключи сверх лимита корзины не запоминаются, такие hit-ы
+// принимаются без защиты от повтора.
+// Принятый ключ до конца записи числится в pending и попадает в окно только после commit(): повтор, пришедший
+// во время записи, получает 429 и не теряется, если исходная запись не удалась
+@Slf4j
+@Component
+public class HitDeduplicator {
+
+    private final boolean enabled;
+    private final long bucketNanos;
+    private final LongSupplier nanoTime;
+    private final LongHashSet[] buckets;
+    private final LongHashSet pending = new LongHashSet();
+    private final int maxBucketKeys;
+    private final Counter duplicatesCounter;
+    private final Counter overflowCounter;
+    private long currentBucket;
+
+    @Autowired
+    public HitDeduplicator(MeterRegistry meterRegistry,
+                           @Value("${stats.ingest.dedup.enabled:true}") boolean enabled,
+                           @Value("${stats.ingest.dedup.window:10m}") Duration window,
+                           @Value("${stats.ingest.dedup.buckets:10}") int buckets,
+                           @Value("${stats.ingest.dedup.max-keys:2000000}") int maxKeys) {
+        this(meterRegistry, enabled, window, buckets, maxKeys, System::nanoTime);
+    }
+
+    HitDeduplicator(MeterRegistry meterRegistry, boolean enabled, Duration window, int buckets, int maxKeys,
+                    LongSupplier nanoTime) {
+        this.enabled = enabled;
+        this.maxBucketKeys = Math.max(1, maxKeys / buckets);
+        this.bucketNanos = Math.max(1, window.toNanos() / buckets);
+        this.nanoTime = nanoTime;
+        this.buckets = new LongHashSet[buckets];
+        for (int i = 0; i < buckets; i++) {
+            this.buckets[i] = new LongHashSet();
+        }
+        this.currentBucket = nanoTime.getAsLong() / bucketNanos;
+        this.duplicatesCounter = meterRegistry.counter("stats.ingest.duplicates");
+        this.overflowCounter = meterRegistry.counter("stats.ingest.dedup.overflow");
+    }
+
+    // hit-ы без hitId проходят всегда. Принятые hitId ждут commit() или forget(); если пакет содержит hitId,
+    // запись которого ещё идёт, пакет отклоняется целиком
+    public List<EndpointHitDto> accept(List<EndpointHitDto> dtos) throws TooManyRequestsException {
+        if (!enabled) {
+            return dtos;
+        }
+        List<EndpointHitDto> accepted = new ArrayList<>(dtos.size());
+        synchronized (this) {
+            rotate();
+            for (EndpointHitDto dto : dtos) {
+                if (dto.getHitId() != null && pending.contains(key(dto))) {
+                    throw new TooManyRequestsException("Hit с hitId %s ещё записывается, повторите запрос позже"
+                            .formatted(dto.getHitId()));
+                }
+            }
+            for (EndpointHitDto dto : dtos) {
+                if (dto.getHitId() == null) {
+                    accepted.add(dto);
+                    continue;
+                }
+                long key = key(dto);
+                if (seen(key) || pending.contains(key)) {
+                    duplicatesCounter.increment();
+                    log.debug("Повтор hit пропущен. app: {}, hitId: {}", dto.getApp(), dto.getHitId());
+                    continue;
+                }
+                pending.add(key);
+                accepted.add(dto);
+            }
+        }
+        return accepted;
+    }
+
+    // hit-ы записаны: их hitId переходят в окно повторов
+    public void commit(List<EndpointHitDto> dtos) {
+        if (!enabled) {
+            return;
+        }
+        synchronized (this) {
+            LongHashSet current = rotate();
+            for (EndpointHitDto dto : dtos) {
+                if (dto.getHitId() == null) {
+                    continue;
+                }
+                long key = key(dto);
+                pending.remove(key);
+                if (current.size() < maxBucketKeys) {
+                    current.add(key);
+                } else {
+                    if (overflowCounter.count() == 0) {
+                        log.warn("Окно повторов hit заполнено ({} ключей в корзине), новые hitId не запоминаются",
+                                maxBucketKeys);
+                    }
+                    overflowCounter.increment();
+                }
+            }
+        }
+    }
+
+    // hit-ы не записаны: повтор запроса должен пройти
+    public void forget(List<EndpointHitDto> dtos) {
+        if (!enabled) {
+            return;
+        }
+        synchronized (this) {
+            for (EndpointHitDto dto : dtos) {
+                if (dto.getHitId() != null) {
+                    pending.remove(key(dto));
+                }
+            }
+        }
+    }
+
+    private LongHashSet rotate() {
+        long now = nanoTime.getAsLong() / bucketNanos;
+        long expired = Math.min(now - currentBucket, buckets.length);
+        for (long i = 1; i <= expired; i++) {
+            buckets[(int) Math.floorMod(currentBucket + i, buckets.length)].clear();
+        }
+        currentBucket = Math.max(currentBucket, now);
+        return buckets[(int) Math.floorMod(currentBucket, buckets.length)];
+    }
+
+    private boolean seen(long key) {
+        for (LongHashSet bucket : buckets) {
+            if (bucket.contains(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // FNV-1a по символам app и hitId с финальным перемешиванием из SplitMix64: младшие биты ключа
+    // используются как индекс ячейки в LongHashSet
+    private static long key(EndpointHitDto dto) {
+        long h = 0xcbf29ce484222325L;
+        h = fnv(h, dto.getApp());
+        h = (h ^ 0xffff) * 0x100000001b3L;
+        h = fnv(h, dto.getHitId());
+        h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+        h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+        return h ^ (h >>> 31);
+    }
+
+    private static long fnv(long h, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            h = (h ^ value.charAt(i)) * 0x100000001b3L;
+        }
+        return h;
+    }
+
+    // множество long с линейным пробированием; 0 - пустая ячейка, поэтому ключ 0 хранится отдельным флагом
+    static final class LongHashSet {
+        private static final int INITIAL_CAPACITY = 1024;
+
+        private long[] slots = new long[INITIAL_CAPACITY];
+        private int size;
+        private boolean hasZero;
+
+        boolean contains(long key) {
+            if (key == 0) {
+                return hasZero;
+            }
+            int mask = slots.length - 1;
+            for (int i = index(key, mask); slots[i] != 0; i = (i + 1) & mask) {
+                if (slots[i] == key) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void add(long key) {
+            if (key == 0) {
+                hasZero = true;
+                return;
+            }
+            if ((size + 1) * 2 > slots.length) {
+                grow();
+            }
+            int mask = slots.length - 1;
+            int i = index(key, mask);
+            while (slots[i] != 0) {
+                if (slots[i] == key) {
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            slots[i] = key;
+            size++;
+        }
+
+        // удаление со сдвигом следующих элементов цепочки, без надгробий
+        void remove(long key) {
+            if (key == 0) {
+                hasZero = false;
+                return;
+            }
+            int mask = slots.length - 1;
+            int i = index(key, mask);
+            while (slots[i] != key) {
+                if (slots[i] == 0) {
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            slots[i] = 0;
+            size--;
+            for (int j = (i + 1) & mask; slots[j] != 0; j = (j + 1) & mask) {
+                int home = index(slots[j], mask);
+                if (((j - home) & mask) >= ((j - i) & mask)) {
+                    slots[i] = slots[j];
+                    slots[j] = 0;
+                    i = j;
+                }
+            }
+        }
+
+        void clear() {
+            if (slots.length > INITIAL_CAPACITY) {
+                slots = new long[INITIAL_CAPACITY];
+            } else {
+                Arrays.fill(slots, 0);
+            }
+            size = 0;
+            hasZero = false;
+        }
+
+        int size() {
+            return size + (hasZero ? 1 : 0);
+        }
+
+        private void grow() {
+            long[] old = slots;
+            slots = new long[old.length * 2];
+            size = 0;
+            for (long key : old) {
+                if (key != 0) {
+                    add(key);
+                }
+            }
+        }
+
+        private static int index(long key, int mask) {
+            return (int) (key ^ (key >>> 32)) & mask;
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package ru.practicum.ewm.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.stereotype.Component;
+import ru.practicum.ewm.core.exception.TooManyRequestsException;
+import ru.practicum.ewm.model.EndpointHit;
+import ru.practicum.ewm.repository.HitStorage;
+import ru.practicum.ewm.repository.PartiallySavedException;
+
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+// Место в буфере занимается под весь пакет сразу (permits семафора), поэтому пакет принимается целиком или
+// не принимается совсем: 429 означает, что ни один hit пакета не поставлен в очередь. Место освобождается
+// только после записи в хранилище: пока хранилище недоступно, пакет повторяется, а новые пакеты получают 429.
+// Hit, который не записывается из-за самих данных, отбрасывается и учитывается в stats.ingest.buffer.lost
+@Slf4j
+@Component
+public class HitIngestBuffer implements SmartLifecycle {
+
+    public enum OverflowPolicy {
+        REJECT,
+        BLOCK
+    }
+
+    private static final long POLL_TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final HitStorage storage;
+    private final boolean enabled;
+    private final int flushSize;
+    private final Duration flushInterval;
+    private final OverflowPolicy overflowPolicy;
+    private final Duration offerTimeout;
+    private final Duration retryInterval;
+    private final Duration shutdownTimeout;
+    private final int capacity;
+    private final Semaphore permits;
+    private final BlockingQueue<EndpointHit> queue;
+    private final Counter flushedCounter;
+    private final Counter rejectedCounter;
+    private final Counter failedCounter;
+    private final Counter lostCounter;
+
+    private volatile boolean running;
+    private volatile long stopDeadline;
+    private Thread flusher;
+
+    public HitIngestBuffer(HitStorage storage,
+                           MeterRegistry meterRegistry,
+                           @Value("${stats.ingest.mode:SYNC}") IngestMode mode,
+                           @Value("${stats.ingest.buffer.capacity:100000}") int capacity,
+                           @Value("${stats.ingest.buffer.flush-size:5000}") int flushSize,
+                           @Value("${stats.ingest.buffer.flush-interval:200ms}") Duration flushInterval,
+                           @Value("${stats.ingest.buffer.overflow:REJECT}") OverflowPolicy overflowPolicy,
+                           @Value("${stats.ingest.buffer.offer-timeout:1s}") Duration offerTimeout,
+                           @Value("${stats.ingest.buffer.retry-interval:1s}") Duration retryInterval,
+                           @Value("${stats.ingest.buffer.shutdown-timeout:30s}") Duration shutdownTimeout) {
+        this.storage = storage;
+        this.enabled = mode == IngestMode.ASYNC;
+        this.flushSize = flushSize;
+        this.flushInterval = flushInterval;
+        this.overflowPolicy = overflowPolicy;
+        this.offerTimeout = offerTimeout;
+        this.retryInterval = retryInterval;
+        this.shutdownTimeout = shutdownTimeout;
+        this.capacity = capacity;
+        // BLOCK: честная очередь, чтобы большие пакеты не ждали бесконечно за потоком маленьких
+        this.permits = new Semaphore(capacity, overflowPolicy == OverflowPolicy.BLOCK);
+        this.queue = new ArrayBlockingQueue<>(capacity);
+
+        Gauge.builder("stats.ingest.buffer.depth", queue, BlockingQueue::size).register(meterRegistry);
+        Gauge.builder("stats.ingest.buffer.capacity", () -> capacity).register(meterRegistry);
+        this.flushedCounter = meterRegistry.counter("stats.ingest.buffer.flushed");
+        this.rejectedCounter = meterRegistry.counter("stats.ingest.buffer.rejected");
+        this.failedCounter = meterRegistry.counter("stats.ingest.buffer.failed");
+        this.lostCounter = meterRegistry.counter("stats.ingest.buffer.lost");
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int depth() {
+        return queue.size();
+    }
+
+    public void offer(List<EndpointHit> hits) throws TooManyRequestsException {
+        if (!running) {
+            throw new TooManyRequestsException("Буфер записи hit не запущен");
+        }
+        if (!reserve(hits.size())) {
+            rejectedCounter.increment(hits.size());
+            throw new TooManyRequestsException("Буфер записи hit переполнен, повторите запрос позже");
+        }
+        // место зарезервировано, очередь не может быть переполнена
+        queue.addAll(hits);
+    }
+
+    private boolean reserve(int count) {
+        if (count > capacity) {
+            return false;
+        }
+        if (overflowPolicy == OverflowPolicy.REJECT) {
+            return permits.tryAcquire(count);
+        }
+        try {
+            return permits.tryAcquire(count, offerTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @Override
+    public void start() {
+        if (!enabled || running) {
+            return;
+        }
+        running = true;
+        flusher = new Thread(this::flushLoop, "hit-ingest-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+        log.info("Буфер записи hit запущен. capacity: {}, flushSize: {}, flushInterval: {}",
+                queue.remainingCapacity(), flushSize, flushInterval);
+    }
+
+    @Override
+    public void stop() {
+        if (!running) {
+            return;
+        }
+        stopDeadline = System.nanoTime() + shutdownTimeout.toNanos();
+        running = false;
+        try {
+            // запас на запись, начатую до истечения shutdown-timeout
+            flusher.join(shutdownTimeout.plus(retryInterval).toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (flusher.isAlive()) {
+            log.error("Буфер записи hit не остановился за {}", shutdownTimeout);
+        }
+        log.info("Буфер записи hit остановлен. Осталось в очереди: {}", queue.size());
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    // останавливаемся после web-сервера, чтобы дописать всё, что он успел принять
+    @Override
+    public int getPhase() {
+        return SmartLifecycle.DEFAULT_PHASE - 4096;
+    }
+
+    private void flushLoop() {
+        List<EndpointHit> batch = new ArrayList<>(flushSize);
+        while (running) {
+            try {
+                collect(batch);
+                if (!flush(batch)) {
+                    pause(System.nanoTime() + retryInterval.toNanos());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                stopDeadline = System.nanoTime();
+                running = false;
+            }
+        }
+        // при остановке дописываем очередь, повторяя неудачные пакеты не дольше shutdown-timeout
+        while (!batch.isEmpty() || !queue.isEmpty()) {
+            if (System.nanoTime() - stopDeadline >= 0) {
+                int lost = batch.size() + queue.size();
+                lostCounter.increment(lost);
+                log.error("Буфер записи hit: хранилище недоступно, при остановке потеряно {} hit", lost);
+                return;
+            }
+            queue.drainTo(batch, flushSize - batch.size());
+            if (!flush(batch)) {
+                try {
+                    Thread.sleep(Math.min(retryInterval.toMillis(),
+                            Math.max(0, TimeUnit.NANOSECONDS.toMillis(stopDeadline - System.nanoTime()))));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    stopDeadline = System.nanoTime();
+                }
+            }
+        }
+    }
+
+    // пауза перед повтором; прерывается остановкой, чтобы сразу перейти к дозаписи
+    private void pause(long until) throws InterruptedException {
+        while (running && until - System.nanoTime() > 0) {
+            TimeUnit.NANOSECONDS.sleep(Math.min(until - System.nanoTime(), POLL_TICK_NANOS));
+        }
+    }
+
+    // собираем пакет до flushSize или до flushInterval с момента первого hit;
+    // ждём короткими интервалами, чтобы stop() не ждал полный flushInterval
+    private void collect(List<EndpointHit> batch) throws InterruptedException {
+        long deadline = 0;
+        while (running && batch.size() < flushSize) {
+            queue.drainTo(batch, flushSize - batch.size());
+            long now = System.nanoTime();
+            if (!batch.isEmpty() && deadline == 0) {
+                deadline = now + flushInterval.toNanos();
+            }
+            if (batch.size() >= flushSize || (deadline != 0 && deadline - now <= 0)) {
+                return;
+            }
+            long wait = deadline == 0 ? POLL_TICK_NANOS : Math.min(deadline - now, POLL_TICK_NANOS);
+            EndpointHit next = queue.poll(wait, TimeUnit.NANOSECONDS);
+            if (next != null) {
+                batch.add(next);
+            }
+        }
+    }
+
+    // клиент уже получил 202, поэтому пакет с временной ошибкой хранилища не отбрасывается: он остаётся в batch
+    // и повторяется. Постоянная ошибка (нарушение ограничений, некорректные данные) при повторе не исчезнет:
+    // пакет записывается по одному hit, чтобы отбросить только те, что не записываются
+    private boolean flush(List<EndpointHit> batch) {
+        if (batch.isEmpty()) {
+            return true;
+        }
+        try {
+            storage.saveBatch(batch);
+        } catch (PartiallySavedException e) {
+            // повторяется только незаписанный остаток
+            stored(batch, e.getSaved());
+            return failed(batch, e.getCause() == null ? e : e.getCause());
+        } catch (RuntimeException e) {
+            return failed(batch, e);
+        }
+        stored(batch, batch.size());
+        log.debug("Буфер записи hit: записано {}", batch.size());
+        return true;
+    }
+
+    private boolean failed(List<EndpointHit> batch, Throwable e) {
+        if (isTransient(e)) {
+            failedCounter.increment(batch.size());
+            log.error("Буфер записи hit: не удалось записать {} hit, повтор через {}: {}", batch.size(),
+                    retryInterval, e.getMessage(), e);
+            return false;
+        }
+        if (batch.size() == 1) {
+            lostCounter.increment();
+            permits.release();
+            log.error("Буфер записи hit: hit не может быть записан и отброшен: {}", batch.getFirst(), e);
+            batch.clear();
+            return true;
+        }
+        log.warn("Буфер записи hit: пакет из {} hit не записан ({}), запись по одному", batch.size(), e.getMessage());
+        while (!batch.isEmpty()) {
+            List<EndpointHit> single = batch.subList(0, 1);
+            try {
+                storage.saveBatch(List.copyOf(single));
+                stored(batch, 1);
+            } catch (RuntimeException singleError) {
+                if (!failed(single, singleError)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void stored(List<EndpointHit> batch, int count) {
+        flushedCounter.increment(count);
+        permits.release(count);
+        batch.subList(0, count).clear();
+    }
+
+    // недоступность базы, таймауты, блокировки и ошибки ввода-вывода сегментов проходят при повторе
+    static boolean isTransient(Throwable e) {
+        return e instanceof TransientDataAccessException
+                || e instanceof RecoverableDataAccessException
+                || e instanceof DataAccessResourceFailureException
+                || e instanceof UncheckedIOException;
+    }
+}
@@ -0,0 +1,10 @@
+package ru.practicum.ewm.service;
+
+// когда POST /hit и /hits отвечают клиенту
+public enum IngestMode {
+    // после записи в хранилище: 201 Created, принятый hit не теряется при падении сервера
+    SYNC,
+    // сразу после постановки в очередь HitIngestBuffer: 202 Accepted, запись в базу фоновым потоком пакетами;
+    // при падении процесса теряется содержимое очереди
+    ASYNC
+}
@@ -0,0 +1,36 @@
+package ru.practicum.ewm.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.ewm.repository.EndpointHitRollupRepository;
+import ru.practicum.ewm.repository.HitStorage;
+
+@Slf4j
+@Component
+@Profile("!" + HitStorage.SEGMENTS_PROFILE)
+@RequiredArgsConstructor
+public class RollupBackfillRunner implements ApplicationRunner {
+
+    private static final int CHUNK_SIZE = 500;
+
+    private final EndpointHitRollupRepository rollupRepository;
+    private final TransactionTemplate transactionTemplate;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        int total = 0;
+        Integer updated;
+        do {
+            updated = transactionTemplate.execute(status -> rollupRepository.backfillVisitors(CHUNK_SIZE));
+            total += updated == null ? 0 : updated;
+        } while (updated != null && updated > 0);
+        if (total > 0) {
+            log.info("Досчитаны скетчи уникальных посетителей для {} бакетов", total);
+        }
+    }
+}
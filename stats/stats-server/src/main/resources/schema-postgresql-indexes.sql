@@ -0,0 +1,5 @@
+-- Выполняется только на PostgreSQL после schema.sql.
+
+-- шаблоны uris=/events/* и prefix превращаются в uri LIKE '/events/%': индекс с text_pattern_ops
+-- даёт для них диапазонный поиск независимо от правил сортировки базы
+CREATE INDEX IF NOT EXISTS idx_stats_uris_uri_pattern ON stats_uris (uri text_pattern_ops);
@@ -0,0 +1,22 @@
+-- Выполняется только на PostgreSQL до schema.sql: endpoint_hits создаётся секционированной по месяцам.
+-- Существующую несекционированную таблицу LegacyHitsMigration переименовывает до этого скрипта и переносит
+-- в секционированную после schema.sql; секции ведёт EndpointHitPartitionJob.
+
+CREATE SEQUENCE IF NOT EXISTS endpoint_hits_id_seq;
+
+CREATE TABLE IF NOT EXISTS endpoint_hits
+(
+    id      BIGINT                      NOT NULL DEFAULT nextval('endpoint_hits_id_seq'),
+    app_id  INTEGER                     NOT NULL,
+    uri_id  BIGINT                      NOT NULL,
+    ip      BYTEA                       NOT NULL,
+    created TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+    CONSTRAINT pk_endpoint_hits PRIMARY KEY (id, created)
+) PARTITION BY RANGE (created);
+
+CREATE TABLE IF NOT EXISTS endpoint_hits_default PARTITION OF endpoint_hits DEFAULT;
+
+-- покрывающий индекс под /stats по списку uri: WHERE uri_id IN (...) AND created BETWEEN ... GROUP BY app_id, uri_id
+-- читается index only scan без обращения к таблице; schema.sql создаёт одноимённый индекс без INCLUDE
+-- только там, где этого нет (H2)
+CREATE INDEX IF NOT EXISTS idx_endpoint_hits_uri_created ON endpoint_hits (uri_id, created) INCLUDE (app_id, ip);
@@ -1,13 +1,78 @@
 -- DROP TABLE IF EXISTS endpoint_hits CASCADE;
 
+CREATE TABLE IF NOT EXISTS stats_apps
+(
+    id   INTEGER GENERATED BY DEFAULT AS IDENTITY NOT NULL,
+    name VARCHAR(512)                             NOT NULL,
+    CONSTRAINT pk_stats_apps PRIMARY KEY (id),
+    CONSTRAINT uq_stats_apps_name UNIQUE (name)
+);
+
+CREATE TABLE IF NOT EXISTS stats_uris
+(
+    id  BIGINT GENERATED BY DEFAULT AS IDENTITY NOT NULL,
+    uri VARCHAR(512)                            NOT NULL,
+    CONSTRAINT pk_stats_uris PRIMARY KEY (id),
+    CONSTRAINT uq_stats_uris_uri UNIQUE (uri)
+);
+
+-- app и uri хранятся идентификаторами словарей stats_apps/stats_uris, ip - 4 или 16 байтами адреса
+-- (таблицу первой версии со строковыми app, uri и ip переносит LegacyHitsMigration)
 CREATE TABLE IF NOT EXISTS endpoint_hits
 (
     id      BIGINT GENERATED BY DEFAULT AS IDENTITY NOT NULL,
-    app     VARCHAR(512)                            NOT NULL,
-    uri     VARCHAR(512)                            NOT NULL,
-    ip      VARCHAR(512)                            NOT NULL,
+    app_id  INTEGER                                 NOT NULL,
+    uri_id  BIGINT                                  NOT NULL,
+    ip      BYTEA                                   NOT NULL,
     created TIMESTAMP WITHOUT TIME ZONE             NOT NULL,
     CONSTRAINT pk_endpoint_hits PRIMARY KEY (id)
 );
-CREATE INDEX IF NOT EXISTS idx_endpoint_hits_ip ON endpoint_hits (ip);
 CREATE INDEX IF NOT EXISTS idx_endpoint_hits_timestamp ON endpoint_hits (created);
+CREATE INDEX IF NOT EXISTS idx_endpoint_hits_uri_created ON endpoint_hits (uri_id, created, app_id, ip);
+
+-- сырые hit-ы, перенесённые EndpointHitCompactionJob из endpoint_hits при stats.compaction.action=ARCHIVE
+CREATE TABLE IF NOT EXISTS endpoint_hits_archive
+(
+    id      BIGINT                      NOT NULL,
+    app_id  INTEGER                     NOT NULL,
+    uri_id  BIGINT                      NOT NULL,
+    ip      BYTEA                       NOT NULL,
+    created TIMESTAMP WITHOUT TIME ZONE NOT NULL
+);
+CREATE INDEX IF NOT EXISTS idx_endpoint_hits_archive_created ON endpoint_hits_archive (created);
+
+CREATE TABLE IF NOT EXISTS endpoint_hits_hourly
+(
+    app_id   INTEGER                     NOT NULL,
+    uri_id   BIGINT                      NOT NULL,
+    bucket   TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+    hits     BIGINT                      NOT NULL,
+    visitors BYTEA,
+    CONSTRAINT pk_endpoint_hits_hourly PRIMARY KEY (uri_id, bucket, app_id)
+);
+CREATE INDEX IF NOT EXISTS idx_endpoint_hits_hourly_bucket ON endpoint_hits_hourly (bucket);
+
+CREATE TABLE IF NOT EXISTS endpoint_hits_daily
+(
+    app_id   INTEGER                     NOT NULL,
+    uri_id   BIGINT                      NOT NULL,
+    bucket   TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+    hits     BIGINT                      NOT NULL,
+    visitors BYTEA,
+    CONSTRAINT pk_endpoint_hits_daily PRIMARY KEY (uri_id, bucket, app_id)
+);
+CREATE INDEX IF NOT EXISTS idx_endpoint_hits_daily_bucket ON endpoint_hits_daily (bucket);
+
+-- первичное заполнение агрегатов из уже накопленных hit-ов (выполняется только пока агрегаты пустые);
+-- скетчи visitors для этих строк досчитывает RollupBackfillRunner
+INSERT INTO endpoint_hits_hourly (app_id, uri_id, bucket, hits)
+SELECT app_id, uri_id, DATE_TRUNC('hour', created), COUNT(*)
+FROM endpoint_hits
+WHERE NOT EXISTS (SELECT 1 FROM endpoint_hits_hourly)
+GROUP BY app_id, uri_id, DATE_TRUNC('hour', created);
+
+INSERT INTO endpoint_hits_daily (app_id, uri_id, bucket, hits)
+SELECT app_id, uri_id, DATE_TRUNC('day', created), COUNT(*)
+FROM endpoint_hits
+WHERE NOT EXISTS (SELECT 1 FROM endpoint_hits_daily)
+GROUP BY app_id, uri_id, DATE_TRUNC('day', created);
@@ -0,0 +1,23 @@
+package ru.practicum.ewm;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import ru.practicum.ewm.repository.HitStorage;
+import ru.practicum.ewm.repository.segment.SegmentHitStorage;
+
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+
+@SpringBootTest(properties = "stats.segments.directory=target/segments-test")
+@ActiveProfiles(HitStorage.SEGMENTS_PROFILE)
+public class SegmentStorageAppTest {
+
+    @Autowired
+    private HitStorage storage;
+
+    @Test
+    void contextLoadsWithoutDatabase() {
+        assertInstanceOf(SegmentHitStorage.class, storage);
+    }
+}
@@ -0,0 +1,151 @@
+package ru.practicum.ewm.controller;
+
+import jakarta.validation.ConstraintViolationException;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import ru.practicum.ewm.EndpointHitDto;
+import ru.practicum.ewm.StatsCbor;
+import ru.practicum.ewm.ViewStatsDto;
+import ru.practicum.ewm.service.EndpointHitService;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@WebMvcTest(controllers = StatsRestController.class, properties = "stats.ingest.batch-size=2")
+class StatsRestControllerTest {
+
+    private static final String HIT = """
+            {"app":"ewm","uri":"/events/1","ip":"1.1.1.1","timestamp":"2024-01-01 10:00:00"}""";
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockBean
+    private EndpointHitService statsService;
+
+    @Test
+    void syncIngestAnswersCreated() throws Exception {
+        mockMvc.perform(post("/hit").contentType(MediaType.APPLICATION_JSON).content(HIT))
+                .andExpect(status().isCreated());
+
+        verify(statsService).createHit(any());
+    }
+
+    @Test
+    void asyncIngestAnswersAccepted() throws Exception {
+        when(statsService.isAsync()).thenReturn(true);
+
+        mockMvc.perform(post("/hit").contentType(MediaType.APPLICATION_JSON).content(HIT))
+                .andExpect(status().isAccepted());
+        mockMvc.perform(post("/hits").contentType(MediaType.APPLICATION_JSON).content("[" + HIT + "]"))
+                .andExpect(status().isAccepted());
+        mockMvc.perform(post("/hits").contentType(MediaType.APPLICATION_NDJSON).content(HIT + "\n"))
+                .andExpect(status().isAccepted());
+    }
+
+    // CborConfig: время в CBOR приходит числом миллисекунд, как его пишет stats-client
+    @Test
+    void cborHitsDecodedWithEpochMillis() throws Exception {
+        EndpointHitDto hit = EndpointHitDto.builder()
+                .app("ewm")
+                .uri("/events/1")
+                .ip("1.1.1.1")
+                .timestamp(LocalDateTime.of(2024, 1, 1, 10, 0))
+                .build();
+        byte[] single = StatsCbor.objectMapper().writeValueAsBytes(hit);
+        byte[] batch = StatsCbor.objectMapper().writeValueAsBytes(List.of(hit, hit));
+
+        mockMvc.perform(post("/hit").contentType(MediaType.APPLICATION_CBOR).content(single))
+                .andExpect(status().isCreated());
+        mockMvc.perform(post("/hits").contentType(MediaType.APPLICATION_CBOR).content(batch))
+                .andExpect(status().isCreated());
+
+        ArgumentCaptor<EndpointHitDto> created = ArgumentCaptor.forClass(EndpointHitDto.class);
+        verify(statsService).createHit(created.capture());
+        assertEquals(hit.getTimestamp(), created.getValue().getTimestamp());
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<EndpointHitDto>> createdBatch = ArgumentCaptor.forClass(List.class);
+        verify(statsService).createHits(createdBatch.capture());
+        assertEquals(List.of(hit.getTimestamp(), hit.getTimestamp()),
+                createdBatch.getValue().stream().map(EndpointHitDto::getTimestamp).toList());
+    }
+
+    @Test
+    void ndjsonReportsCommittedHits() throws Exception {
+        mockMvc.perform(post("/hits").contentType(MediaType.APPLICATION_NDJSON).content(lines(HIT, HIT, HIT)))
+                .andExpect(status().isCreated())
+                .andExpect(header().string(StatsRestController.COMMITTED_HEADER, "3"));
+
+        verify(statsService, times(2)).createHits(anyList());
+    }
+
+    // пакеты до ошибочной записи уже записаны: заголовок говорит, с какой записи повторять поток
+    @Test
+    void ndjsonParseErrorReportsCommittedPrefix() throws Exception {
+        mockMvc.perform(post("/hits").contentType(MediaType.APPLICATION_NDJSON)
+                        .content(lines(HIT, HIT, HIT, "{\"app\":")))
+                .andExpect(status().isBadRequest())
+                .andExpect(header().string(StatsRestController.COMMITTED_HEADER, "2"))
+                .andExpect(jsonPath("$.error").value(startsWith("Запись 4 потока hit не разобрана")));
+
+        verify(statsService, times(1)).createHits(anyList());
+    }
+
+    @Test
+    void ndjsonRejectedChunkReportsCommittedPrefix() throws Exception {
+        doNothing().doThrow(new ConstraintViolationException("ip: не заполнен", Set.of()))
+                .when(statsService).createHits(anyList());
+
+        mockMvc.perform(post("/hits").contentType(MediaType.APPLICATION_NDJSON).content(lines(HIT, HIT, HIT)))
+                .andExpect(status().isBadRequest())
+                .andExpect(header().string(StatsRestController.COMMITTED_HEADER, "2"));
+    }
+
+    @Test
+    void ndjsonStatsStreamedRowPerLine() throws Exception {
+        doAnswer(invocation -> {
+            Consumer<ViewStatsDto> sink = invocation.getArgument(1);
+            sink.accept(new ViewStatsDto("ewm", "/events/1", 5L));
+            sink.accept(new ViewStatsDto("ewm", "/events/2", 3L));
+            return null;
+        }).when(statsService).streamStats(any(), any());
+
+        mockMvc.perform(get("/stats")
+                        .param("start", "2024-01-01 00:00:00")
+                        .param("end", "2024-01-02 00:00:00")
+                        .accept(MediaType.APPLICATION_NDJSON))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON))
+                .andExpect(content().string("""
+                        {"app":"ewm","uri":"/events/1","hits":5}
+                        {"app":"ewm","uri":"/events/2","hits":3}
+                        """));
+    }
+
+    private static String lines(String... records) {
+        return String.join("\n", records) + "\n";
+    }
+}
@@ -0,0 +1,31 @@
+package ru.practicum.ewm.model;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class IpAddressesTest {
+
+    @Test
+    void ipv4TakesFourBytes() {
+        byte[] encoded = IpAddresses.encode("192.168.0.255");
+
+        assertEquals(4, encoded.length);
+        assertEquals("192.168.0.255", IpAddresses.decode(encoded));
+    }
+
+    @Test
+    void ipv6TakesSixteenBytes() {
+        byte[] encoded = IpAddresses.encode("2001:db8:0:0:0:0:0:1");
+
+        assertEquals(16, encoded.length);
+        assertEquals("2001:db8:0:0:0:0:0:1", IpAddresses.decode(encoded));
+    }
+
+    @Test
+    void rejectsNonLiteral() {
+        assertThrows(IllegalArgumentException.class, () -> IpAddresses.encode("256.1.1.1"));
+        assertThrows(IllegalArgumentException.class, () -> IpAddresses.encode("localhost"));
+    }
+}
@@ -0,0 +1,90 @@
+package ru.practicum.ewm.repository;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.YearMonth;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class EndpointHitPartitionRepositoryTest {
+
+    private static final YearMonth MONTH = YearMonth.of(2025, 3);
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    @Mock
+    private DatabasePlatform databasePlatform;
+
+    @InjectMocks
+    private EndpointHitPartitionRepository partitionRepository;
+
+    @Test
+    void createsEmptyPartitionDirectly() {
+        state(false, false, false);
+
+        partitionRepository.createMonthPartition(MONTH);
+
+        verify(jdbcTemplate).execute("CREATE TABLE IF NOT EXISTS endpoint_hits_p2025_03 PARTITION OF endpoint_hits "
+                + "FOR VALUES FROM ('2025-03-01') TO ('2025-04-01')");
+        verify(jdbcTemplate, never()).execute(startsWith("ALTER TABLE"));
+    }
+
+    @Test
+    void movesRowsFromDefaultPartition() {
+        state(false, true, false);
+
+        partitionRepository.createMonthPartition(MONTH);
+
+        InOrder order = inOrder(jdbcTemplate);
+        order.verify(jdbcTemplate).execute(
+                "CREATE TABLE IF NOT EXISTS endpoint_hits_p2025_03 (LIKE endpoint_hits INCLUDING DEFAULTS)");
+        order.verify(jdbcTemplate).update(contains("INSERT INTO endpoint_hits_p2025_03"), any(Object[].class));
+        order.verify(jdbcTemplate).execute("ALTER TABLE endpoint_hits ATTACH PARTITION endpoint_hits_p2025_03 "
+                + "FOR VALUES FROM ('2025-03-01') TO ('2025-04-01')");
+    }
+
+    @Test
+    void reattachesLeftoverTable() {
+        state(false, false, true);
+
+        partitionRepository.createMonthPartition(MONTH);
+
+        verify(jdbcTemplate).execute(startsWith("ALTER TABLE endpoint_hits ATTACH PARTITION endpoint_hits_p2025_03"));
+    }
+
+    @Test
+    void attachedPartitionIsLeftAlone() {
+        state(true, true, true);
+
+        partitionRepository.createMonthPartition(MONTH);
+
+        verify(jdbcTemplate, never()).execute(anyString());
+        verify(jdbcTemplate, never()).update(anyString(), any(Object[].class));
+    }
+
+    private void state(boolean attached, boolean defaultHasRows, boolean tableExists) {
+        when(jdbcTemplate.queryForObject(anyString(), eq(Boolean.class), any(Object[].class))).thenAnswer(invocation -> {
+            String sql = invocation.getArgument(0);
+            if (sql.contains("pg_inherits")) {
+                return attached;
+            }
+            return sql.contains("endpoint_hits_default") ? defaultHasRows : tableExists;
+        });
+    }
+}
@@ -1,18 +1,25 @@
 package ru.practicum.ewm.repository;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.context.annotation.Import;
 import ru.practicum.ewm.ViewStatsDto;
+import ru.practicum.ewm.core.metrics.StatsMetrics;
 import ru.practicum.ewm.filter.StatsFilter;
 import ru.practicum.ewm.model.EndpointHit;
+import ru.practicum.ewm.repository.archive.HitArchive;
 
 import java.time.LocalDateTime;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
-@DataJpaTest
+@JdbcTest
+@Import({EndpointHitRepository.class, EndpointHitRollupRepository.class, HitDictionary.class, DatabasePlatform.class,
+        StatsResultCache.class, StatsMetrics.class, SimpleMeterRegistry.class, EndpointHitCompactionRepository.class,
+        HitArchive.class, EndpointHitPartitionRepository.class})
 class EndpointHitRepositoryTest {
 
     @Autowired
@@ -70,6 +77,62 @@ class EndpointHitRepositoryTest {
         assertEquals("/uri1", result.getFirst().getUri());
     }
 
+    @Test
+    void unknownUriMatchesNothing() {
+        repository.save(new EndpointHit(null, "app1", "/uri1", "1.1.1.1", LocalDateTime.now()));
+
+        var filter = StatsFilter.builder()
+                .start(LocalDateTime.now().minusDays(1))
+                .end(LocalDateTime.now().plusDays(1))
+                .uris(List.of("/never-seen"))
+                .unique(false)
+                .build();
+
+        assertEquals(0, repository.findStatsByNonUnique(filter).size());
+    }
+
+    @Test
+    void wildcardMatchesUriFamily() {
+        LocalDateTime now = LocalDateTime.now();
+        repository.saveBatch(List.of(
+                new EndpointHit(null, "app1", "/events/1", "1.1.1.1", now),
+                new EndpointHit(null, "app1", "/events/2", "1.1.1.1", now),
+                new EndpointHit(null, "app1", "/events_2", "1.1.1.1", now),
+                new EndpointHit(null, "app1", "/compilations/1", "1.1.1.1", now)));
+
+        var filter = StatsFilter.builder()
+                .start(now.minusDays(1))
+                .end(now.plusDays(1))
+                .uris(List.of("/events/*", "/compilations/1", "/never-seen"))
+                .unique(false)
+                .build();
+
+        List<String> uris = repository.findStatsByNonUnique(filter).stream().map(ViewStatsDto::getUri).sorted().toList();
+
+        assertEquals(List.of("/compilations/1", "/events/1", "/events/2"), uris);
+    }
+
+    @Test
+    void saveBatchInsertsAllHits() {
+        LocalDateTime now = LocalDateTime.now();
+        repository.saveBatch(List.of(
+                new EndpointHit(null, "app1", "/uri1", "1.1.1.1", now),
+                new EndpointHit(null, "app1", "/uri1", "1.1.1.2", now),
+                new EndpointHit(null, "app1", "/uri2", "1.1.1.1", now)));
+
+        var filter = StatsFilter.builder()
+                .start(now.minusDays(1))
+                .end(now.plusDays(1))
+                .unique(false)
+                .build();
+
+        List<ViewStatsDto> result = repository.findStatsByNonUnique(filter);
+
+        assertEquals(2, result.size());
+        assertEquals("/uri1", result.getFirst().getUri());
+        assertEquals(2L, result.getFirst().getHits());
+    }
+
     @Test
     void emptyResult() {
         var filter = StatsFilter.builder()
@@ -0,0 +1,227 @@
+package ru.practicum.ewm.repository;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.practicum.ewm.ViewStatsDto;
+import ru.practicum.ewm.core.metrics.StatsMetrics;
+import ru.practicum.ewm.filter.StatsFilter;
+import ru.practicum.ewm.filter.TimeseriesBucket;
+import ru.practicum.ewm.model.EndpointHit;
+import ru.practicum.ewm.repository.archive.HitArchive;
+import ru.practicum.ewm.model.TimeseriesPoint;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@JdbcTest
+@Import({EndpointHitRepository.class, EndpointHitRollupRepository.class, HitDictionary.class, DatabasePlatform.class,
+        StatsResultCache.class, StatsMetrics.class, SimpleMeterRegistry.class, EndpointHitCompactionRepository.class,
+        HitArchive.class, EndpointHitPartitionRepository.class})
+class EndpointHitRollupRepositoryTest {
+
+    private static final LocalDateTime BASE = LocalDateTime.of(2024, 1, 1, 0, 0);
+
+    @Autowired
+    private EndpointHitRepository repository;
+
+    @Autowired
+    private EndpointHitRollupRepository rollupRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setUp() {
+        repository.saveBatch(List.of(
+                hit("/uri1", "1.1.1.1", BASE.plusMinutes(9 * 60 + 30)),
+                hit("/uri1", "1.1.1.2", BASE.plusHours(10).plusMinutes(15)),
+                hit("/uri1", "1.1.1.3", BASE.plusHours(11).plusMinutes(59)),
+                hit("/uri2", "1.1.1.1", BASE.plusDays(1).plusHours(5)),
+                hit("/uri2", "1.1.1.1", BASE.plusDays(2)),
+                hit("/uri2", "1.1.1.2", BASE.plusDays(2).plusMinutes(1))));
+    }
+
+    @Test
+    void sameAsRawForEdgesHoursAndDays() {
+        assertSameAsRaw(BASE.plusHours(9).plusMinutes(20), BASE.plusDays(2));
+        assertSameAsRaw(BASE.plusHours(9).plusMinutes(45), BASE.plusDays(2).plusMinutes(30));
+        assertSameAsRaw(BASE, BASE.plusDays(3));
+    }
+
+    @Test
+    void sameAsRawInsideOneHour() {
+        assertSameAsRaw(BASE.plusHours(10).plusMinutes(10), BASE.plusHours(10).plusMinutes(20));
+    }
+
+    @Test
+    void uniqueSameAsRawForSmallCardinality() {
+        var filter = filter(BASE.plusHours(9).plusMinutes(20), BASE.plusDays(2).plusMinutes(30)).toBuilder()
+                .unique(true)
+                .build();
+
+        assertEquals(byUri(repository.findStatsByUnique(filter)), byUri(rollupRepository.findUniqueStats(filter)));
+    }
+
+    @Test
+    void laterBatchesMergeIntoStoredSketches() {
+        repository.saveBatch(List.of(
+                hit("/uri1", "1.1.1.1", BASE.plusHours(10).plusMinutes(40)),
+                hit("/uri1", "1.1.1.4", BASE.plusHours(10).plusMinutes(45)),
+                hit("/uri2", "1.1.1.1", BASE.plusDays(1).plusHours(6))));
+        var filter = filter(BASE, BASE.plusDays(3)).toBuilder().unique(true).build();
+
+        assertEquals(byUri(repository.findStatsByUnique(filter)), byUri(rollupRepository.findUniqueStats(filter)));
+    }
+
+    @Test
+    void uniqueCountsSketchAndEdgeRows() {
+        var filter = filter(BASE.plusHours(9).plusMinutes(20), BASE.plusDays(2).plusMinutes(30)).toBuilder()
+                .unique(true)
+                .build();
+
+        rollupRepository.findUniqueStats(filter);
+
+        // скетчи: день 2 января и два полных часа 1 января; сырые ip: один hit до 10:00 и два после 3 января 00:00
+        assertEquals(3.0, meterRegistry.counter("stats.query.rows.scanned", "source", StatsMetrics.ROLLUP).count());
+        assertEquals(3.0, meterRegistry.counter("stats.query.rows.scanned", "source", StatsMetrics.RAW).count());
+    }
+
+    @Test
+    void backfillRestoresDroppedSketches() {
+        var filter = filter(BASE, BASE.plusDays(3)).toBuilder().unique(true).build();
+        var expected = byUri(rollupRepository.findUniqueStats(filter));
+        jdbcTemplate.update("UPDATE endpoint_hits_hourly SET visitors = NULL");
+        jdbcTemplate.update("UPDATE endpoint_hits_daily SET visitors = NULL");
+
+        rollupRepository.backfillVisitors(100);
+
+        assertEquals(expected, byUri(rollupRepository.findUniqueStats(filter)));
+    }
+
+    @Test
+    void filterByUri() {
+        var filter = filter(BASE, BASE.plusDays(3)).toBuilder().uris(List.of("/uri2")).build();
+
+        List<ViewStatsDto> result = rollupRepository.findStats(filter);
+
+        assertEquals(1, result.size());
+        assertEquals(3L, result.getFirst().getHits());
+    }
+
+    @Test
+    void limitKeepsTopRows() {
+        var filter = filter(BASE, BASE.plusDays(3)).toBuilder().limit(1).build();
+
+        List<ViewStatsDto> result = rollupRepository.findStats(filter);
+
+        assertEquals(1, result.size());
+        assertEquals("/uri1", result.getFirst().getUri());
+    }
+
+    @Test
+    void streamMatchesList() {
+        var filter = filter(BASE.plusHours(9).plusMinutes(20), BASE.plusDays(2).plusMinutes(30));
+        List<ViewStatsDto> streamed = new ArrayList<>();
+
+        rollupRepository.streamStats(filter, streamed::add);
+
+        assertEquals(rollupRepository.findStats(filter), streamed);
+    }
+
+    @Test
+    void uniqueLimitKeepsTopEstimates() {
+        var filter = filter(BASE, BASE.plusDays(3)).toBuilder().unique(true).limit(1).build();
+
+        List<ViewStatsDto> result = rollupRepository.findUniqueStats(filter);
+
+        assertEquals(1, result.size());
+        assertEquals("/uri1", result.getFirst().getUri());
+        assertEquals(3L, result.getFirst().getHits());
+    }
+
+    @Test
+    void prefixMatchesOnlyStartOfUri() {
+        repository.save(hit("/events/1", "1.1.1.1", BASE.plusHours(1)));
+        repository.save(hit("/events_1", "1.1.1.1", BASE.plusHours(1)));
+        repository.save(hit("/admin/events/1", "1.1.1.1", BASE.plusHours(1)));
+        var filter = filter(BASE, BASE.plusDays(3)).toBuilder().prefix("/events/").build();
+
+        assertEquals(Map.of("/events/1", 1L), byUri(rollupRepository.findStats(filter)));
+        assertEquals(Map.of("/events/1", 1L),
+                byUri(rollupRepository.findUniqueStats(filter.toBuilder().unique(true).build())));
+    }
+
+    @Test
+    void timeseriesByHourMatchesRawHits() {
+        var filter = filter(BASE.plusHours(9).plusMinutes(20), BASE.plusDays(2).plusMinutes(30)).toBuilder()
+                .uris(List.of("/uri1", "/uri2"))
+                .build();
+
+        Map<LocalDateTime, Long> uri1 = series(rollupRepository.findTimeseries(filter, TimeseriesBucket.HOUR), "/uri1");
+        Map<LocalDateTime, Long> uri2 = series(rollupRepository.findTimeseries(filter, TimeseriesBucket.HOUR), "/uri2");
+
+        assertEquals(Map.of(BASE.plusHours(9), 1L, BASE.plusHours(10), 1L, BASE.plusHours(11), 1L), uri1);
+        assertEquals(Map.of(BASE.plusDays(1).plusHours(5), 1L, BASE.plusDays(2), 2L), uri2);
+    }
+
+    @Test
+    void timeseriesByDayUsesDailyRollups() {
+        var filter = filter(BASE, BASE.plusDays(3)).toBuilder().uris(List.of("/uri2")).unique(true).build();
+
+        Map<LocalDateTime, Long> uri2 = series(rollupRepository.findTimeseries(filter, TimeseriesBucket.DAY), "/uri2");
+
+        assertEquals(Map.of(BASE.plusDays(1), 1L, BASE.plusDays(2), 2L), uri2);
+    }
+
+    @Test
+    void timeseriesByMinuteReadsRawHits() {
+        var filter = filter(BASE.plusDays(2), BASE.plusDays(2).plusMinutes(5)).toBuilder()
+                .uris(List.of("/uri2"))
+                .unique(true)
+                .build();
+
+        Map<LocalDateTime, Long> uri2 = series(rollupRepository.findTimeseries(filter, TimeseriesBucket.MINUTE), "/uri2");
+
+        assertEquals(Map.of(BASE.plusDays(2), 1L, BASE.plusDays(2).plusMinutes(1), 1L), uri2);
+    }
+
+    private static Map<LocalDateTime, Long> series(List<TimeseriesPoint> points, String uri) {
+        return points.stream()
+                .filter(point -> point.uri().equals(uri))
+                .collect(Collectors.toMap(TimeseriesPoint::bucket, TimeseriesPoint::hits));
+    }
+
+    private void assertSameAsRaw(LocalDateTime start, LocalDateTime end) {
+        var filter = filter(start, end);
+        assertEquals(byUri(repository.findStatsByNonUnique(filter)), byUri(rollupRepository.findStats(filter)));
+    }
+
+    private static Map<String, Long> byUri(List<ViewStatsDto> stats) {
+        return stats.stream().collect(Collectors.toMap(ViewStatsDto::getUri, ViewStatsDto::getHits));
+    }
+
+    private static StatsFilter filter(LocalDateTime start, LocalDateTime end) {
+        return StatsFilter.builder()
+                .start(start)
+                .end(end)
+                .unique(false)
+                .build();
+    }
+
+    private static EndpointHit hit(String uri, String ip, LocalDateTime created) {
+        return new EndpointHit(null, "app1", uri, ip, created);
+    }
+}
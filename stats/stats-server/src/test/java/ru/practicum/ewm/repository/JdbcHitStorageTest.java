@@ -0,0 +1,146 @@
+package ru.practicum.ewm.repository;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import ru.practicum.ewm.ViewStatsDto;
+import ru.practicum.ewm.core.exception.ConditionsException;
+import ru.practicum.ewm.filter.StatsFilter;
+import ru.practicum.ewm.repository.archive.HitArchive;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class JdbcHitStorageTest {
+
+    private static final StatsFilter UNIQUE = StatsFilter.builder()
+            .start(LocalDateTime.of(2025, 1, 1, 0, 0))
+            .end(LocalDateTime.of(2025, 1, 2, 0, 0))
+            .unique(true)
+            .build();
+
+    private static final StatsFilter NON_UNIQUE = UNIQUE.toBuilder().unique(false).build();
+
+    @Mock
+    private EndpointHitRepository repository;
+
+    @Mock
+    private EndpointHitRollupRepository rollupRepository;
+
+    @Mock
+    private EndpointHitCompactionRepository compactionRepository;
+
+    @Mock
+    private HitArchive archive;
+
+    @InjectMocks
+    private JdbcHitStorage storage;
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(storage, "maxExactRange", Duration.ofDays(31));
+    }
+
+    @Test
+    void callsUniqueMethod() throws Exception {
+        var expected = List.of(new ViewStatsDto());
+        when(rollupRepository.findUniqueStats(UNIQUE)).thenReturn(expected);
+
+        assertEquals(expected, storage.findStats(UNIQUE));
+        verify(repository, never()).findStatsByUnique(any());
+    }
+
+    @Test
+    void callsExactUniqueMethod() throws Exception {
+        var exact = UNIQUE.toBuilder().exact(true).build();
+        var expected = List.of(new ViewStatsDto());
+        when(repository.findStatsByUnique(exact)).thenReturn(expected);
+
+        assertEquals(expected, storage.findStats(exact));
+        verify(rollupRepository, never()).findUniqueStats(any());
+    }
+
+    @Test
+    void exactStreamBeforeRawBoundaryWithoutArchiveIsRejected() {
+        var exact = UNIQUE.toBuilder().exact(true).build();
+        var sink = new ArrayList<ViewStatsDto>();
+        when(compactionRepository.rawFrom()).thenReturn(exact.getStart().plusDays(1));
+
+        assertThrows(ConditionsException.class, () -> storage.streamStats(exact, sink::add));
+        assertTrue(sink.isEmpty());
+        verify(rollupRepository, never()).findUniqueStats(any());
+    }
+
+    @Test
+    void exactReadsArchiveWhenItReachesRawBoundary() throws Exception {
+        var exact = UNIQUE.toBuilder().exact(true).build();
+        var rawFrom = exact.getStart().plusHours(6);
+        var expected = List.of(new ViewStatsDto());
+        when(compactionRepository.rawFrom()).thenReturn(rawFrom);
+        when(archive.covers(exact.getStart(), rawFrom)).thenReturn(true);
+        when(repository.findStatsByUniqueWithArchive(exact, rawFrom)).thenReturn(expected);
+
+        assertEquals(expected, storage.findStats(exact));
+        verify(rollupRepository, never()).findUniqueStats(any());
+    }
+
+    @Test
+    void exactIsRejectedWhenArchiveHasGap() {
+        var exact = UNIQUE.toBuilder().exact(true).build();
+        var rawFrom = exact.getStart().plusHours(6);
+        when(compactionRepository.rawFrom()).thenReturn(rawFrom);
+        when(archive.covers(exact.getStart(), rawFrom)).thenReturn(false);
+
+        var e = assertThrows(ConditionsException.class, () -> storage.findStats(exact));
+        assertTrue(e.getMessage().contains("не выгружены в архив"));
+        verify(repository, never()).findStatsByUniqueWithArchive(any(), any());
+        verify(rollupRepository, never()).findUniqueStats(any());
+    }
+
+    @Test
+    void exactWithArchiveIsRejectedOverMaxRange() {
+        var exact = UNIQUE.toBuilder().exact(true).end(UNIQUE.getStart().plusDays(40)).build();
+        when(compactionRepository.rawFrom()).thenReturn(exact.getStart().plusDays(35));
+
+        var e = assertThrows(ConditionsException.class, () -> storage.findStats(exact));
+        assertTrue(e.getMessage().contains("stats.archive.max-exact-range"));
+        verify(archive, never()).covers(any(), any());
+        verify(rollupRepository, never()).findUniqueStats(any());
+    }
+
+    @Test
+    void callsNonUniqueMethod() throws Exception {
+        var expected = List.of(new ViewStatsDto());
+        when(rollupRepository.findStats(NON_UNIQUE)).thenReturn(expected);
+
+        assertEquals(expected, storage.findStats(NON_UNIQUE));
+        verify(repository, never()).findStatsByUnique(any());
+    }
+
+    @Test
+    void streamsNonUniqueFromRollups() throws Exception {
+        var sink = new ArrayList<ViewStatsDto>();
+
+        storage.streamStats(NON_UNIQUE, sink::add);
+
+        verify(rollupRepository, times(1)).streamStats(eq(NON_UNIQUE), any());
+        verify(rollupRepository, never()).findStats(any());
+    }
+}
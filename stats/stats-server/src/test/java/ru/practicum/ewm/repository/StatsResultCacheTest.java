@@ -0,0 +1,143 @@
+package ru.practicum.ewm.repository;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.transaction.TestTransaction;
+import ru.practicum.ewm.ViewStatsDto;
+import ru.practicum.ewm.core.metrics.StatsMetrics;
+import ru.practicum.ewm.filter.StatsFilter;
+import ru.practicum.ewm.model.EndpointHit;
+import ru.practicum.ewm.repository.archive.HitArchive;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@JdbcTest
+@Import({EndpointHitRepository.class, EndpointHitRollupRepository.class, HitDictionary.class, DatabasePlatform.class,
+        StatsResultCache.class, StatsMetrics.class, SimpleMeterRegistry.class, EndpointHitCompactionRepository.class,
+        HitArchive.class, EndpointHitPartitionRepository.class})
+@TestPropertySource(properties = "stats.cache.enabled=true")
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+class StatsResultCacheTest {
+
+    private static final LocalDateTime BASE = LocalDateTime.of(2024, 1, 1, 0, 0);
+
+    @Autowired
+    private EndpointHitRepository repository;
+
+    @Autowired
+    private EndpointHitRollupRepository rollupRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        repository.saveBatch(List.of(
+                hit("/uri1", "1.1.1.1", BASE.plusHours(9).plusMinutes(30)),
+                hit("/uri1", "1.1.1.2", BASE.plusHours(10).plusMinutes(15)),
+                hit("/uri1", "1.1.1.3", BASE.plusHours(11).plusMinutes(59)),
+                hit("/uri2", "1.1.1.1", BASE.plusDays(1).plusHours(5)),
+                hit("/uri2", "1.1.1.1", BASE.plusDays(2)),
+                hit("/uri2", "1.1.1.2", BASE.plusDays(2).plusMinutes(1))));
+    }
+
+    @Test
+    void closedHoursServedFromCacheForAnyUriOrder() {
+        var expected = byUri(rollupRepository.findStats(filter(false, "/uri1", "/uri2")));
+        clearRollups();
+
+        assertEquals(expected, byUri(rollupRepository.findStats(filter(false, "/uri2", "/uri1", "/uri1"))));
+    }
+
+    @Test
+    void edgesStayFreshWithCachedClosedHours() {
+        rollupRepository.findStats(filter(false, "/uri1", "/uri2"));
+        clearRollups();
+        repository.save(hit("/uri2", "1.1.1.3", BASE.plusDays(2).plusMinutes(10)));
+
+        assertEquals(Map.of("/uri1", 2L, "/uri2", 4L), byUri(rollupRepository.findStats(filter(false, "/uri1", "/uri2"))));
+    }
+
+    @Test
+    void uniqueMergesCachedSketchesWithEdges() {
+        var filter = filter(true, "/uri1", "/uri2");
+        var expected = byUri(repository.findStatsByUnique(filter));
+
+        assertEquals(expected, byUri(rollupRepository.findUniqueStats(filter)));
+        assertEquals(expected, byUri(rollupRepository.findUniqueStats(filter)));
+    }
+
+    @Test
+    void lateHitInClosedHourInvalidatesAfterCommit() {
+        rollupRepository.findStats(filter(false, "/uri1", "/uri2"));
+        repository.save(hit("/uri2", "1.1.1.3", BASE.plusDays(1).plusHours(6)));
+        TestTransaction.flagForCommit();
+        TestTransaction.end();
+
+        assertEquals(Map.of("/uri1", 2L, "/uri2", 4L), byUri(rollupRepository.findStats(filter(false, "/uri1", "/uri2"))));
+    }
+
+    @Test
+    void recentHoursNotCachedWhileLateHitsExpected() {
+        LocalDateTime hour = LocalDateTime.now().truncatedTo(ChronoUnit.HOURS).minusHours(1);
+        repository.saveBatch(List.of(
+                hit("/uri3", "1.1.1.1", hour.minusHours(1).plusMinutes(5)),
+                hit("/uri3", "1.1.1.2", hour.plusMinutes(5))));
+        var filter = filter(false, "/uri3").toBuilder().start(hour.minusHours(2)).end(LocalDateTime.now()).build();
+        rollupRepository.findStats(filter);
+
+        // сброс кэша после коммита не наступает: так выглядит hit, записанный другим экземпляром
+        repository.save(hit("/uri3", "1.1.1.3", hour.plusMinutes(10)));
+
+        assertEquals(Map.of("/uri3", 3L), byUri(rollupRepository.findStats(filter)));
+    }
+
+    @Test
+    void entriesExpireAfterTtl() {
+        var cache = new StatsResultCache(true, 10, 10, Duration.ZERO, Duration.ofHours(1));
+        var key = cache.key(filter(false, "/uri1"), BASE, BASE.plusHours(1));
+        AtomicInteger loads = new AtomicInteger();
+
+        cache.get(key, loads::incrementAndGet);
+        cache.get(key, loads::incrementAndGet);
+
+        assertEquals(2, loads.get());
+    }
+
+    private void clearRollups() {
+        jdbcTemplate.update("DELETE FROM endpoint_hits_hourly");
+        jdbcTemplate.update("DELETE FROM endpoint_hits_daily");
+    }
+
+    private static Map<String, Long> byUri(List<ViewStatsDto> stats) {
+        return stats.stream().collect(Collectors.toMap(ViewStatsDto::getUri, ViewStatsDto::getHits));
+    }
+
+    private static StatsFilter filter(boolean unique, String... uris) {
+        return StatsFilter.builder()
+                .start(BASE.plusHours(9).plusMinutes(45))
+                .end(BASE.plusDays(2).plusMinutes(30))
+                .uris(List.of(uris))
+                .unique(unique)
+                .build();
+    }
+
+    private static EndpointHit hit(String uri, String ip, LocalDateTime created) {
+        return new EndpointHit(null, "app1", uri, ip, created);
+    }
+}
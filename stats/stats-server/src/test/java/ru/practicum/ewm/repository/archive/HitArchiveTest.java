@@ -0,0 +1,139 @@
+package ru.practicum.ewm.repository.archive;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.practicum.ewm.core.metrics.StatsMetrics;
+import ru.practicum.ewm.model.EncodedHit;
+import ru.practicum.ewm.model.IpAddresses;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HitArchiveTest {
+
+    private static final LocalDateTime BASE = LocalDateTime.of(2024, 1, 1, 0, 0);
+
+    @TempDir
+    private Path directory;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void scanReturnsPublishedHitsInRange() {
+        HitArchive archive = archive(4);
+        List<EncodedHit> hits = day(BASE, 10);
+        publish(archive, BASE, BASE.plusDays(1), hits);
+
+        List<EncodedHit> scanned = scan(archive, BASE.plusHours(2), BASE.plusHours(5));
+
+        assertEquals(3, scanned.size());
+        for (int i = 0; i < scanned.size(); i++) {
+            EncodedHit expected = hits.get(i + 2);
+            assertEquals(expected.appId(), scanned.get(i).appId());
+            assertEquals(expected.uriId(), scanned.get(i).uriId());
+            assertArrayEquals(expected.ip(), scanned.get(i).ip());
+            assertEquals(expected.created(), scanned.get(i).created());
+        }
+    }
+
+    @Test
+    void blocksOutsideRangeAreSkipped() {
+        HitArchive archive = archive(4);
+        publish(archive, BASE, BASE.plusDays(1), day(BASE, 12));
+
+        scan(archive, BASE.plusHours(9), BASE.plusHours(10));
+
+        // 12 записей в трёх блоках по 4: нужен только последний
+        assertEquals(4.0, meterRegistry.counter("stats.query.rows.scanned", "source", StatsMetrics.ARCHIVE).count());
+    }
+
+    @Test
+    void reopenedArchiveKeepsFilesAndBoundary() {
+        HitArchive archive = archive(4);
+        publish(archive, BASE, BASE.plusDays(1), day(BASE, 5));
+        publish(archive, BASE.plusDays(1), BASE.plusDays(2), day(BASE.plusDays(1), 3));
+
+        HitArchive reopened = archive(4);
+
+        assertEquals(BASE.plusDays(2), reopened.archivedBefore());
+        assertEquals(8, scan(reopened, BASE, BASE.plusDays(2)).size());
+    }
+
+    @Test
+    void coversOnlyContinuousIntervals() {
+        HitArchive archive = archive(4);
+        publish(archive, BASE, BASE.plusHours(2), day(BASE, 2));
+        publish(archive, BASE.plusHours(2), BASE.plusHours(3), day(BASE.plusHours(2), 1));
+        publish(archive, BASE.plusHours(5), BASE.plusHours(6), day(BASE.plusHours(5), 1));
+
+        assertTrue(archive.covers(BASE.plusHours(1), BASE.plusHours(3)));
+        // строки за [3:00, 5:00) удалены без выгрузки
+        assertFalse(archive.covers(BASE, BASE.plusHours(6)));
+        assertFalse(archive.covers(BASE.minusHours(1), BASE.plusHours(2)));
+    }
+
+    @Test
+    void unpublishedExportLeavesNoFile() throws IOException {
+        HitArchive archive = archive(4);
+        try (HitArchive.Export export = archive.export(BASE, BASE.plusDays(1))) {
+            day(BASE, 3).forEach(export::append);
+        }
+
+        assertNull(archive.archivedBefore());
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    void ipv6AndMicrosecondsSurviveRoundTrip() {
+        HitArchive archive = archive(4);
+        EncodedHit hit = new EncodedHit(7, 1L << 40, IpAddresses.encode("2001:db8::1"),
+                BASE.plusHours(1).plusNanos(123_456_000));
+        publish(archive, BASE, BASE.plusDays(1), List.of(hit));
+
+        EncodedHit scanned = scan(archive, BASE, BASE.plusDays(1)).getFirst();
+
+        assertEquals(hit.uriId(), scanned.uriId());
+        assertArrayEquals(hit.ip(), scanned.ip());
+        assertEquals(hit.created(), scanned.created());
+    }
+
+    private HitArchive archive(int blockRows) {
+        return new HitArchive(new StatsMetrics(meterRegistry), directory, blockRows);
+    }
+
+    private static void publish(HitArchive archive, LocalDateTime from, LocalDateTime to, List<EncodedHit> hits) {
+        try (HitArchive.Export export = archive.export(from, to)) {
+            hits.forEach(export::append);
+            export.publish();
+        }
+    }
+
+    private static List<EncodedHit> scan(HitArchive archive, LocalDateTime from, LocalDateTime to) {
+        List<EncodedHit> result = new ArrayList<>();
+        archive.scan(from, to, result::add);
+        return result;
+    }
+
+    // по hit-у в час начиная с start
+    private static List<EncodedHit> day(LocalDateTime start, int count) {
+        List<EncodedHit> hits = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            hits.add(new EncodedHit(1 + i % 2, 100 + i, IpAddresses.encode("10.0.0." + i), start.plusHours(i)));
+        }
+        return hits;
+    }
+}
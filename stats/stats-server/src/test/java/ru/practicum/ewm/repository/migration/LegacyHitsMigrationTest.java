@@ -0,0 +1,85 @@
+package ru.practicum.ewm.repository.migration;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import ru.practicum.ewm.ViewStatsDto;
+import ru.practicum.ewm.filter.StatsFilter;
+import ru.practicum.ewm.repository.HitStorage;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// сервер запускается на базе, созданной schema.sql первой версии (app, uri и ip строками)
+@SpringBootTest
+@DirtiesContext
+class LegacyHitsMigrationTest {
+
+    private static final String URL = "jdbc:h2:mem:stats-legacy;DB_CLOSE_DELAY=-1";
+
+    @Autowired
+    private HitStorage storage;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    // база заполняется до создания контекста, то есть до schema.sql
+    @DynamicPropertySource
+    static void legacyDatabase(DynamicPropertyRegistry registry) throws SQLException {
+        try (Connection connection = DriverManager.getConnection(URL, "admin", "100");
+             Statement statement = connection.createStatement()) {
+            statement.execute("""
+                    CREATE TABLE IF NOT EXISTS endpoint_hits
+                    (
+                        id      BIGINT GENERATED BY DEFAULT AS IDENTITY NOT NULL,
+                        app     VARCHAR(512)                            NOT NULL,
+                        uri     VARCHAR(512)                            NOT NULL,
+                        ip      VARCHAR(512)                            NOT NULL,
+                        created TIMESTAMP WITHOUT TIME ZONE             NOT NULL,
+                        CONSTRAINT pk_endpoint_hits PRIMARY KEY (id)
+                    )""");
+            statement.execute("CREATE INDEX IF NOT EXISTS idx_endpoint_hits_ip ON endpoint_hits (ip)");
+            statement.execute("CREATE INDEX IF NOT EXISTS idx_endpoint_hits_timestamp ON endpoint_hits (created)");
+            statement.execute("""
+                    INSERT INTO endpoint_hits (app, uri, ip, created) VALUES
+                    ('ewm-main-service', '/events/1', '192.168.0.1', '2024-01-01 10:00:00'),
+                    ('ewm-main-service', '/events/1', '192.168.0.1', '2024-01-01 11:30:00'),
+                    ('ewm-main-service', '/events/1', '2001:db8::1', '2024-01-02 09:00:00'),
+                    ('ewm-main-service', '/events/2', '192.168.0.2', '2024-01-02 09:15:00'),
+                    ('ewm-main-service', '/events/2', 'unknown', '2024-01-02 09:20:00')""");
+        }
+        registry.add("spring.datasource.url", () -> URL);
+    }
+
+    @Test
+    void legacyHitsMigratedOnStartup() throws Exception {
+        var filter = StatsFilter.builder()
+                .start(LocalDateTime.of(2024, 1, 1, 0, 0))
+                .end(LocalDateTime.of(2024, 1, 3, 0, 0))
+                .unique(false)
+                .build();
+
+        assertEquals(Map.of("/events/1", 3L, "/events/2", 1L), byUri(storage.findStats(filter)));
+        assertEquals(Map.of("/events/1", 2L, "/events/2", 1L),
+                byUri(storage.findStats(filter.toBuilder().unique(true).exact(true).build())));
+        assertEquals(4, jdbcTemplate.queryForObject("SELECT SUM(hits) FROM endpoint_hits_daily", Integer.class));
+        assertTrue(LegacyHitsMigration.columns(jdbcTemplate, LegacyHitsMigration.LEGACY_TABLE).isEmpty());
+    }
+
+    private static Map<String, Long> byUri(List<ViewStatsDto> stats) {
+        return stats.stream().collect(Collectors.toMap(ViewStatsDto::getUri, ViewStatsDto::getHits));
+    }
+}
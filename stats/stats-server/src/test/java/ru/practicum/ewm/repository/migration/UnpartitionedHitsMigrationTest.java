@@ -0,0 +1,93 @@
+package ru.practicum.ewm.repository.migration;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+// перевод несекционированной endpoint_hits в секционированную (только PostgreSQL): проверяются запросы
+@ExtendWith(MockitoExtension.class)
+class UnpartitionedHitsMigrationTest {
+
+    private static final Set<String> CURRENT_COLUMNS = Set.of("id", "app_id", "uri_id", "ip", "created");
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    @Mock
+    private TransactionTemplate transactionTemplate;
+
+    @Test
+    void prepareRenamesUnpartitionedTable() {
+        // первый вызов - столбцы endpoint_hits, второй - проверка PostgreSQL
+        when(jdbcTemplate.execute(any(ConnectionCallback.class))).thenReturn(CURRENT_COLUMNS, true);
+        when(jdbcTemplate.queryForObject(contains("relkind = 'r'"), eq(Boolean.class))).thenReturn(true);
+
+        new LegacyHitsMigration.Prepare(jdbcTemplate).afterPropertiesSet();
+
+        InOrder order = inOrder(jdbcTemplate);
+        order.verify(jdbcTemplate).execute("ALTER TABLE endpoint_hits RENAME TO endpoint_hits_unpartitioned");
+        order.verify(jdbcTemplate).execute("DROP INDEX IF EXISTS idx_endpoint_hits_uri_created");
+        order.verify(jdbcTemplate).execute("ALTER TABLE endpoint_hits_unpartitioned "
+                + "RENAME CONSTRAINT pk_endpoint_hits TO pk_endpoint_hits_unpartitioned");
+        order.verify(jdbcTemplate).execute("ALTER SEQUENCE IF EXISTS endpoint_hits_id_seq "
+                + "RENAME TO endpoint_hits_unpartitioned_id_seq");
+    }
+
+    @Test
+    void prepareKeepsPartitionedTable() {
+        when(jdbcTemplate.execute(any(ConnectionCallback.class))).thenReturn(CURRENT_COLUMNS, true);
+        when(jdbcTemplate.queryForObject(contains("relkind = 'r'"), eq(Boolean.class))).thenReturn(false);
+
+        new LegacyHitsMigration.Prepare(jdbcTemplate).afterPropertiesSet();
+
+        verify(jdbcTemplate, never()).execute(startsWith("ALTER TABLE"));
+    }
+
+    @Test
+    void completeCopiesRowsWithIdsAndDropsOldTable() {
+        // endpoint_hits_v1 нет, endpoint_hits_unpartitioned есть
+        when(jdbcTemplate.execute(any(ConnectionCallback.class))).thenReturn(Set.of(), CURRENT_COLUMNS);
+        when(transactionTemplate.execute(any())).thenAnswer(invocation ->
+                invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(null));
+
+        new LegacyHitsMigration.Complete(jdbcTemplate, transactionTemplate).afterPropertiesSet();
+
+        InOrder order = inOrder(jdbcTemplate);
+        order.verify(jdbcTemplate).update("INSERT INTO endpoint_hits (id, app_id, uri_id, ip, created) "
+                + "SELECT id, app_id, uri_id, ip, created FROM endpoint_hits_unpartitioned");
+        order.verify(jdbcTemplate).queryForObject(contains("setval('endpoint_hits_id_seq'"), eq(Long.class));
+        order.verify(jdbcTemplate).execute("DROP TABLE endpoint_hits_unpartitioned");
+    }
+
+    // ошибка переноса откатывает транзакцию: старая таблица остаётся для повтора при следующем запуске
+    @Test
+    void failedCopyKeepsOldTable() {
+        when(jdbcTemplate.execute(any(ConnectionCallback.class))).thenReturn(Set.of(), CURRENT_COLUMNS);
+        when(transactionTemplate.execute(any())).thenAnswer(invocation ->
+                invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(null));
+        when(jdbcTemplate.update(startsWith("INSERT INTO endpoint_hits ("))).thenThrow(new IllegalStateException("нет места"));
+
+        var complete = new LegacyHitsMigration.Complete(jdbcTemplate, transactionTemplate);
+
+        assertThrows(IllegalStateException.class, complete::afterPropertiesSet);
+        verify(jdbcTemplate, never()).execute("DROP TABLE endpoint_hits_unpartitioned");
+    }
+}
@@ -0,0 +1,210 @@
+package ru.practicum.ewm.repository.segment;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+import ru.practicum.ewm.ViewStatsDto;
+import ru.practicum.ewm.core.metrics.StatsMetrics;
+import ru.practicum.ewm.filter.StatsFilter;
+import ru.practicum.ewm.filter.TimeseriesBucket;
+import ru.practicum.ewm.model.EndpointHit;
+import ru.practicum.ewm.model.TimeseriesPoint;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SegmentHitStorageTest {
+
+    private static final LocalDateTime BASE = LocalDateTime.of(2024, 1, 1, 0, 0);
+
+    @TempDir
+    private Path directory;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private SegmentHitStorage storage;
+
+    @BeforeEach
+    void setUp() {
+        // 5 записей на сегмент: пакет из setUp уже занимает два сегмента
+        storage = open();
+        storage.saveBatch(List.of(
+                hit("/uri1", "1.1.1.1", BASE.plusHours(9).plusMinutes(30)),
+                hit("/uri1", "1.1.1.2", BASE.plusHours(10).plusMinutes(15)),
+                hit("/uri1", "1.1.1.3", BASE.plusHours(11).plusMinutes(59)),
+                hit("/uri2", "1.1.1.1", BASE.plusDays(1).plusHours(5)),
+                hit("/uri2", "1.1.1.1", BASE.plusDays(2)),
+                hit("/uri2", "1.1.1.2", BASE.plusDays(2).plusMinutes(1))));
+    }
+
+    @AfterEach
+    void tearDown() {
+        storage.stop();
+    }
+
+    @Test
+    void countsScannedRecordsAndHours() {
+        storage.findStats(filter(BASE.plusHours(9).plusMinutes(45), BASE.plusDays(2)));
+
+        // оба крайних интервала просматривают первый сегмент целиком, второй пропускается по диапазону времени
+        assertEquals(10.0, meterRegistry.counter("stats.query.rows.scanned", "source", StatsMetrics.SEGMENT).count());
+        assertEquals(3.0, meterRegistry.counter("stats.query.rows.scanned", "source", StatsMetrics.HOUR_INDEX).count());
+    }
+
+    @Test
+    void countsEdgesAndFullHours() {
+        assertEquals(Map.of("/uri1", 2L, "/uri2", 2L),
+                byUri(storage.findStats(filter(BASE.plusHours(9).plusMinutes(45), BASE.plusDays(2)))));
+        assertEquals(Map.of("/uri1", 1L), byUri(storage.findStats(
+                filter(BASE.plusHours(10).plusMinutes(10), BASE.plusHours(10).plusMinutes(20)))));
+    }
+
+    @Test
+    void uniqueCountsDistinctIps() {
+        var filter = filter(BASE, BASE.plusDays(3)).toBuilder().unique(true).build();
+
+        assertEquals(Map.of("/uri1", 3L, "/uri2", 2L), byUri(storage.findStats(filter)));
+    }
+
+    @Test
+    void filtersByUrisWildcardsAndPrefix() {
+        var filter = filter(BASE, BASE.plusDays(3));
+
+        assertEquals(Map.of("/uri2", 3L), byUri(storage.findStats(filter.toBuilder().uris(List.of("/uri2")).build())));
+        assertEquals(Map.of("/uri1", 3L, "/uri2", 3L),
+                byUri(storage.findStats(filter.toBuilder().uris(List.of("/uri*")).build())));
+        assertEquals(Map.of("/uri1", 3L), byUri(storage.findStats(filter.toBuilder().prefix("/uri1").build())));
+        assertTrue(storage.findStats(filter.toBuilder().uris(List.of("/unknown")).build()).isEmpty());
+    }
+
+    @Test
+    void limitKeepsTopRows() {
+        storage.saveBatch(List.of(hit("/uri2", "1.1.1.9", BASE.plusDays(2).plusHours(1))));
+
+        var top = storage.findStats(filter(BASE, BASE.plusDays(3)).toBuilder().limit(1).build());
+
+        assertEquals(List.of(new ViewStatsDto("app1", "/uri2", 4L)), top);
+    }
+
+    @Test
+    void survivesRestart() {
+        var filter = filter(BASE, BASE.plusDays(3));
+        var expected = byUri(storage.findStats(filter));
+        storage.stop();
+
+        storage = open();
+
+        assertEquals(expected, byUri(storage.findStats(filter)));
+        storage.saveBatch(List.of(hit("/uri3", "1.1.1.1", BASE.plusHours(1))));
+        assertEquals(1L, byUri(storage.findStats(filter)).get("/uri3"));
+    }
+
+    @Test
+    void dropsTornDictionaryTail() throws IOException {
+        storage.stop();
+        Files.write(directory.resolve("dictionary.log"), new byte[]{1, 0, 0}, StandardOpenOption.APPEND);
+
+        storage = open();
+        storage.saveBatch(List.of(hit("/uri3", "1.1.1.1", BASE.plusHours(1))));
+        storage.stop();
+        storage = open();
+
+        assertEquals(1L, byUri(storage.findStats(filter(BASE, BASE.plusDays(3)))).get("/uri3"));
+    }
+
+    @Test
+    void lostDictionaryIdsAreNotReused() throws IOException {
+        Path dictionary = directory.resolve("dictionary.log");
+        long persisted = Files.size(dictionary);
+        storage.saveBatch(List.of(hit("/uri3", "1.1.1.9", BASE.plusHours(1))));
+        storage.stop();
+        // сбой ОС: запись hit-а в сегменте уцелела, запись словаря для /uri3 - нет
+        try (FileChannel channel = FileChannel.open(dictionary, StandardOpenOption.WRITE)) {
+            channel.truncate(persisted);
+        }
+
+        storage = open();
+        storage.saveBatch(List.of(hit("/uri4", "1.1.1.1", BASE.plusHours(2))));
+
+        assertEquals(Map.of("/uri1", 3L, "/uri2", 3L, "/uri4", 1L),
+                byUri(storage.findStats(filter(BASE, BASE.plusDays(3)))));
+    }
+
+    // кэш ip на два адреса: вытесненные ip находятся в журнале словаря и сохраняют свои id
+    @Test
+    void evictedIpsKeepTheirIds() throws IOException {
+        Path dictionary = directory.resolve("dictionary.log");
+        long size = Files.size(dictionary);
+
+        for (String ip : List.of("1.1.1.1", "1.1.1.2", "1.1.1.3", "1.1.1.1")) {
+            storage.saveBatch(List.of(hit("/uri1", ip, BASE.plusHours(9).plusMinutes(40))));
+        }
+        storage.stop();
+        storage = open();
+        storage.saveBatch(List.of(hit("/uri1", "1.1.1.2", BASE.plusHours(9).plusMinutes(41))));
+
+        assertEquals(size, Files.size(dictionary));
+        var filter = filter(BASE, BASE.plusDays(3)).toBuilder().unique(true).build();
+        assertEquals(Map.of("/uri1", 3L, "/uri2", 2L), byUri(storage.findStats(filter)));
+    }
+
+    @Test
+    void timeseriesByHourAndMinute() {
+        var filter = filter(BASE.plusHours(9).plusMinutes(45), BASE.plusHours(12)).toBuilder()
+                .uris(List.of("/uri1"))
+                .build();
+
+        assertEquals(Map.of(BASE.plusHours(10), 1L, BASE.plusHours(11), 1L),
+                series(storage.findTimeseries(filter, TimeseriesBucket.HOUR)));
+        assertEquals(Map.of(BASE.plusHours(10).plusMinutes(15), 1L, BASE.plusHours(11).plusMinutes(59), 1L),
+                series(storage.findTimeseries(filter, TimeseriesBucket.MINUTE)));
+    }
+
+    @Test
+    void rotatesFixedSizeSegments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(2, files.filter(path -> path.getFileName().toString().endsWith(".seg")).count());
+        }
+    }
+
+    private SegmentHitStorage open() {
+        var opened = new SegmentHitStorage(new StatsMetrics(meterRegistry), directory, DataSize.ofBytes(5 * HitSegment.RECORD_SIZE),
+                SegmentHitStorage.FsyncPolicy.ALWAYS, 2);
+        opened.start();
+        return opened;
+    }
+
+    private static Map<LocalDateTime, Long> series(List<TimeseriesPoint> points) {
+        return points.stream().collect(Collectors.toMap(TimeseriesPoint::bucket, TimeseriesPoint::hits));
+    }
+
+    private static Map<String, Long> byUri(List<ViewStatsDto> stats) {
+        return stats.stream().collect(Collectors.toMap(ViewStatsDto::getUri, ViewStatsDto::getHits));
+    }
+
+    private static StatsFilter filter(LocalDateTime start, LocalDateTime end) {
+        return StatsFilter.builder()
+                .start(start)
+                .end(end)
+                .unique(false)
+                .build();
+    }
+
+    private static EndpointHit hit(String uri, String ip, LocalDateTime created) {
+        return new EndpointHit(null, "app1", uri, ip, created);
+    }
+}
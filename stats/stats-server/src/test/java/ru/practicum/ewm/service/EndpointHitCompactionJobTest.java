@@ -0,0 +1,210 @@
+package ru.practicum.ewm.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.util.ReflectionTestUtils;
+import ru.practicum.ewm.ViewStatsDto;
+import ru.practicum.ewm.core.exception.ConflictException;
+import ru.practicum.ewm.core.metrics.StatsMetrics;
+import ru.practicum.ewm.filter.StatsFilter;
+import ru.practicum.ewm.model.ArchiveReport;
+import ru.practicum.ewm.model.EndpointHit;
+import ru.practicum.ewm.repository.DatabasePlatform;
+import ru.practicum.ewm.repository.EndpointHitCompactionRepository;
+import ru.practicum.ewm.repository.EndpointHitPartitionRepository;
+import ru.practicum.ewm.repository.EndpointHitRepository;
+import ru.practicum.ewm.repository.EndpointHitRollupRepository;
+import ru.practicum.ewm.repository.HitDictionary;
+import ru.practicum.ewm.repository.StatsResultCache;
+import ru.practicum.ewm.repository.archive.HitArchive;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@JdbcTest
+@Import({EndpointHitCompactionJob.class, EndpointHitCompactionRepository.class, EndpointHitRepository.class,
+        EndpointHitRollupRepository.class, HitDictionary.class, DatabasePlatform.class, StatsResultCache.class,
+        StatsMetrics.class, SimpleMeterRegistry.class, HitArchive.class, EndpointHitPartitionRepository.class})
+@TestPropertySource(properties = "stats.compaction.raw-retention-days=7")
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+class EndpointHitCompactionJobTest {
+
+    // сутки старше границы сжатия и сутки внутри срока хранения сырых hit-ов
+    private static final LocalDateTime OLD = LocalDate.now().minusDays(10).atStartOfDay();
+    private static final LocalDateTime RECENT = LocalDate.now().minusDays(2).atStartOfDay();
+
+    @TempDir
+    private static Path archiveDirectory;
+
+    @Autowired
+    private EndpointHitCompactionJob job;
+
+    @Autowired
+    private EndpointHitCompactionRepository compactionRepository;
+
+    @Autowired
+    private HitArchive archive;
+
+    @Autowired
+    private EndpointHitRepository repository;
+
+    @Autowired
+    private EndpointHitRollupRepository rollupRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @DynamicPropertySource
+    static void archiveProperties(DynamicPropertyRegistry registry) {
+        registry.add("stats.archive.directory", archiveDirectory::toString);
+    }
+
+    @BeforeEach
+    void setUp() {
+        repository.saveBatch(List.of(
+                hit("/uri1", "1.1.1.1", OLD.plusHours(9).plusMinutes(30)),
+                hit("/uri1", "1.1.1.2", OLD.plusHours(10).plusMinutes(15)),
+                hit("/uri1", "1.1.1.1", OLD.plusDays(1).plusHours(3)),
+                hit("/uri1", "1.1.1.3", RECENT.plusHours(4).plusMinutes(10)),
+                hit("/uri1", "1.1.1.3", RECENT.plusHours(4).plusMinutes(50))));
+    }
+
+    // файлы архива не откатываются вместе с транзакцией теста
+    @AfterEach
+    void clearArchive() throws IOException {
+        try (Stream<Path> files = Files.list(archiveDirectory)) {
+            for (Path file : files.toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    void deletesOnlyHitsBeforeRawBoundary() {
+        job.compact();
+
+        assertEquals(2, count("endpoint_hits"));
+        assertEquals(0, count("endpoint_hits_archive"));
+    }
+
+    @Test
+    void archiveMovesHitsBeforeRawBoundary() {
+        ReflectionTestUtils.setField(job, "action", EndpointHitCompactionJob.CompactionAction.ARCHIVE);
+
+        job.compact();
+
+        assertEquals(2, count("endpoint_hits"));
+        assertEquals(3, count("endpoint_hits_archive"));
+    }
+
+    @Test
+    void statsAcrossBoundaryUnchangedAfterCompaction() {
+        var filter = filter(OLD, RECENT.plusHours(4).plusMinutes(30));
+        var hits = byUri(rollupRepository.findStats(filter));
+        var unique = byUri(rollupRepository.findUniqueStats(filter.toBuilder().unique(true).build()));
+
+        job.compact();
+
+        assertEquals(Map.of("/uri1", 4L), hits);
+        assertEquals(hits, byUri(rollupRepository.findStats(filter)));
+        assertEquals(unique, byUri(rollupRepository.findUniqueStats(filter.toBuilder().unique(true).build())));
+    }
+
+    @Test
+    void compactedEdgeHoursCountedWhole() {
+        job.compact();
+
+        // 9:30 попадает в запрос с 9:45: до границы неполный час берётся из часового агрегата целиком
+        var filter = filter(OLD.plusHours(9).plusMinutes(45), OLD.plusHours(10).plusMinutes(5));
+        assertEquals(Map.of("/uri1", 2L), byUri(rollupRepository.findStats(filter)));
+        assertEquals(Map.of("/uri1", 2L), byUri(rollupRepository.findUniqueStats(filter.toBuilder().unique(true).build())));
+    }
+
+    @Test
+    void skipsEmptyHoursBeforeVeryOldHit() {
+        repository.saveBatch(List.of(hit("/uri2", "1.1.1.4", OLD.minusYears(20))));
+
+        job.compact();
+
+        assertEquals(2, count("endpoint_hits"));
+    }
+
+    @Test
+    void skipsWhileSketchesMissing() {
+        jdbcTemplate.update("UPDATE endpoint_hits_hourly SET visitors = NULL");
+
+        job.compact();
+
+        assertEquals(5, count("endpoint_hits"));
+    }
+
+    @Test
+    void exportMovesHitsToArchiveFiles() throws ConflictException {
+        ArchiveReport report = job.export(RECENT.plusHours(4).plusMinutes(20));
+
+        // файлы только за часы с hit-ами, но последний из них покрывает интервал до самой границы
+        assertEquals(RECENT.plusHours(4), report.before());
+        assertEquals(3, report.hits());
+        assertEquals(RECENT.plusHours(4), report.archivedBefore());
+        assertEquals(RECENT.plusHours(4), archive.archivedBefore());
+        assertEquals(true, archive.covers(OLD.plusHours(9), RECENT.plusHours(4)));
+        assertEquals(2, count("endpoint_hits"));
+    }
+
+    @Test
+    void exactUniqueCombinesArchiveAndRawHits() throws ConflictException {
+        var filter = filter(OLD.plusHours(9).plusMinutes(45), RECENT.plusDays(1)).toBuilder().unique(true).build();
+        var expected = byUri(repository.findStatsByUnique(filter));
+
+        job.export(OLD.plusDays(1).plusHours(12));
+
+        assertEquals(Map.of("/uri1", 3L), expected);
+        assertEquals(expected, byUri(repository.findStatsByUniqueWithArchive(filter, compactionRepository.rawFrom())));
+    }
+
+    @Test
+    void exportRejectsOpenHour() {
+        assertThrows(ConflictException.class, () -> job.export(LocalDateTime.now().plusHours(2)));
+    }
+
+    private int count(String table) {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + table, Integer.class);
+    }
+
+    private static Map<String, Long> byUri(List<ViewStatsDto> stats) {
+        return stats.stream().collect(Collectors.toMap(ViewStatsDto::getUri, ViewStatsDto::getHits));
+    }
+
+    private static StatsFilter filter(LocalDateTime start, LocalDateTime end) {
+        return StatsFilter.builder()
+                .start(start)
+                .end(end)
+                .unique(false)
+                .build();
+    }
+
+    private static EndpointHit hit(String uri, String ip, LocalDateTime created) {
+        return new EndpointHit(null, "app1", uri, ip, created);
+    }
+}
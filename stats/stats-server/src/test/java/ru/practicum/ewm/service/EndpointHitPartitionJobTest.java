@@ -0,0 +1,104 @@
+package ru.practicum.ewm.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.ewm.repository.EndpointHitPartitionRepository;
+
+import java.time.YearMonth;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class EndpointHitPartitionJobTest {
+
+    private static final YearMonth CURRENT = YearMonth.now();
+
+    @Mock
+    private EndpointHitPartitionRepository partitionRepository;
+
+    private EndpointHitPartitionJob job;
+
+    @BeforeEach
+    void setUp() {
+        job = new EndpointHitPartitionJob(partitionRepository,
+                new TransactionTemplate(mock(PlatformTransactionManager.class)));
+        ReflectionTestUtils.setField(job, "enabled", true);
+        ReflectionTestUtils.setField(job, "monthsAhead", 2);
+        ReflectionTestUtils.setField(job, "retentionMonths", 0);
+        ReflectionTestUtils.setField(job, "retentionAction", EndpointHitPartitionJob.RetentionAction.DETACH);
+    }
+
+    @Test
+    void createsMissingMonthsAhead() {
+        when(partitionRepository.isPartitioned()).thenReturn(true);
+        when(partitionRepository.findMonthPartitions()).thenReturn(List.of(CURRENT));
+
+        job.maintain();
+
+        verify(partitionRepository, never()).createMonthPartition(CURRENT);
+        verify(partitionRepository).createMonthPartition(CURRENT.plusMonths(1));
+        verify(partitionRepository).createMonthPartition(CURRENT.plusMonths(2));
+        verify(partitionRepository, never()).createMonthPartition(CURRENT.plusMonths(3));
+    }
+
+    @Test
+    void skipsWhenTableNotPartitioned() {
+        when(partitionRepository.isPartitioned()).thenReturn(false);
+
+        job.maintain();
+
+        verify(partitionRepository, never()).findMonthPartitions();
+        verify(partitionRepository, never()).createMonthPartition(any());
+    }
+
+    @Test
+    void detachesPartitionsOutOfRetention() {
+        ReflectionTestUtils.setField(job, "retentionMonths", 2);
+        when(partitionRepository.isPartitioned()).thenReturn(true);
+        when(partitionRepository.findMonthPartitions()).thenReturn(List.of(CURRENT.minusMonths(3),
+                CURRENT.minusMonths(2), CURRENT, CURRENT.plusMonths(1), CURRENT.plusMonths(2)));
+
+        job.maintain();
+
+        verify(partitionRepository).detachMonthPartition(CURRENT.minusMonths(3));
+        verify(partitionRepository, never()).detachMonthPartition(CURRENT.minusMonths(2));
+        verify(partitionRepository, never()).dropTable(any());
+    }
+
+    @Test
+    void dropsPartitionsOutOfRetention() {
+        ReflectionTestUtils.setField(job, "retentionMonths", 2);
+        ReflectionTestUtils.setField(job, "retentionAction", EndpointHitPartitionJob.RetentionAction.DROP);
+        when(partitionRepository.isPartitioned()).thenReturn(true);
+        when(partitionRepository.findMonthPartitions()).thenReturn(List.of(CURRENT.minusMonths(3), CURRENT,
+                CURRENT.plusMonths(1), CURRENT.plusMonths(2)));
+
+        job.maintain();
+
+        verify(partitionRepository).detachMonthPartition(CURRENT.minusMonths(3));
+        verify(partitionRepository).dropTable(CURRENT.minusMonths(3));
+    }
+
+    @Test
+    void startupSurvivesMaintenanceError() {
+        when(partitionRepository.isPartitioned()).thenReturn(true);
+        when(partitionRepository.findMonthPartitions())
+                .thenThrow(new DataAccessResourceFailureException("база недоступна"));
+
+        job.onStartup();
+
+        verify(partitionRepository, never()).createMonthPartition(any());
+    }
+}
@@ -1,5 +1,6 @@
 package ru.practicum.ewm.service;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import jakarta.validation.Validator;
 import jakarta.validation.ValidatorFactory;
 import org.junit.jupiter.api.BeforeEach;
@@ -7,14 +8,25 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.*;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
 import ru.practicum.ewm.EndpointHitDto;
+import ru.practicum.ewm.TimeseriesDto;
 import ru.practicum.ewm.ViewStatsDto;
+import ru.practicum.ewm.core.metrics.StatsMetrics;
 import ru.practicum.ewm.filter.StatsFilter;
+import ru.practicum.ewm.filter.TimeseriesBucket;
+import ru.practicum.ewm.filter.TimeseriesFilter;
+import ru.practicum.ewm.filter.TopStatsFilter;
+import ru.practicum.ewm.core.exception.ConditionsException;
 import ru.practicum.ewm.mapper.EndpointHitMapper;
 import ru.practicum.ewm.model.EndpointHit;
-import ru.practicum.ewm.repository.EndpointHitRepository;
+import ru.practicum.ewm.model.TimeseriesPoint;
+import ru.practicum.ewm.repository.HitStorage;
+import ru.practicum.ewm.repository.PartiallySavedException;
 
+import java.io.IOException;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
 
 import static jakarta.validation.Validation.buildDefaultValidatorFactory;
@@ -28,7 +40,18 @@ class EndpointHitServiceTest {
     private EndpointHitMapper mapper;
 
     @Mock
-    private EndpointHitRepository repository;
+    private HitStorage storage;
+
+    @Mock
+    private HitIngestBuffer buffer;
+
+    @Mock
+    private HitDeduplicator deduplicator;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Spy
+    private StatsMetrics metrics = new StatsMetrics(meterRegistry);
 
     @InjectMocks
     private EndpointHitService service;
@@ -40,7 +63,7 @@ class EndpointHitServiceTest {
     private StatsFilter nonUniqueFilter;
 
     @BeforeEach
-    void setUp() {
+    void setUp() throws Exception {
         try (ValidatorFactory factory = buildDefaultValidatorFactory()) {
             validator = factory.getValidator();
         }
@@ -69,45 +92,196 @@ class EndpointHitServiceTest {
         nonUniqueFilter = uniqueFilter.toBuilder()
                 .unique(false)
                 .build();
+
+        lenient().when(deduplicator.accept(anyList())).thenAnswer(invocation -> invocation.getArgument(0));
     }
 
     @Test
-    void saveEntity() {
+    void saveEntity() throws Exception {
         when(mapper.toEntity(validDto)).thenReturn(endpointHitEntity);
 
         service.createHit(validDto);
 
         verify(mapper, times(1)).toEntity(validDto);
-        verify(repository, times(1)).save(endpointHitEntity);
+        verify(storage, times(1)).saveBatch(List.of(endpointHitEntity));
+    }
+
+    @Test
+    void saveBatch() throws Exception {
+        var dtos = List.of(validDto, validDto.toBuilder().uri("/other-uri").build());
+        var entities = List.of(endpointHitEntity, endpointHitEntity);
+        when(mapper.toEntities(dtos)).thenReturn(entities);
+
+        service.createHits(dtos);
+
+        verify(storage, times(1)).saveBatch(entities);
+    }
+
+    @Test
+    void bufferedSaveSkipsRepository() throws Exception {
+        when(buffer.isEnabled()).thenReturn(true);
+        when(mapper.toEntity(validDto)).thenReturn(endpointHitEntity);
+
+        service.createHit(validDto);
+
+        verify(buffer, times(1)).offer(List.of(endpointHitEntity));
+        verify(storage, never()).saveBatch(any());
     }
 
     @Test
-    void callsUniqueMethod() {
+    void duplicateHitSkipsStorage() throws Exception {
+        when(deduplicator.accept(List.of(validDto))).thenReturn(List.of());
+
+        service.createHit(validDto);
+
+        verify(storage, never()).saveBatch(any());
+        verify(mapper, never()).toEntity(any());
+    }
+
+    @Test
+    void savedHitIdsAreCommitted() throws Exception {
+        when(mapper.toEntity(validDto)).thenReturn(endpointHitEntity);
+
+        service.createHit(validDto);
+
+        verify(deduplicator, times(1)).commit(List.of(validDto));
+        verify(deduplicator, times(1)).forget(List.of());
+    }
+
+    @Test
+    void failedSaveForgetsHitIds() throws Exception {
+        when(mapper.toEntity(validDto)).thenReturn(endpointHitEntity);
+        doThrow(new IllegalStateException("db down")).when(storage).saveBatch(List.of(endpointHitEntity));
+
+        assertThrows(IllegalStateException.class, () -> service.createHit(validDto));
+        verify(deduplicator, times(1)).forget(List.of(validDto));
+        verify(deduplicator, times(1)).commit(List.of());
+    }
+
+    @Test
+    void partiallySavedBatchForgetsOnlyUnsavedHitIds() throws Exception {
+        var second = validDto.toBuilder().hitId("h2").build();
+        var dtos = List.of(validDto, second);
+        when(deduplicator.accept(dtos)).thenReturn(dtos);
+        when(mapper.toEntities(dtos)).thenReturn(List.of(endpointHitEntity, endpointHitEntity));
+        doThrow(new PartiallySavedException(1, new IOException("disk full"))).when(storage).saveBatch(anyList());
+
+        assertThrows(PartiallySavedException.class, () -> service.createHits(dtos));
+        verify(deduplicator, times(1)).commit(List.of(validDto));
+        verify(deduplicator, times(1)).forget(List.of(second));
+    }
+
+    @Test
+    void ingestMetricsCountOnlyAcceptedHits() throws Exception {
+        var duplicate = validDto.toBuilder().hitId("h1").build();
+        var dtos = List.of(validDto, duplicate);
+        when(deduplicator.accept(dtos)).thenReturn(List.of(validDto));
+        when(mapper.toEntities(List.of(validDto))).thenReturn(List.of(endpointHitEntity));
+
+        service.createHits(dtos);
+
+        assertEquals(1.0, meterRegistry.get("stats.ingest.hits").counter().count());
+        assertEquals(2.0, meterRegistry.get("stats.ingest.batch.size").tag("endpoint", "hits").summary().totalAmount());
+        assertEquals(1, meterRegistry.get("stats.ingest.latency").tag("endpoint", "hits").timer().count());
+    }
+
+    @Test
+    void queryMetricsSplitByUniqueness() throws Exception {
+        when(storage.findStats(uniqueFilter)).thenReturn(List.of(new ViewStatsDto(), new ViewStatsDto()));
+
+        service.findStats(uniqueFilter);
+        service.findStats(nonUniqueFilter);
+
+        assertEquals(1, meterRegistry.get("stats.query.latency").tags("query", "stats", "unique", "true").timer().count());
+        assertEquals(1, meterRegistry.get("stats.query.latency").tags("query", "stats", "unique", "false").timer().count());
+        assertEquals(2.0, meterRegistry.get("stats.query.result.size").tags("unique", "true").summary().totalAmount());
+    }
+
+    @Test
+    void findsStatsInStorage() throws Exception {
         var expected = List.of(new ViewStatsDto());
-        when(repository.findStatsByUnique(uniqueFilter)).thenReturn(expected);
+        when(storage.findStats(uniqueFilter)).thenReturn(expected);
 
         List<ViewStatsDto> result = service.findStats(uniqueFilter);
 
         assertEquals(expected, result);
-        verify(repository, times(1)).findStatsByUnique(uniqueFilter);
-        verify(repository, never()).findStatsByNonUnique(any());
+        verify(storage, times(1)).findStats(uniqueFilter);
     }
 
     @Test
-    void callsNonUniqueMethod() {
-        var expected = List.of(new ViewStatsDto());
-        when(repository.findStatsByNonUnique(nonUniqueFilter)).thenReturn(expected);
+    void streamsFromStorage() throws Exception {
+        var sink = new ArrayList<ViewStatsDto>();
 
-        List<ViewStatsDto> result = service.findStats(nonUniqueFilter);
+        service.streamStats(nonUniqueFilter, sink::add);
 
-        assertEquals(expected, result);
-        verify(repository, times(1)).findStatsByNonUnique(nonUniqueFilter);
-        verify(repository, never()).findStatsByUnique(any());
+        verify(storage, times(1)).streamStats(eq(nonUniqueFilter), any());
+        verify(storage, never()).findStats(any());
+    }
+
+    @Test
+    void topPassesNAsLimit() throws Exception {
+        var top = TopStatsFilter.builder()
+                .start(nonUniqueFilter.getStart())
+                .end(nonUniqueFilter.getEnd())
+                .n(5)
+                .unique(false)
+                .prefix("/events/")
+                .build();
+        var expected = nonUniqueFilter.toBuilder().limit(5).prefix("/events/").build();
+        when(storage.findStats(expected)).thenReturn(List.of());
+
+        service.findTopStats(top);
+
+        verify(storage, times(1)).findStats(expected);
+    }
+
+    @Test
+    void timeseriesFillsMissingBucketsWithZeros() throws Exception {
+        ReflectionTestUtils.setField(service, "maxTimeseriesBuckets", 100);
+        var start = LocalDateTime.of(2025, 1, 1, 10, 30);
+        var filter = TimeseriesFilter.builder()
+                .start(start)
+                .end(start.plusHours(3))
+                .uris(List.of("/a"))
+                .bucket(TimeseriesBucket.HOUR)
+                .unique(false)
+                .build();
+        when(storage.findTimeseries(filter.toStatsFilter(), TimeseriesBucket.HOUR)).thenReturn(List.of(
+                new TimeseriesPoint("app", "/a", LocalDateTime.of(2025, 1, 1, 10, 0), 2),
+                new TimeseriesPoint("app", "/a", LocalDateTime.of(2025, 1, 1, 13, 0), 5)));
+
+        TimeseriesDto result = service.findTimeseries(filter);
+
+        assertEquals("hour", result.getBucket());
+        assertEquals(4, result.getTimestamps().size());
+        assertEquals(LocalDateTime.of(2025, 1, 1, 10, 0), result.getTimestamps().getFirst());
+        assertArrayEquals(new long[]{2, 0, 0, 5}, result.getSeries().getFirst().getHits());
+    }
+
+    @Test
+    void timeseriesRejectsTooManyBuckets() {
+        ReflectionTestUtils.setField(service, "maxTimeseriesBuckets", 100);
+        var filter = TimeseriesFilter.builder()
+                .start(LocalDateTime.of(2025, 1, 1, 0, 0))
+                .end(LocalDateTime.of(2025, 1, 2, 0, 0))
+                .uris(List.of("/a"))
+                .bucket(TimeseriesBucket.MINUTE)
+                .build();
+
+        assertThrows(ConditionsException.class, () -> service.findTimeseries(filter));
+        verifyNoInteractions(storage);
+    }
+
+    @Test
+    void invalidWhenLimitNotPositive() {
+        var filter = uniqueFilter.toBuilder().limit(0).build();
+
+        assertFalse(validator.validate(filter).isEmpty());
     }
 
     @Test
-    void returnsEmptyList() {
-        when(repository.findStatsByUnique(uniqueFilter)).thenReturn(List.of());
+    void returnsEmptyList() throws Exception {
+        when(storage.findStats(uniqueFilter)).thenReturn(List.of());
 
         List<ViewStatsDto> result = service.findStats(uniqueFilter);
 
@@ -0,0 +1,122 @@
+package ru.practicum.ewm.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import ru.practicum.ewm.EndpointHitDto;
+import ru.practicum.ewm.core.exception.TooManyRequestsException;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HitDeduplicatorTest {
+
+    private final AtomicLong nanoTime = new AtomicLong();
+    private final HitDeduplicator deduplicator = new HitDeduplicator(new SimpleMeterRegistry(), true,
+            Duration.ofMinutes(10), 10, 1000, nanoTime::get);
+
+    @Test
+    void dropsRepeatedHitIdWithinBatchAndAcrossBatches() throws Exception {
+        assertEquals(List.of(hit("app", "a"), hit("app", "b")),
+                written(List.of(hit("app", "a"), hit("app", "b"), hit("app", "a"))));
+
+        assertEquals(List.of(hit("app", "c")), written(List.of(hit("app", "b"), hit("app", "c"))));
+    }
+
+    @Test
+    void keysAreScopedByApp() throws Exception {
+        written(List.of(hit("app1", "a")));
+
+        assertEquals(1, written(List.of(hit("app2", "a"))).size());
+    }
+
+    @Test
+    void hitsWithoutIdAlwaysPass() throws Exception {
+        var anonymous = hit("app", null);
+
+        assertEquals(List.of(anonymous, anonymous), written(List.of(anonymous, anonymous)));
+    }
+
+    @Test
+    void pendingKeyIsRejectedUntilCommitted() throws Exception {
+        deduplicator.accept(List.of(hit("app", "a")));
+
+        assertThrows(TooManyRequestsException.class,
+                () -> deduplicator.accept(List.of(hit("app", "b"), hit("app", "a"))));
+        assertEquals(1, written(List.of(hit("app", "b"))).size());
+
+        deduplicator.commit(List.of(hit("app", "a")));
+        assertTrue(deduplicator.accept(List.of(hit("app", "a"))).isEmpty());
+    }
+
+    @Test
+    void forgottenKeysAreAcceptedAgain() throws Exception {
+        deduplicator.accept(List.of(hit("app", "a")));
+
+        deduplicator.forget(List.of(hit("app", "a")));
+
+        assertEquals(1, deduplicator.accept(List.of(hit("app", "a"))).size());
+    }
+
+    @Test
+    void keysExpireAfterWindow() throws Exception {
+        written(List.of(hit("app", "a")));
+
+        nanoTime.addAndGet(Duration.ofMinutes(9).toNanos());
+        assertTrue(written(List.of(hit("app", "a"))).isEmpty());
+
+        nanoTime.addAndGet(Duration.ofMinutes(2).toNanos());
+        assertEquals(1, written(List.of(hit("app", "a"))).size());
+    }
+
+    @Test
+    void keysOverBucketLimitAreNotRemembered() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            written(List.of(hit("app", "id-" + i)));
+        }
+
+        assertTrue(written(List.of(hit("app", "id-99"))).isEmpty());
+        assertEquals(1, written(List.of(hit("app", "id-100"))).size());
+        assertEquals(1, written(List.of(hit("app", "id-100"))).size());
+    }
+
+    @Test
+    void longHashSetRemovesWithinProbeChains() {
+        var set = new HitDeduplicator.LongHashSet();
+        for (long key = 1; key <= 5000; key++) {
+            set.add(key * 1024);
+        }
+        for (long key = 1; key <= 5000; key += 2) {
+            set.remove(key * 1024);
+        }
+
+        assertEquals(2500, set.size());
+        for (long key = 1; key <= 5000; key++) {
+            assertEquals(key % 2 == 0, set.contains(key * 1024));
+        }
+        assertFalse(set.contains(0));
+    }
+
+    // приём и успешная запись
+    private List<EndpointHitDto> written(List<EndpointHitDto> dtos) throws TooManyRequestsException {
+        List<EndpointHitDto> accepted = deduplicator.accept(dtos);
+        deduplicator.commit(accepted);
+        return accepted;
+    }
+
+    private static EndpointHitDto hit(String app, String hitId) {
+        return EndpointHitDto.builder()
+                .app(app)
+                .uri("/uri")
+                .ip("1.1.1.1")
+                .timestamp(LocalDateTime.of(2025, 1, 1, 0, 0))
+                .hitId(hitId)
+                .build();
+    }
+}
@@ -0,0 +1,173 @@
+package ru.practicum.ewm.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+import ru.practicum.ewm.core.exception.TooManyRequestsException;
+import ru.practicum.ewm.model.EndpointHit;
+import ru.practicum.ewm.repository.HitStorage;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(MockitoExtension.class)
+class HitIngestBufferTest {
+
+    @Mock
+    private HitStorage storage;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private HitIngestBuffer buffer;
+
+    @AfterEach
+    void tearDown() {
+        if (buffer != null) {
+            buffer.stop();
+        }
+    }
+
+    @Test
+    void flushesBySize() throws Exception {
+        buffer = buffer(100, 2, Duration.ofMinutes(1));
+        buffer.start();
+
+        buffer.offer(List.of(hit(), hit()));
+
+        verify(storage, timeout(1000)).saveBatch(anyList());
+    }
+
+    @Test
+    void flushesRemainingOnStop() throws Exception {
+        buffer = buffer(100, 1000, Duration.ofMillis(50));
+        buffer.start();
+
+        buffer.offer(List.of(hit(), hit(), hit()));
+        buffer.stop();
+
+        verify(storage, atLeastOnce()).saveBatch(anyList());
+        assertEquals(0, buffer.depth());
+    }
+
+    @Test
+    void rejectsWhenFull() {
+        buffer = buffer(2, 1000, Duration.ofMinutes(1));
+        buffer.start();
+
+        assertThrows(TooManyRequestsException.class, () -> buffer.offer(List.of(hit(), hit(), hit())));
+        verify(storage, never()).saveBatch(anyList());
+    }
+
+    @Test
+    void batchIsAcceptedWhollyOrNotAtAll() throws Exception {
+        AtomicInteger stored = new AtomicInteger();
+        doAnswer(invocation -> stored.addAndGet(invocation.<List<EndpointHit>>getArgument(0).size()))
+                .when(storage).saveBatch(anyList());
+        buffer = buffer(3, 1000, Duration.ofMinutes(1));
+        buffer.start();
+        buffer.offer(List.of(hit(), hit()));
+
+        assertThrows(TooManyRequestsException.class, () -> buffer.offer(List.of(hit(), hit())));
+        buffer.stop();
+
+        assertEquals(2, stored.get());
+    }
+
+    @Test
+    void failedBatchIsRetried() throws Exception {
+        doThrow(new DataAccessResourceFailureException("база недоступна")).doNothing()
+                .when(storage).saveBatch(anyList());
+        buffer = buffer(100, 2, Duration.ofMinutes(1));
+        buffer.start();
+
+        buffer.offer(List.of(hit(), hit()));
+
+        verify(storage, timeout(1000).times(2)).saveBatch(anyList());
+    }
+
+    @Test
+    void capacityIsHeldUntilBatchIsStored() throws Exception {
+        doThrow(new DataAccessResourceFailureException("база недоступна")).when(storage).saveBatch(anyList());
+        buffer = buffer(2, 2, Duration.ofMinutes(1));
+        buffer.start();
+        buffer.offer(List.of(hit(), hit()));
+        verify(storage, timeout(1000).atLeastOnce()).saveBatch(anyList());
+
+        assertThrows(TooManyRequestsException.class, () -> buffer.offer(List.of(hit())));
+    }
+
+    @Test
+    void hitRejectedByStorageIsDroppedAndOthersStored() throws Exception {
+        EndpointHit poison = new EndpointHit(null, "app", "/" + "x".repeat(600), "1.1.1.1", LocalDateTime.now());
+        AtomicInteger stored = new AtomicInteger();
+        doAnswer(invocation -> {
+            List<EndpointHit> batch = invocation.getArgument(0);
+            if (batch.contains(poison)) {
+                throw new DataIntegrityViolationException("value too long for type character varying(512)");
+            }
+            return stored.addAndGet(batch.size());
+        }).when(storage).saveBatch(anyList());
+        buffer = buffer(3, 3, Duration.ofMinutes(1));
+        buffer.start();
+
+        buffer.offer(List.of(hit(), poison, hit()));
+        verify(storage, timeout(1000).times(4)).saveBatch(anyList());
+
+        assertEquals(2, stored.get());
+        assertEquals(1.0, meterRegistry.counter("stats.ingest.buffer.lost").count());
+        // место освобождено: следующий полный пакет принимается и записывается
+        offerWithin(Duration.ofSeconds(1), List.of(hit(), hit(), hit()));
+        verify(storage, timeout(1000).times(5)).saveBatch(anyList());
+        assertEquals(5, stored.get());
+    }
+
+    @Test
+    void rejectsWhenNotRunning() {
+        buffer = buffer(10, 10, Duration.ofMillis(50));
+
+        assertThrows(TooManyRequestsException.class, () -> buffer.offer(List.of(hit())));
+    }
+
+    // место освобождается сразу после записи, чуть позже вызова хранилища
+    private void offerWithin(Duration timeout, List<EndpointHit> hits) throws Exception {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        while (true) {
+            try {
+                buffer.offer(hits);
+                return;
+            } catch (TooManyRequestsException e) {
+                if (System.nanoTime() - deadline > 0) {
+                    throw e;
+                }
+                Thread.sleep(5);
+            }
+        }
+    }
+
+    private HitIngestBuffer buffer(int capacity, int flushSize, Duration flushInterval) {
+        return new HitIngestBuffer(storage, meterRegistry, IngestMode.ASYNC,
+                capacity, flushSize, flushInterval, HitIngestBuffer.OverflowPolicy.REJECT, Duration.ofMillis(10),
+                Duration.ofMillis(10), Duration.ofMillis(100));
+    }
+
+    private static EndpointHit hit() {
+        return new EndpointHit(null, "app", "/uri", "1.1.1.1", LocalDateTime.now());
+    }
+}
@@ -0,0 +1,93 @@
+package ru.practicum.ewm.sketch;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HyperLogLogTest {
+
+    @Test
+    void exactWhileSparse() {
+        HyperLogLog sketch = new HyperLogLog(12);
+        for (int i = 0; i < 300; i++) {
+            sketch.add(ip(i));
+            sketch.add(ip(i));
+        }
+
+        assertTrue(sketch.isSparse());
+        assertEquals(300, sketch.estimate());
+    }
+
+    @Test
+    void estimateWithinErrorBound() {
+        HyperLogLog sketch = new HyperLogLog(12);
+        int distinct = 100_000;
+        for (int i = 0; i < distinct; i++) {
+            sketch.add(ip(i));
+        }
+
+        assertFalse(sketch.isSparse());
+        assertWithin(distinct, sketch.estimate(), 12);
+    }
+
+    @Test
+    void mergeCountsUnion() {
+        HyperLogLog left = new HyperLogLog(12);
+        HyperLogLog right = new HyperLogLog(12);
+        for (int i = 0; i < 30_000; i++) {
+            left.add(ip(i));
+            right.add(ip(i + 20_000));
+        }
+
+        assertWithin(50_000, left.merge(right).estimate(), 12);
+    }
+
+    @Test
+    void mergeDifferentPrecisionFoldsToSmaller() {
+        HyperLogLog left = new HyperLogLog(14);
+        HyperLogLog right = new HyperLogLog(11);
+        for (int i = 0; i < 40_000; i++) {
+            left.add(ip(i));
+            right.add(ip(i + 40_000));
+        }
+
+        HyperLogLog merged = left.merge(right);
+
+        assertEquals(11, merged.getPrecision());
+        assertWithin(80_000, merged.estimate(), 11);
+    }
+
+    @Test
+    void bytesRoundTrip() {
+        HyperLogLog sparse = new HyperLogLog(12);
+        HyperLogLog dense = new HyperLogLog(12);
+        for (int i = 0; i < 10_000; i++) {
+            dense.add(ip(i));
+            if (i < 10) {
+                sparse.add(ip(i));
+            }
+        }
+
+        assertEquals(sparse.estimate(), HyperLogLog.fromBytes(sparse.toBytes()).estimate());
+        assertEquals(dense.estimate(), HyperLogLog.fromBytes(dense.toBytes()).estimate());
+    }
+
+    @Test
+    void rejectsUnsupportedPrecision() {
+        assertThrows(IllegalArgumentException.class, () -> new HyperLogLog(HyperLogLog.MAX_PRECISION + 1));
+    }
+
+    // 4 стандартные ошибки: тест не должен мигать
+    private static void assertWithin(long expected, long actual, int precision) {
+        double error = Math.abs(actual - expected) / (double) expected;
+        assertTrue(error < 4 * HyperLogLog.standardError(precision),
+                "оценка %d отличается от %d на %.2f%%".formatted(actual, expected, error * 100));
+    }
+
+    private static String ip(int i) {
+        return "10.%d.%d.%d".formatted((i >> 16) & 0xff, (i >> 8) & 0xff, i & 0xff);
+    }
+}